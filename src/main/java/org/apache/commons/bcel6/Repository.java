@@ -22,6 +22,7 @@ import java.io.IOException;
 import org.apache.commons.bcel6.classfile.JavaClass;
 import org.apache.commons.bcel6.util.ClassPath;
 import org.apache.commons.bcel6.util.SyntheticRepository;
+import org.apache.commons.bcel6.util.TypeHierarchy;
 
 /**
  * The repository maintains informations about class interdependencies, e.g.,
@@ -36,6 +37,7 @@ import org.apache.commons.bcel6.util.SyntheticRepository;
 public abstract class Repository {
 
     private static org.apache.commons.bcel6.util.Repository _repository = SyntheticRepository.getInstance();
+    private static volatile TypeHierarchy _hierarchy = new TypeHierarchy(_repository);
 
 
     /** @return currently used repository instance
@@ -49,6 +51,15 @@ public abstract class Repository {
      */
     public static void setRepository( org.apache.commons.bcel6.util.Repository rep ) {
         _repository = rep;
+        _hierarchy = new TypeHierarchy(rep);
+    }
+
+
+    /** @return type hierarchy of the classes in the current repository, used
+     * to answer instanceOf() and implementationOf() for class names
+     */
+    public static TypeHierarchy getTypeHierarchy() {
+        return _hierarchy;
     }
 
 
@@ -98,6 +109,7 @@ public abstract class Repository {
      */
     public static void clearCache() {
         _repository.clear();
+        _hierarchy.clear();
     }
 
 
@@ -109,6 +121,9 @@ public abstract class Repository {
     public static JavaClass addClass( JavaClass clazz ) {
         JavaClass old = _repository.findClass(clazz.getClassName());
         _repository.storeClass(clazz);
+        if (old != clazz) {
+            _hierarchy.clear(clazz.getClassName());
+        }
         return old;
     }
 
@@ -118,6 +133,7 @@ public abstract class Repository {
      */
     public static void removeClass( String clazz ) {
         _repository.removeClass(_repository.findClass(clazz));
+        _hierarchy.clear(clazz);
     }
 
 
@@ -126,6 +142,7 @@ public abstract class Repository {
      */
     public static void removeClass( JavaClass clazz ) {
         _repository.removeClass(clazz);
+        _hierarchy.clear(clazz.getClassName());
     }
 
 
@@ -193,7 +210,7 @@ public abstract class Repository {
      */
     public static boolean instanceOf( String clazz, String super_class )
             throws ClassNotFoundException {
-        return instanceOf(lookupClass(clazz), lookupClass(super_class));
+        return _hierarchy.instanceOf(clazz, super_class);
     }
 
 
@@ -235,7 +252,7 @@ public abstract class Repository {
      */
     public static boolean implementationOf( String clazz, String inter )
             throws ClassNotFoundException {
-        return implementationOf(lookupClass(clazz), lookupClass(inter));
+        return _hierarchy.implementationOf(clazz, inter);
     }
 
 
@@ -196,6 +196,14 @@ public final class StackMapTableEntry implements Cloneable, Serializable {
     }
 
 
+    /**
+     * @return the frame type, see Constants.SAME_FRAME etc.
+     */
+    public int getFrameType() {
+        return frame_type;
+    }
+
+
     public int getByteCodeOffsetDelta() {
         return byte_code_offset_delta;
     }
@@ -19,15 +19,9 @@ package org.apache.commons.bcel6.classfile;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.CharArrayReader;
-import java.io.CharArrayWriter;
-import java.io.FilterReader;
-import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.io.Reader;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -1052,8 +1046,24 @@ public abstract class Utility {
      * @throws ClassFormatException if signature isn't a known type
      */
     public static byte typeOfSignature( String signature ) throws ClassFormatException {
+        return typeOfSignature(signature, 0);
+    }
+
+
+    /**
+     * Return type of the signature starting at the given position as a byte
+     * value as defined in <em>Constants</em>
+     *
+     * @param  signature in format described above
+     * @param  index position of the signature within the string
+     * @return type of signature
+     * @see    Constants
+     *
+     * @throws ClassFormatException if signature isn't a known type
+     */
+    public static byte typeOfSignature( String signature, int index ) throws ClassFormatException {
         try {
-            switch (signature.charAt(0)) {
+            switch (signature.charAt(index)) {
                 case 'B':
                     return Constants.T_BYTE;
                 case 'C':
@@ -1261,21 +1271,30 @@ public abstract class Utility {
      */
     public static String encode( byte[] bytes, boolean compress ) throws IOException {
         if (compress) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 2 + 64);
             GZIPOutputStream gos = new GZIPOutputStream(baos);
             gos.write(bytes, 0, bytes.length);
             gos.close();
             baos.close();
             bytes = baos.toByteArray();
         }
-        CharArrayWriter caw = new CharArrayWriter();
-        JavaWriter jw = new JavaWriter(caw);
+        char[] chars = new char[bytes.length * 3]; // At most three chars per byte
+        int count = 0;
         for (byte b : bytes) {
             int in = b & 0x000000ff; // Normalize to unsigned
-            jw.write(in);
+            if (isJavaIdentifierPart((char) in) && (in != ESCAPE_CHAR)) {
+                chars[count++] = (char) in;
+            } else {
+                chars[count++] = ESCAPE_CHAR; // Escape character
+                if (in < FREE_CHARS) { // Special escape
+                    chars[count++] = (char) CHAR_MAP[in];
+                } else { // Normal escape
+                    chars[count++] = Character.forDigit(in >>> 4, 16);
+                    chars[count++] = Character.forDigit(in & 0x0f, 16);
+                }
+            }
         }
-        jw.close();
-        return caw.toString();
+        return new String(chars, 0, count);
     }
 
 
@@ -1288,30 +1307,55 @@ public abstract class Utility {
      * @throws IOException if there's a gzip exception
      */
     public static byte[] decode( String s, boolean uncompress ) throws IOException {
-        char[] chars = s.toCharArray();
-        CharArrayReader car = new CharArrayReader(chars);
-        JavaReader jr = new JavaReader(car);
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        int ch;
-        while ((ch = jr.read()) >= 0) {
-            bos.write(ch);
+        int length = s.length();
+        byte[] bytes = new byte[length]; // At most one byte per char
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = s.charAt(i);
+            if (ch != ESCAPE_CHAR) {
+                bytes[count++] = (byte) ch;
+                continue;
+            }
+            if (++i == length) { // Incomplete escape at the end
+                break;
+            }
+            ch = s.charAt(i);
+            if (((ch >= '0') && (ch <= '9')) || ((ch >= 'a') && (ch <= 'f'))) { // Normal escape
+                if (++i == length) {
+                    break;
+                }
+                int low = Character.digit(s.charAt(i), 16);
+                if (low < 0) {
+                    throw new NumberFormatException("For input string: \"" + ch + s.charAt(i) + "\"");
+                }
+                bytes[count++] = (byte) ((Character.digit(ch, 16) << 4) | low);
+            } else {
+                bytes[count++] = (byte) MAP_CHAR[ch];
+            }
         }
-        bos.close();
-        car.close();
-        jr.close();
-        byte[] bytes = bos.toByteArray();
         if (uncompress) {
-            GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(bytes));
-            byte[] tmp = new byte[bytes.length * 3]; // Rough estimate
-            int count = 0;
-            int b;
-            while ((b = gis.read()) >= 0) {
-                tmp[count++] = (byte) b;
+            GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(bytes, 0, count));
+            byte[] tmp = new byte[count * 3 + 64]; // Rough estimate, grown if necessary
+            int n = 0;
+            int read;
+            while ((read = gis.read(tmp, n, tmp.length - n)) >= 0) {
+                n += read;
+                if (n == tmp.length) {
+                    byte[] larger = new byte[tmp.length * 2];
+                    System.arraycopy(tmp, 0, larger, 0, n);
+                    tmp = larger;
+                }
             }
-            bytes = new byte[count];
-            System.arraycopy(tmp, 0, bytes, 0, count);
+            gis.close();
+            count = n;
+            bytes = tmp;
+        }
+        if (count == bytes.length) {
+            return bytes;
         }
-        return bytes;
+        byte[] result = new byte[count];
+        System.arraycopy(bytes, 0, result, 0, count);
+        return result;
     }
 
     // A-Z, g-z, _, $
@@ -1338,100 +1382,6 @@ public abstract class Utility {
         MAP_CHAR['_'] = j;
     }
 
-    /**
-     * Decode characters into bytes.
-     * Used by <a href="Utility.html#decode(java.lang.String, boolean)">decode()</a>
-     */
-    private static class JavaReader extends FilterReader {
-
-        public JavaReader(Reader in) {
-            super(in);
-        }
-
-
-        @Override
-        public int read() throws IOException {
-            int b = in.read();
-            if (b != ESCAPE_CHAR) {
-                return b;
-            }
-            int i = in.read();
-            if (i < 0) {
-                return -1;
-            }
-            if (((i >= '0') && (i <= '9')) || ((i >= 'a') && (i <= 'f'))) { // Normal escape
-                int j = in.read();
-                if (j < 0) {
-                    return -1;
-                }
-                char[] tmp = {
-                        (char) i, (char) j
-                };
-                int s = Integer.parseInt(new String(tmp), 16);
-                return s;
-            }
-            return MAP_CHAR[i];
-        }
-
-
-        @Override
-        public int read( char[] cbuf, int off, int len ) throws IOException {
-            for (int i = 0; i < len; i++) {
-                cbuf[off + i] = (char) read();
-            }
-            return len;
-        }
-    }
-
-    /**
-     * Encode bytes into valid java identifier characters.
-     * Used by <a href="Utility.html#encode(byte[], boolean)">encode()</a>
-     */
-    private static class JavaWriter extends FilterWriter {
-
-        public JavaWriter(Writer out) {
-            super(out);
-        }
-
-
-        @Override
-        public void write( int b ) throws IOException {
-            if (isJavaIdentifierPart((char) b) && (b != ESCAPE_CHAR)) {
-                out.write(b);
-            } else {
-                out.write(ESCAPE_CHAR); // Escape character
-                // Special escape
-                if (b >= 0 && b < FREE_CHARS) {
-                    out.write(CHAR_MAP[b]);
-                } else { // Normal escape
-                    char[] tmp = Integer.toHexString(b).toCharArray();
-                    if (tmp.length == 1) {
-                        out.write('0');
-                        out.write(tmp[0]);
-                    } else {
-                        out.write(tmp[0]);
-                        out.write(tmp[1]);
-                    }
-                }
-            }
-        }
-
-
-        @Override
-        public void write( char[] cbuf, int off, int len ) throws IOException {
-            for (int i = 0; i < len; i++) {
-                write(cbuf[off + i]);
-            }
-        }
-
-
-        @Override
-        public void write( String str, int off, int len ) throws IOException {
-            write(str.toCharArray(), off, len);
-        }
-    }
-
-
     /**
      * Escape all occurences of newline chars '\n', quotes \", etc.
      */
@@ -45,11 +45,16 @@ public final class BranchHandle extends InstructionHandle {
 
 
     static BranchHandle getBranchHandle( BranchInstruction i ) {
-        if (bh_list == null) {
+        BranchHandle bh;
+        synchronized (BranchHandle.class) {
+            bh = bh_list;
+            if (bh != null) {
+                bh_list = (BranchHandle) bh.next;
+            }
+        }
+        if (bh == null) {
             return new BranchHandle(i);
         }
-        BranchHandle bh = bh_list;
-        bh_list = (BranchHandle) bh.next;
         bh.setInstruction(i);
         return bh;
     }
@@ -59,8 +64,10 @@ public final class BranchHandle extends InstructionHandle {
      */
     @Override
     protected void addHandle() {
-        next = bh_list;
-        bh_list = this;
+        synchronized (BranchHandle.class) {
+            next = bh_list;
+            bh_list = this;
+        }
     }
 
 
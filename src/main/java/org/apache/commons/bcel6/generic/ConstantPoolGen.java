@@ -688,6 +688,70 @@ public class ConstantPoolGen implements java.io.Serializable {
     }
 
 
+    /**
+     * Precomputed stack effect and types of a Fieldref, Methodref,
+     * InterfaceMethodref or InvokeDynamic constant.
+     */
+    static final class SignatureInfo {
+
+        final String signature; // signature the entry was computed from
+        final Type[] argument_types; // null for fields
+        final Type type; // return type for methods, field type for fields
+        final int argument_size; // words taken by the arguments, excluding `this'
+        final int type_size; // words taken by type
+
+
+        SignatureInfo(String signature) {
+            this.signature = signature;
+            if (signature.charAt(0) == '(') {
+                argument_types = Type.getArgumentTypes(signature);
+                type = Type.getReturnType(signature);
+                int sum = 0;
+                for (Type argument_type : argument_types) {
+                    sum += argument_type.getSize();
+                }
+                argument_size = sum;
+            } else {
+                argument_types = null;
+                type = Type.getType(signature);
+                argument_size = 0;
+            }
+            type_size = type.getSize();
+        }
+    }
+
+    private transient SignatureInfo[] signature_cache;
+
+
+    /**
+     * Get the cached signature information for the field or method reference
+     * at index i. An entry is recomputed whenever the signature reachable from
+     * the slot is no longer the one it was computed from, e.g., because the
+     * slot or its NameAndType has been overwritten.
+     *
+     * @param i index of a ConstantCP entry
+     * @return signature information for the referenced field or method
+     */
+    SignatureInfo getSignatureInfo( int i ) {
+        ConstantCP cmr = (ConstantCP) constants[i];
+        ConstantNameAndType cnat = (ConstantNameAndType) constants[cmr.getNameAndTypeIndex()];
+        String signature = ((ConstantUtf8) constants[cnat.getSignatureIndex()]).getBytes();
+        if (signature_cache == null || signature_cache.length <= i) {
+            SignatureInfo[] cache = new SignatureInfo[Math.max(size, i + 1)];
+            if (signature_cache != null) {
+                System.arraycopy(signature_cache, 0, cache, 0, signature_cache.length);
+            }
+            signature_cache = cache;
+        }
+        SignatureInfo info = signature_cache[i];
+        if (info == null || info.signature != signature) {
+            info = new SignatureInfo(signature);
+            signature_cache[i] = info;
+        }
+        return info;
+    }
+
+
     /**
      * @return intermediate constant pool
      */
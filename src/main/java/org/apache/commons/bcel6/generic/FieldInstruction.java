@@ -58,7 +58,7 @@ public abstract class FieldInstruction extends FieldOrMethod {
     /** @return size of field (1 or 2)
      */
     protected int getFieldSize( ConstantPoolGen cpg ) {
-        return Type.size(Type.getTypeSize(getSignature(cpg)));
+        return cpg.getSignatureInfo(super.getIndex()).type_size;
     }
 
 
@@ -73,7 +73,7 @@ public abstract class FieldInstruction extends FieldOrMethod {
     /** @return type of field
      */
     public Type getFieldType( ConstantPoolGen cpg ) {
-        return Type.getType(getSignature(cpg));
+        return cpg.getSignatureInfo(super.getIndex()).type;
     }
 
 
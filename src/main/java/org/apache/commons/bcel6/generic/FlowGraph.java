@@ -0,0 +1,515 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.generic;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.commons.bcel6.Constants;
+
+/**
+ * The control flow graph of the code of a method. Instructions are
+ * identified by their index in the instruction list, basic blocks by
+ * their number in code order, so the graph is kept in int arrays.
+ * <p>
+ * A basic block is a maximal sequence of instructions that is only
+ * entered at its first instruction and only left after its last one,
+ * and whose instructions are all protected by the same exception handlers.
+ * Block 0 starts with the first instruction of the method. Normal edges
+ * follow branches and fall through; a JSR instruction leads to both its
+ * target and the next instruction, where the subroutine returns to. A RET
+ * has no edges, as the instruction it returns to depends on the caller.
+ * Exception edges lead from each block to the handlers protecting it.
+ * <p>
+ * Dominators and loops are computed on first request. A FlowGraph does
+ * not notice changes to the instruction list it was built from; build
+ * a new one after changing the code.
+ *
+ * @version $Id$
+ * @see MethodGen#getFlowGraph()
+ */
+public final class FlowGraph {
+
+    private static final int[] NONE = new int[0];
+
+    private final InstructionHandle[] handles;
+    private final int[] offset_to_index;
+    private final int[][] successors; // per instruction, normal edges
+    private final int[] block_of; // per instruction
+    private final int[] block_start; // per block, index of the first instruction; one extra entry
+    private final int[][] block_successors;
+    private final int[][] block_exception_successors;
+    private final int[][] block_predecessors;
+
+    /** Immediate dominators, -1 for the entry and unreachable blocks; null until computed. */
+    private int[] idom;
+    private int[] idom_order; // reverse postorder index of every reachable block, -1 otherwise
+    private int[] loop_depth;
+    private BitSet loop_headers;
+
+
+    /**
+     * Builds the control flow graph of the given code. The instruction
+     * positions of il are updated.
+     *
+     * @param il the instructions
+     * @param handlers the exception handlers of the code
+     */
+    public FlowGraph(InstructionList il, CodeExceptionGen[] handlers) {
+        handles = il.getInstructionHandles();
+        int n = handles.length;
+        if (n == 0) {
+            offset_to_index = NONE;
+        } else {
+            il.setPositions();
+            int[] positions = il.getInstructionPositions();
+            offset_to_index = new int[positions[n - 1] + handles[n - 1].getInstruction().getLength()];
+            Arrays.fill(offset_to_index, -1);
+            for (int i = 0; i < n; i++) {
+                offset_to_index[positions[i]] = i;
+            }
+        }
+
+        // Instruction level edges and the leaders of basic blocks
+        successors = new int[n][];
+        BitSet leaders = new BitSet(n + 1);
+        leaders.set(0);
+        for (int i = 0; i < n; i++) {
+            Instruction inst = handles[i].getInstruction();
+            successors[i] = successorsOf(i, inst);
+            if (inst instanceof BranchInstruction || isTerminator(inst)) {
+                leaders.set(i + 1);
+                for (int s : successors[i]) {
+                    leaders.set(s);
+                }
+            }
+        }
+        int[][] covered = new int[handlers.length][]; // first and last protected instruction, handler
+        for (int h = 0; h < handlers.length; h++) {
+            CodeExceptionGen handler = handlers[h];
+            int start = indexOf(handler.getStartPC());
+            int end = indexOf(handler.getEndPC());
+            int target = indexOf(handler.getHandlerPC());
+            covered[h] = new int[] { start, end, target };
+            leaders.set(start);
+            leaders.set(end + 1);
+            leaders.set(target);
+        }
+        leaders.clear(n, n + 1);
+
+        // Basic blocks
+        int blocks = leaders.cardinality();
+        block_start = new int[blocks + 1];
+        block_of = new int[n];
+        int b = -1;
+        for (int i = 0; i < n; i++) {
+            if (leaders.get(i)) {
+                block_start[++b] = i;
+            }
+            block_of[i] = b;
+        }
+        block_start[blocks] = n;
+
+        block_successors = new int[blocks][];
+        block_exception_successors = new int[blocks][];
+        int[] predecessor_count = new int[blocks];
+        for (b = 0; b < blocks; b++) {
+            int last = block_start[b + 1] - 1;
+            block_successors[b] = blocksOf(successors[last]);
+            int first = block_start[b];
+            int[] targets = new int[handlers.length];
+            int count = 0;
+            for (int[] cover : covered) {
+                if (cover[0] <= first && first <= cover[1]) {
+                    targets[count++] = cover[2];
+                }
+            }
+            block_exception_successors[b] = blocksOf(Arrays.copyOf(targets, count));
+            for (int s : block_successors[b]) {
+                predecessor_count[s]++;
+            }
+            for (int s : block_exception_successors[b]) {
+                if (!contains(block_successors[b], s)) {
+                    predecessor_count[s]++;
+                }
+            }
+        }
+        block_predecessors = new int[blocks][];
+        for (b = 0; b < blocks; b++) {
+            block_predecessors[b] = (predecessor_count[b] == 0) ? NONE : new int[predecessor_count[b]];
+            predecessor_count[b] = 0;
+        }
+        for (b = 0; b < blocks; b++) {
+            for (int s : block_successors[b]) {
+                block_predecessors[s][predecessor_count[s]++] = b;
+            }
+            for (int s : block_exception_successors[b]) {
+                if (!contains(block_successors[b], s)) {
+                    block_predecessors[s][predecessor_count[s]++] = b;
+                }
+            }
+        }
+    }
+
+
+    /** Returns true for instructions after which execution does not continue with the next instruction. */
+    private static boolean isTerminator( Instruction inst ) {
+        short opcode = inst.getOpcode();
+        return opcode == Constants.ATHROW || opcode == Constants.RET
+                || (opcode >= Constants.IRETURN && opcode <= Constants.RETURN);
+    }
+
+
+    /** Computes the normal successors of an instruction, without duplicates. */
+    private int[] successorsOf( int i, Instruction inst ) {
+        int next = (i + 1 < handles.length) ? i + 1 : -1;
+        if (isTerminator(inst)) {
+            return NONE;
+        }
+        if (inst instanceof Select) {
+            // BCEL's getTargets() returns only the non-default targets
+            InstructionHandle[] targets = ((Select) inst).getTargets();
+            int[] ret = new int[targets.length + 1];
+            ret[0] = indexOf(((Select) inst).getTarget());
+            for (int t = 0; t < targets.length; t++) {
+                ret[t + 1] = indexOf(targets[t]);
+            }
+            return distinct(ret);
+        }
+        if (inst instanceof GotoInstruction) {
+            return new int[] { indexOf(((GotoInstruction) inst).getTarget()) };
+        }
+        if (inst instanceof BranchInstruction) {
+            // IfInstruction or JsrInstruction
+            int target = indexOf(((BranchInstruction) inst).getTarget());
+            if (next == -1 || next == target) {
+                return new int[] { target };
+            }
+            return new int[] { next, target };
+        }
+        return (next == -1) ? NONE : new int[] { next };
+    }
+
+
+    /** Removes later duplicates, keeping the order. */
+    private static int[] distinct( int[] values ) {
+        int count = 0;
+        for (int value : values) {
+            boolean seen = false;
+            for (int j = 0; j < count && !seen; j++) {
+                seen = values[j] == value;
+            }
+            if (!seen) {
+                values[count++] = value;
+            }
+        }
+        return (count == values.length) ? values : Arrays.copyOf(values, count);
+    }
+
+
+    private int[] blocksOf( int[] instructions ) {
+        if (instructions.length == 0) {
+            return NONE;
+        }
+        int[] blocks = new int[instructions.length];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = block_of[instructions[i]];
+        }
+        return distinct(blocks);
+    }
+
+
+    private static boolean contains( int[] values, int value ) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** @return the number of instructions */
+    public int getInstructionCount() {
+        return handles.length;
+    }
+
+
+    /** @return the instruction with the given index */
+    public InstructionHandle getInstructionHandle( int index ) {
+        return handles[index];
+    }
+
+
+    /**
+     * @return the index of the given instruction
+     * @throws ClassGenException if the instruction is not part of the code
+     */
+    public int indexOf( InstructionHandle ih ) {
+        int position = ih.getPosition();
+        if (position >= 0 && position < offset_to_index.length) {
+            int index = offset_to_index[position];
+            if (index >= 0 && handles[index] == ih) {
+                return index;
+            }
+        }
+        throw new ClassGenException("Branch target " + ih + " not in instruction list");
+    }
+
+
+    /**
+     * @return the indices of the instructions execution may continue with
+     * after the given one, without exception edges; do not modify the array
+     */
+    public int[] getInstructionSuccessors( int index ) {
+        return successors[index];
+    }
+
+
+    /** @return the number of basic blocks */
+    public int getBlockCount() {
+        return block_successors.length;
+    }
+
+
+    /** @return the basic block the instruction with the given index belongs to */
+    public int getBlockOf( int index ) {
+        return block_of[index];
+    }
+
+
+    /** @return the index of the first instruction of the given block */
+    public int getBlockStart( int block ) {
+        return block_start[block];
+    }
+
+
+    /** @return the index of the last instruction of the given block */
+    public int getBlockEnd( int block ) {
+        return block_start[block + 1] - 1;
+    }
+
+
+    /** @return the blocks following the given block by normal edges; do not modify the array */
+    public int[] getSuccessors( int block ) {
+        return block_successors[block];
+    }
+
+
+    /** @return the handler blocks of the exception handlers protecting the given block, in handler table order; do not modify the array */
+    public int[] getExceptionSuccessors( int block ) {
+        return block_exception_successors[block];
+    }
+
+
+    /** @return the blocks with a normal or exception edge to the given block; do not modify the array */
+    public int[] getPredecessors( int block ) {
+        return block_predecessors[block];
+    }
+
+
+    /**
+     * @return true if the block can be reached from the start of the method
+     * or from an exception handler protecting reachable code
+     */
+    public boolean isReachable( int block ) {
+        computeDominators();
+        return idom_order[block] >= 0;
+    }
+
+
+    /**
+     * @return the immediate dominator of the given block, or -1 for block 0
+     * and for unreachable blocks. Exception edges count as edges.
+     */
+    public int getImmediateDominator( int block ) {
+        computeDominators();
+        return idom[block];
+    }
+
+
+    /**
+     * @return true if every path from the start of the method to block b
+     * passes through block a; a block dominates itself
+     */
+    public boolean dominates( int a, int b ) {
+        computeDominators();
+        if (idom_order[a] < 0 || idom_order[b] < 0) {
+            return false;
+        }
+        while (b != -1) {
+            if (b == a) {
+                return true;
+            }
+            b = idom[b];
+        }
+        return false;
+    }
+
+
+    /** @return true if the given block is the header of a natural loop, i.e. the target of a back edge */
+    public boolean isLoopHeader( int block ) {
+        computeLoops();
+        return loop_headers.get(block);
+    }
+
+
+    /** @return the number of natural loops the given block belongs to; loops with the same header count once */
+    public int getLoopDepth( int block ) {
+        computeLoops();
+        return loop_depth[block];
+    }
+
+
+    /**
+     * Computes the dominator tree with the algorithm of Cooper, Harvey and
+     * Kennedy, "A Simple, Fast Dominance Algorithm".
+     */
+    private synchronized void computeDominators() {
+        if (idom != null) {
+            return;
+        }
+        int blocks = getBlockCount();
+        int[] order = new int[blocks]; // reverse postorder index per block
+        Arrays.fill(order, -1);
+        int[] postorder = new int[blocks];
+        int count = 0;
+        if (blocks > 0) {
+            // iterative depth first search over normal and exception edges
+            int[] stack = new int[blocks];
+            int[] next_edge = new int[blocks];
+            boolean[] seen = new boolean[blocks];
+            int top = 0;
+            stack[top++] = 0;
+            seen[0] = true;
+            while (top > 0) {
+                int b = stack[top - 1];
+                int edge = next_edge[b]++;
+                int[] normal = block_successors[b];
+                int s = -1;
+                if (edge < normal.length) {
+                    s = normal[edge];
+                } else if (edge - normal.length < block_exception_successors[b].length) {
+                    s = block_exception_successors[b][edge - normal.length];
+                } else {
+                    top--;
+                    postorder[count++] = b;
+                    continue;
+                }
+                if (!seen[s]) {
+                    seen[s] = true;
+                    stack[top++] = s;
+                }
+            }
+        }
+        int[] rpo = new int[count];
+        for (int i = 0; i < count; i++) {
+            rpo[i] = postorder[count - 1 - i];
+            order[rpo[i]] = i;
+        }
+        int[] dom = new int[blocks];
+        Arrays.fill(dom, -1);
+        if (count > 0) {
+            dom[0] = 0;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < count; i++) {
+                int b = rpo[i];
+                int new_idom = -1;
+                for (int p : block_predecessors[b]) {
+                    if (dom[p] == -1) {
+                        continue;
+                    }
+                    if (new_idom == -1) {
+                        new_idom = p;
+                    } else {
+                        // intersect
+                        int f1 = p;
+                        int f2 = new_idom;
+                        while (f1 != f2) {
+                            while (order[f1] > order[f2]) {
+                                f1 = dom[f1];
+                            }
+                            while (order[f2] > order[f1]) {
+                                f2 = dom[f2];
+                            }
+                        }
+                        new_idom = f1;
+                    }
+                }
+                if (dom[b] != new_idom) {
+                    dom[b] = new_idom;
+                    changed = true;
+                }
+            }
+        }
+        if (count > 0) {
+            dom[0] = -1;
+        }
+        idom_order = order;
+        idom = dom;
+    }
+
+
+    /** Finds the natural loops from the back edges, i.e. edges to a dominating block. */
+    private synchronized void computeLoops() {
+        if (loop_depth != null) {
+            return;
+        }
+        int blocks = getBlockCount();
+        BitSet headers = new BitSet(blocks);
+        int[] depth = new int[blocks];
+        BitSet body = new BitSet(blocks);
+        int[] worklist = new int[blocks];
+        for (int h = 0; h < blocks; h++) {
+            body.clear();
+            int top = 0;
+            for (int p : block_predecessors[h]) {
+                if (dominates(h, p) && !body.get(p)) {
+                    body.set(p);
+                    worklist[top++] = p;
+                }
+            }
+            if (top == 0) {
+                continue;
+            }
+            headers.set(h);
+            body.set(h);
+            // Everything that reaches a back edge without passing the header
+            while (top > 0) {
+                int b = worklist[--top];
+                if (b == h) {
+                    continue;
+                }
+                for (int p : block_predecessors[b]) {
+                    if (!body.get(p) && isReachable(p)) {
+                        body.set(p);
+                        worklist[top++] = p;
+                    }
+                }
+            }
+            for (int b = body.nextSetBit(0); b >= 0; b = body.nextSetBit(b + 1)) {
+                depth[b]++;
+            }
+        }
+        loop_headers = headers;
+        loop_depth = depth;
+    }
+}
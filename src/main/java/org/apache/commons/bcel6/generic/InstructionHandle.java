@@ -107,14 +107,18 @@ public class InstructionHandle implements java.io.Serializable {
     /** Factory method.
      */
     static InstructionHandle getInstructionHandle( Instruction i ) {
-        if (ih_list == null) {
+        InstructionHandle ih;
+        synchronized (InstructionHandle.class) {
+            ih = ih_list;
+            if (ih != null) {
+                ih_list = ih.next;
+            }
+        }
+        if (ih == null) {
             return new InstructionHandle(i);
-        } else {
-            InstructionHandle ih = ih_list;
-            ih_list = ih.next;
-            ih.setInstruction(i);
-            return ih;
         }
+        ih.setInstruction(i);
+        return ih;
     }
 
 
@@ -154,8 +158,10 @@ public class InstructionHandle implements java.io.Serializable {
     /** Overridden in BranchHandle
      */
     protected void addHandle() {
-        next = ih_list;
-        ih_list = this;
+        synchronized (InstructionHandle.class) {
+            next = ih_list;
+            ih_list = this;
+        }
     }
 
 
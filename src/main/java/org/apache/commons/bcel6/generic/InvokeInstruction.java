@@ -76,8 +76,7 @@ public abstract class InvokeInstruction extends FieldOrMethod implements Excepti
             sum = 1; // this reference
         }
 
-        String signature = getSignature(cpg);
-        sum += Type.getArgumentTypesSize(signature);
+        sum += cpg.getSignatureInfo(super.getIndex()).argument_size;
         return sum;
     }
 
@@ -89,8 +88,7 @@ public abstract class InvokeInstruction extends FieldOrMethod implements Excepti
      */
     @Override
     public int produceStack( ConstantPoolGen cpg ) {
-        String signature = getSignature(cpg);
-        return Type.getReturnTypeSize(signature);
+        return cpg.getSignatureInfo(super.getIndex()).type_size;
     }
 
 
@@ -112,13 +110,13 @@ public abstract class InvokeInstruction extends FieldOrMethod implements Excepti
     /** @return return type of referenced method.
      */
     public Type getReturnType( ConstantPoolGen cpg ) {
-        return Type.getReturnType(getSignature(cpg));
+        return cpg.getSignatureInfo(super.getIndex()).type;
     }
 
 
     /** @return argument types of referenced method.
      */
     public Type[] getArgumentTypes( ConstantPoolGen cpg ) {
-        return Type.getArgumentTypes(getSignature(cpg));
+        return cpg.getSignatureInfo(super.getIndex()).argument_types.clone();
     }
 }
@@ -19,10 +19,9 @@ package org.apache.commons.bcel6.generic;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.Stack;
 
 import org.apache.commons.bcel6.Constants;
 import org.apache.commons.bcel6.classfile.AnnotationEntry;
@@ -628,7 +627,8 @@ public class MethodGen extends FieldGenOrMethodGen {
 
     /**
      * Get method object. Never forget to call setMaxStack() or setMaxStack(max), respectively,
-     * before calling this method (the same applies for max locals).
+     * before calling this method (the same applies for max locals). setMaxStackAndLocals()
+     * computes both at once.
      *
      * @return method object
      */
@@ -828,6 +828,17 @@ public class MethodGen extends FieldGenOrMethodGen {
     }
 
 
+    /**
+     * Computes the control flow graph of the current code and exception
+     * handlers. The graph is not updated when the code is changed later on.
+     *
+     * @return the control flow graph, or null if there is no code
+     */
+    public FlowGraph getFlowGraph() {
+        return (il != null) ? new FlowGraph(il, getExceptionHandlers()) : null;
+    }
+
+
     @Override
     public String getSignature() {
         return Type.getMethodSignature(type, arg_types);
@@ -882,127 +893,139 @@ public class MethodGen extends FieldGenOrMethodGen {
         strip_attributes = flag;
     }
 
-    static final class BranchTarget {
-
-        InstructionHandle target;
-        int stackDepth;
-
-
-        BranchTarget(InstructionHandle target, int stackDepth) {
-            this.target = target;
-            this.stackDepth = stackDepth;
-        }
+    /**
+     * Computes stack usage of an instruction list by performing control flow analysis.
+     *
+     * @return maximum stack depth used by method
+     */
+    public static int getMaxStack( ConstantPoolGen cp, InstructionList il, CodeExceptionGen[] et ) {
+        return getMaxStack(cp, new FlowGraph(il, et));
     }
 
-    static final class BranchStack {
 
-        Stack<BranchTarget> branchTargets = new Stack<BranchTarget>();
-        Hashtable<InstructionHandle, BranchTarget> visitedTargets = new Hashtable<InstructionHandle, BranchTarget>();
-
-
-        public void push( InstructionHandle target, int stackDepth ) {
-            if (visited(target)) {
-                return;
-            }
-            branchTargets.push(visit(target, stackDepth));
-        }
-
-
-        public BranchTarget pop() {
-            if (!branchTargets.empty()) {
-                BranchTarget bt = branchTargets.pop();
-                return bt;
-            }
-            return null;
-        }
-
-
-        private BranchTarget visit( InstructionHandle target, int stackDepth ) {
-            BranchTarget bt = new BranchTarget(target, stackDepth);
-            visitedTargets.put(target, bt);
-            return bt;
-        }
-
-
-        private boolean visited( InstructionHandle target ) {
-            return (visitedTargets.get(target) != null);
+    private static int getMaxStack( ConstantPoolGen cp, FlowGraph graph ) {
+        int[] deltas = new int[graph.getInstructionCount()];
+        for (int i = 0; i < deltas.length; i++) {
+            Instruction instruction = graph.getInstructionHandle(i).getInstruction();
+            deltas[i] = instruction.produceStack(cp) - instruction.consumeStack(cp);
         }
+        return getMaxStack(graph, deltas);
     }
 
 
     /**
-     * Computes stack usage of an instruction list by performing control flow analysis.
+     * Computes stack usage from precomputed per-instruction stack deltas. Every
+     * basic block is explored at most once, with the stack depth it was first
+     * reached with.
      *
+     * @param graph control flow graph of the code
+     * @param deltas produced minus consumed stack slots, indexed like the instructions of graph
      * @return maximum stack depth used by method
      */
-    public static int getMaxStack( ConstantPoolGen cp, InstructionList il, CodeExceptionGen[] et ) {
-        BranchStack branchTargets = new BranchStack();
-        /* Initially, populate the branch stack with the exception
-         * handlers, because these aren't (necessarily) branched to
-         * explicitly. in each case, the stack will have depth 1,
-         * containing the exception object.
+    private static int getMaxStack( FlowGraph graph, int[] deltas ) {
+        int blocks = graph.getBlockCount();
+        if (blocks == 0) {
+            return 0;
+        }
+        BitSet visited = new BitSet(blocks);
+        int[] entry_depth = new int[blocks];
+        int[] worklist = new int[blocks];
+        int top = 0;
+        /* Populate the worklist with the exception handlers, because these
+         * aren't (necessarily) branched to explicitly. In each case, the stack
+         * will have depth 1, containing the exception object.
          */
-        for (CodeExceptionGen element : et) {
-            InstructionHandle handler_pc = element.getHandlerPC();
-            if (handler_pc != null) {
-                branchTargets.push(handler_pc, 1);
+        for (int b = 0; b < blocks; b++) {
+            for (int handler : graph.getExceptionSuccessors(b)) {
+                if (!visited.get(handler)) {
+                    visited.set(handler);
+                    entry_depth[handler] = 1;
+                    worklist[top++] = handler;
+                }
             }
         }
-        int stackDepth = 0, maxStackDepth = 0;
-        InstructionHandle ih = il.getStart();
-        while (ih != null) {
-            Instruction instruction = ih.getInstruction();
-            short opcode = instruction.getOpcode();
-            int delta = instruction.produceStack(cp) - instruction.consumeStack(cp);
-            stackDepth += delta;
-            if (stackDepth > maxStackDepth) {
-                maxStackDepth = stackDepth;
+        // The method itself starts with an empty stack; explore it first.
+        if (!visited.get(0)) {
+            visited.set(0);
+            worklist[top++] = 0;
+        }
+        int maxStackDepth = 0;
+        while (top > 0) {
+            int b = worklist[--top];
+            int stackDepth = entry_depth[b];
+            int last = graph.getBlockEnd(b);
+            for (int i = graph.getBlockStart(b); i <= last; i++) {
+                stackDepth += deltas[i];
+                if (stackDepth > maxStackDepth) {
+                    maxStackDepth = stackDepth;
+                }
             }
-            // choose the next instruction based on whether current is a branch.
-            if (instruction instanceof BranchInstruction) {
-                BranchInstruction branch = (BranchInstruction) instruction;
-                if (instruction instanceof Select) {
-                    // explore all of the select's targets. the default target is handled below.
-                    Select select = (Select) branch;
-                    InstructionHandle[] targets = select.getTargets();
-                    for (InstructionHandle target : targets) {
-                        branchTargets.push(target, stackDepth);
-                    }
-                    // nothing to fall through to.
-                    ih = null;
-                } else if (!(branch instanceof IfInstruction)) {
-                    // if an instruction that comes back to following PC,
-                    // push next instruction, with stack depth reduced by 1.
-                    if (opcode == Constants.JSR || opcode == Constants.JSR_W) {
-                        branchTargets.push(ih.getNext(), stackDepth - 1);
+            Instruction instruction = graph.getInstructionHandle(last).getInstruction();
+            if (instruction instanceof JsrInstruction) {
+                /* The subroutine is entered with the return address on the stack;
+                 * execution continues after the jsr when the ret has consumed it.
+                 */
+                int target = graph.getBlockOf(graph.indexOf(((JsrInstruction) instruction).getTarget()));
+                if (!visited.get(target)) {
+                    visited.set(target);
+                    entry_depth[target] = stackDepth;
+                    worklist[top++] = target;
+                }
+                if (last + 1 < deltas.length) {
+                    int next = graph.getBlockOf(last + 1);
+                    if (!visited.get(next)) {
+                        visited.set(next);
+                        entry_depth[next] = stackDepth - 1;
+                        worklist[top++] = next;
                     }
-                    ih = null;
                 }
-                // for all branches, the target of the branch is pushed on the branch stack.
-                // conditional branches have a fall through case, selects don't, and
-                // jsr/jsr_w return to the next instruction.
-                branchTargets.push(branch.getTarget(), stackDepth);
             } else {
-                // check for instructions that terminate the method.
-                if (opcode == Constants.ATHROW || opcode == Constants.RET
-                        || (opcode >= Constants.IRETURN && opcode <= Constants.RETURN)) {
-                    ih = null;
+                for (int successor : graph.getSuccessors(b)) {
+                    if (!visited.get(successor)) {
+                        visited.set(successor);
+                        entry_depth[successor] = stackDepth;
+                        worklist[top++] = successor;
+                    }
                 }
             }
-            // normal case, go to the next instruction.
-            if (ih != null) {
-                ih = ih.getNext();
+        }
+        return maxStackDepth;
+    }
+
+
+    /**
+     * Computes max. stack size and max. number of local variables in a
+     * single pass over the instruction list. Equivalent to calling
+     * setMaxStack() and setMaxLocals(), but visits every instruction once.
+     */
+    public void setMaxStackAndLocals() {
+        if (il != null) {
+            int max = isStatic() ? 0 : 1;
+            if (arg_types != null) {
+                for (Type arg_type : arg_types) {
+                    max += arg_type.getSize();
+                }
             }
-            // if we have no more instructions, see if there are any deferred branches to explore.
-            if (ih == null) {
-                BranchTarget bt = branchTargets.pop();
-                if (bt != null) {
-                    ih = bt.target;
-                    stackDepth = bt.stackDepth;
+            FlowGraph flow_graph = new FlowGraph(il, getExceptionHandlers());
+            int[] deltas = new int[flow_graph.getInstructionCount()];
+            for (int i = 0; i < deltas.length; i++) {
+                Instruction ins = flow_graph.getInstructionHandle(i).getInstruction();
+                deltas[i] = ins.produceStack(cp) - ins.consumeStack(cp);
+                if ((ins instanceof LocalVariableInstruction) || (ins instanceof RET)
+                        || (ins instanceof IINC)) {
+                    int index = ((IndexedInstruction) ins).getIndex()
+                            + ((TypedInstruction) ins).getType(cp).getSize();
+                    if (index > max) {
+                        max = index;
+                    }
                 }
             }
+            max_locals = max;
+            max_stack = getMaxStack(flow_graph, deltas);
+        } else {
+            max_stack = 0;
+            max_locals = 0;
         }
-        return maxStackDepth;
     }
 
     private List<MethodObserver> observers;
@@ -31,8 +31,17 @@ public class ObjectType extends ReferenceType {
     private static final long serialVersionUID = -2819379966444533294L;
     private final String class_name; // Class name of type
 
+    /**
+     * @param class_name fully qualified class name, e.g. java.lang.String
+     * @return shared type object for the given class name
+     */
     public static ObjectType getInstance(String class_name) {
-        return new ObjectType(class_name);
+        ObjectType type = object_type_cache.get(class_name);
+        if (type == null) {
+            type = new ObjectType(class_name);
+            cache(object_type_cache, class_name, type);
+        }
+        return type;
     }
 
     /**
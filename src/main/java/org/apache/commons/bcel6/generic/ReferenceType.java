@@ -19,7 +19,7 @@ package org.apache.commons.bcel6.generic;
 
 import org.apache.commons.bcel6.Constants;
 import org.apache.commons.bcel6.Repository;
-import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.util.TypeHierarchy;
 
 /**
  * Super class for object and array types.
@@ -80,52 +80,28 @@ public abstract class ReferenceType extends Type {
         if (this.equals(Type.NULL)) {
             return true; // This is not explicitely stated, but clear. Isn't it?
         }
-        /* If this is a class type then
+        /* If this is a class or interface type, then T must be one, too,
+         * and this is assignable to T if
+         * - this is a class type and T is the same class as this or a super
+         *   class of this, or an interface implemented by this;
+         * - this is an interface type and T is Object (vmspec2, 2.4.7), or the same
+         *   interface as this or a superinterface of this (vmspec2, 2.13.2).
+         * The TypeHierarchy answers this in constant time.
          */
-        if ((this instanceof ObjectType) && (((ObjectType) this).referencesClassExact())) {
-            /* If T is a class type, then this must be the same class as T,
-             or this must be a subclass of T;
-             */
-            if ((T instanceof ObjectType) && (((ObjectType) T).referencesClassExact())) {
-                if (this.equals(T)) {
-                    return true;
-                }
-                if (Repository.instanceOf(((ObjectType) this).getClassName(), ((ObjectType) T)
-                        .getClassName())) {
-                    return true;
-                }
-            }
-            /* If T is an interface type, this must implement interface T.
-             */
-            if ((T instanceof ObjectType) && (((ObjectType) T).referencesInterfaceExact())) {
-                if (Repository.implementationOf(((ObjectType) this).getClassName(),
-                        ((ObjectType) T).getClassName())) {
-                    return true;
-                }
+        if (this instanceof ObjectType) {
+            if (!(T instanceof ObjectType)) {
+                return false;
             }
-        }
-        /* If this is an interface type, then:
-         */
-        if ((this instanceof ObjectType) && (((ObjectType) this).referencesInterfaceExact())) {
-            /* If T is a class type, then T must be Object (�2.4.7).
-             */
-            if ((T instanceof ObjectType) && (((ObjectType) T).referencesClassExact())) {
-                if (T.equals(Type.OBJECT)) {
-                    return true;
-                }
+            if (this.equals(T)) {
+                return true;
             }
-            /* If T is an interface type, then T must be the same interface
-             * as this or a superinterface of this (�2.13.2).
-             */
-            if ((T instanceof ObjectType) && (((ObjectType) T).referencesInterfaceExact())) {
-                if (this.equals(T)) {
-                    return true;
-                }
-                if (Repository.implementationOf(((ObjectType) this).getClassName(),
-                        ((ObjectType) T).getClassName())) {
-                    return true;
-                }
+            TypeHierarchy hierarchy = Repository.getTypeHierarchy();
+            String this_name = ((ObjectType) this).getClassName();
+            String t_name = ((ObjectType) T).getClassName();
+            if (hierarchy.isInterface(this_name) && !hierarchy.isInterface(t_name)) {
+                return T.equals(Type.OBJECT);
             }
+            return hierarchy.instanceOf(this_name, t_name);
         }
         /* If this is an array type, namely, the type SC[], that is, an
          * array of components of type SC, then:
@@ -234,26 +210,10 @@ public abstract class ReferenceType extends Type {
             // superinterfaces or even castability or assignment compatibility.
         }
         // this and t are ObjectTypes, see above.
-        ObjectType thiz = (ObjectType) this;
-        ObjectType other = (ObjectType) t;
-        JavaClass[] thiz_sups = Repository.getSuperClasses(thiz.getClassName());
-        JavaClass[] other_sups = Repository.getSuperClasses(other.getClassName());
-        if ((thiz_sups == null) || (other_sups == null)) {
-            return null;
-        }
-        // Waaahh...
-        JavaClass[] this_sups = new JavaClass[thiz_sups.length + 1];
-        JavaClass[] t_sups = new JavaClass[other_sups.length + 1];
-        System.arraycopy(thiz_sups, 0, this_sups, 1, thiz_sups.length);
-        System.arraycopy(other_sups, 0, t_sups, 1, other_sups.length);
-        this_sups[0] = Repository.lookupClass(thiz.getClassName());
-        t_sups[0] = Repository.lookupClass(other.getClassName());
-        for (JavaClass t_sup : t_sups) {
-            for (JavaClass this_sup : this_sups) {
-                if (this_sup.equals(t_sup)) {
-                    return ObjectType.getInstance(this_sup.getClassName());
-                }
-            }
+        String common = Repository.getTypeHierarchy().getFirstCommonSuperclass(
+                ((ObjectType) this).getClassName(), ((ObjectType) t).getClassName());
+        if (common != null) {
+            return ObjectType.getInstance(common);
         }
         // Huh? Did you ask for Type.OBJECT's superclass??
         return null;
@@ -19,6 +19,8 @@ package org.apache.commons.bcel6.generic;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.bcel6.Constants;
 import org.apache.commons.bcel6.classfile.ClassFormatException;
@@ -37,6 +39,17 @@ public abstract class Type implements java.io.Serializable {
     private static final long serialVersionUID = -1985077286871826895L;
     private final byte type;
     private String signature; // signature for the type
+    /* Upper bound for the number of entries of each of the type caches below.
+     * A cache that reaches it is cleared and starts over. The caches must be
+     * initialized before the predefined constants, which already use them.
+     */
+    static final int MAX_CACHED_TYPES = 10000;
+    // Canonical object types, keyed by class name, see ObjectType.getInstance()
+    static final Map<String, ObjectType> object_type_cache = new ConcurrentHashMap<String, ObjectType>();
+    // Canonical array and object types, keyed by their signature
+    private static final Map<String, Type> type_cache = new ConcurrentHashMap<String, Type>();
+    // Argument types of method signatures
+    private static final Map<String, Type[]> argument_types_cache = new ConcurrentHashMap<String, Type[]>();
     /** Predefined constants
      */
     public static final BasicType VOID = new BasicType(Constants.T_VOID);
@@ -167,57 +180,67 @@ public abstract class Type implements java.io.Serializable {
         return buf.toString();
     }
 
-    private static final ThreadLocal<Integer> consumed_chars = new ThreadLocal<Integer>() {
-
-        @Override
-        protected Integer initialValue() {
-            return Integer.valueOf(0);
+    static <K, V> void cache( Map<K, V> cache, K key, V value ) {
+        if (cache.size() >= MAX_CACHED_TYPES) {
+            cache.clear();
         }
-    };//int consumed_chars=0; // Remember position in string, see getArgumentTypes
+        cache.put(key, value);
+    }
 
 
-    private static int unwrap( ThreadLocal<Integer> tl ) {
-        return tl.get().intValue();
+    /**
+     * Convert signature to a Type object.
+     * @param signature signature string such as Ljava/lang/String;
+     * @return type object
+     */
+    public static Type getType( String signature ) throws StringIndexOutOfBoundsException {
+        return getType(signature, 0, endOfType(signature, 0));
     }
 
 
-    private static void wrap( ThreadLocal<Integer> tl, int value ) {
-        tl.set(Integer.valueOf(value));
+    /**
+     * @return position just behind the type signature starting at index
+     */
+    private static int endOfType( String signature, int index ) throws StringIndexOutOfBoundsException {
+        int end = index;
+        while (signature.charAt(end) == '[') {
+            end++;
+        }
+        if (Utility.typeOfSignature(signature, end) == Constants.T_REFERENCE) {
+            end = signature.indexOf(';', end); // Look for closing `;'
+            if (end < 0) {
+                throw new ClassFormatException("Invalid signature: " + signature);
+            }
+        }
+        return end + 1;
     }
 
 
     /**
-     * Convert signature to a Type object.
-     * @param signature signature string such as Ljava/lang/String;
-     * @return type object
+     * Convert the type signature between index and end to a Type object.
+     * Array and object types are shared, basic types are the predefined
+     * constants.
      */
-    public static Type getType( String signature ) throws StringIndexOutOfBoundsException {
-        byte type = Utility.typeOfSignature(signature);
+    private static Type getType( String signature, int index, int end ) {
+        byte type = Utility.typeOfSignature(signature, index);
         if (type <= Constants.T_VOID) {
-            //corrected concurrent private static field acess
-            wrap(consumed_chars, 1);
             return BasicType.getType(type);
-        } else if (type == Constants.T_ARRAY) {
-            int dim = 0;
-            do { // Count dimensions
-                dim++;
-            } while (signature.charAt(dim) == '[');
-            // Recurse, but just once, if the signature is ok
-            Type t = getType(signature.substring(dim));
-            //corrected concurrent private static field acess
-            //  consumed_chars += dim; // update counter - is replaced by
-            int _temp = unwrap(consumed_chars) + dim;
-            wrap(consumed_chars, _temp);
-            return new ArrayType(t, dim);
-        } else { // type == T_REFERENCE
-            int index = signature.indexOf(';'); // Look for closing `;'
-            if (index < 0) {
-                throw new ClassFormatException("Invalid signature: " + signature);
+        }
+        String key = ((index == 0) && (end == signature.length())) ? signature : signature.substring(index, end);
+        Type t = type_cache.get(key);
+        if (t == null) {
+            if (type == Constants.T_ARRAY) {
+                int dim = 0;
+                do { // Count dimensions
+                    dim++;
+                } while (key.charAt(dim) == '[');
+                t = new ArrayType(getType(key, dim, key.length()), dim);
+            } else { // type == T_REFERENCE, "Lblabla;" `L' and `;' are removed
+                t = ObjectType.getInstance(key.substring(1, key.length() - 1).replace('/', '.'));
             }
-            //corrected concurrent private static field acess
-            wrap(consumed_chars, index + 1); // "Lblabla;" `L' and `;' are removed
-            return ObjectType.getInstance(signature.substring(1, index).replace('/', '.'));
+            cache(type_cache, key, t);
         }
+        return t;
     }
 
 
@@ -231,7 +254,7 @@ public abstract class Type implements java.io.Serializable {
         try {
             // Read return type after `)'
             int index = signature.lastIndexOf(')') + 1;
-            return getType(signature.substring(index));
+            return getType(signature, index, endOfType(signature, index));
         } catch (StringIndexOutOfBoundsException e) { // Should never occur
             throw new ClassFormatException("Invalid method signature: " + signature, e);
         }
@@ -244,25 +267,28 @@ public abstract class Type implements java.io.Serializable {
      * @return array of argument types
      */
     public static Type[] getArgumentTypes( String signature ) {
-        List<Type> vec = new ArrayList<Type>();
-        int index;
-        Type[] types;
-        try { // Read all declarations between for `(' and `)'
-            if (signature.charAt(0) != '(') {
-                throw new ClassFormatException("Invalid method signature: " + signature);
+        Type[] types = argument_types_cache.get(signature);
+        if (types == null) {
+            List<Type> vec = new ArrayList<Type>();
+            int index;
+            try { // Read all declarations between for `(' and `)'
+                if (signature.charAt(0) != '(') {
+                    throw new ClassFormatException("Invalid method signature: " + signature);
+                }
+                index = 1; // current string position
+                while (signature.charAt(index) != ')') {
+                    int end = endOfType(signature, index);
+                    vec.add(getType(signature, index, end));
+                    index = end; // update position
+                }
+            } catch (StringIndexOutOfBoundsException e) { // Should never occur
+                throw new ClassFormatException("Invalid method signature: " + signature, e);
             }
-            index = 1; // current string position
-            while (signature.charAt(index) != ')') {
-                vec.add(getType(signature.substring(index)));
-                //corrected concurrent private static field acess
-                index += unwrap(consumed_chars); // update position
-            }
-        } catch (StringIndexOutOfBoundsException e) { // Should never occur
-            throw new ClassFormatException("Invalid method signature: " + signature, e);
+            types = new Type[vec.size()];
+            vec.toArray(types);
+            cache(argument_types_cache, signature, types);
         }
-        types = new Type[vec.size()];
-        vec.toArray(types);
-        return types;
+        return types.clone();
     }
 
 
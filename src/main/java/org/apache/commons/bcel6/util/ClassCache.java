@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.util;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.bcel6.classfile.Attribute;
+import org.apache.commons.bcel6.classfile.Constant;
+import org.apache.commons.bcel6.classfile.ConstantUtf8;
+import org.apache.commons.bcel6.classfile.Field;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.classfile.Method;
+
+/**
+ * Cache of the classes loaded by a SyntheticRepository, bounded by
+ * the estimated number of bytes the classes occupy on the heap.
+ * When the bound is exceeded, classes that have not been used
+ * recently are evicted, approximating LRU order with the CLOCK
+ * algorithm so that lookups never lock. Pinned classes are never
+ * evicted.
+ *
+ * @see SyntheticRepository#getCache()
+ * @version $Id$
+ */
+public final class ClassCache implements Serializable {
+
+    private static final long serialVersionUID = -4328216730536405235L;
+
+    /** Default bound: an eighth of the maximum heap size. */
+    public static final long DEFAULT_MAX_WEIGHT = Runtime.getRuntime().maxMemory() / 8;
+
+    private static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 3208437457125213735L;
+        final String name;
+        final JavaClass clazz;
+        final long weight;
+        volatile boolean referenced;
+
+
+        Entry(String name, JavaClass clazz, long weight) {
+            this.name = name;
+            this.clazz = clazz;
+            this.weight = weight;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    // Entries in insertion order, the head being under the clock hand. Entries
+    // that have been removed from the map are dropped once the hand gets there.
+    private final ArrayDeque<Entry> clock = new ArrayDeque<Entry>();
+    private final Set<String> pinned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile long weight;
+    private volatile long max_weight = DEFAULT_MAX_WEIGHT;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+    /**
+     * @return the cached class with the given name, or null
+     */
+    JavaClass get( String name ) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        return entry.clazz;
+    }
+
+
+    /**
+     * Like get(), but without counting a hit or miss or marking the class
+     * as recently used.
+     */
+    JavaClass peek( String name ) {
+        Entry entry = entries.get(name);
+        return (entry != null) ? entry.clazz : null;
+    }
+
+
+    synchronized void put( String name, JavaClass clazz ) {
+        Entry entry = new Entry(name, clazz, estimateWeight(clazz));
+        Entry old = entries.put(name, entry);
+        long w = weight + entry.weight;
+        if (old != null) {
+            w -= old.weight;
+        }
+        weight = w;
+        clock.addLast(entry);
+        if (clock.size() > 2 * entries.size() + 16) {
+            compact();
+        }
+        evict();
+    }
+
+
+    synchronized void remove( String name ) {
+        Entry old = entries.remove(name);
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+
+    synchronized void clear() {
+        entries.clear();
+        clock.clear();
+        weight = 0;
+    }
+
+
+    // Drop removed or replaced entries from the clock
+    private void compact() {
+        for (int n = clock.size(); n > 0; n--) {
+            Entry entry = clock.removeFirst();
+            if (entries.get(entry.name) == entry) {
+                clock.addLast(entry);
+            }
+        }
+    }
+
+
+    private void evict() {
+        // Every entry is passed at most twice: once to clear its reference bit,
+        // and once more to evict it. Only pinned entries survive two passes.
+        for (int n = 2 * clock.size(); weight > max_weight && n > 0; n--) {
+            Entry entry = clock.removeFirst();
+            if (entries.get(entry.name) != entry) {
+                continue;
+            }
+            if (entry.referenced || pinned.contains(entry.name)) {
+                entry.referenced = false;
+                clock.addLast(entry);
+            } else {
+                entries.remove(entry.name);
+                weight -= entry.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * @return the bound for the estimated size of all cached classes in bytes
+     */
+    public long getMaxWeight() {
+        return max_weight;
+    }
+
+
+    /**
+     * Set the bound for the estimated size of all cached classes in bytes,
+     * evicting classes if they exceed the new bound.
+     */
+    public synchronized void setMaxWeight( long max_weight ) {
+        if (max_weight < 0) {
+            throw new IllegalArgumentException("Negative maximum weight: " + max_weight);
+        }
+        this.max_weight = max_weight;
+        evict();
+    }
+
+
+    /**
+     * Never evict the class with the given name, whether it is already
+     * cached or not. Pinned classes still count towards the bound.
+     *
+     * @param name fully qualified class name, e.g. java.lang.String
+     */
+    public void pin( String name ) {
+        pinned.add(name);
+    }
+
+
+    /**
+     * Allow the class with the given name to be evicted again.
+     */
+    public void unpin( String name ) {
+        pinned.remove(name);
+    }
+
+
+    public boolean isPinned( String name ) {
+        return pinned.contains(name);
+    }
+
+
+    /**
+     * @return number of cached classes
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return estimated size of all cached classes in bytes
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+
+    /**
+     * @return snapshot of the current statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(hits.get(), misses.get(), evictions.get(), entries.size(), weight, max_weight);
+    }
+
+
+    /**
+     * Reset the hit, miss and eviction counters to zero.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+
+    /**
+     * Estimate the number of bytes the given class occupies on the heap,
+     * from the sizes of its constant pool, fields, methods and attributes.
+     */
+    static long estimateWeight( JavaClass clazz ) {
+        long w = 256;
+        for (Constant c : clazz.getConstantPool().getConstantPool()) {
+            if (c != null) {
+                w += 32;
+                if (c instanceof ConstantUtf8) {
+                    w += 48 + 2 * ((ConstantUtf8) c).getBytes().length();
+                }
+            }
+        }
+        for (Field field : clazz.getFields()) {
+            w += 64 + estimateWeight(field.getAttributes());
+        }
+        for (Method method : clazz.getMethods()) {
+            w += 64 + estimateWeight(method.getAttributes());
+        }
+        return w + estimateWeight(clazz.getAttributes());
+    }
+
+
+    private static long estimateWeight( Attribute[] attributes ) {
+        long w = 0;
+        for (Attribute attribute : attributes) {
+            // Code is the only large attribute in most classes
+            w += 48 + 2L * attribute.getLength();
+        }
+        return w;
+    }
+
+
+    /**
+     * Counters and sizes of a ClassCache at some point in time.
+     */
+    public static final class Statistics implements Serializable {
+
+        private static final long serialVersionUID = -2146378211430963532L;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+        private final long weight;
+        private final long max_weight;
+
+
+        Statistics(long hits, long misses, long evictions, int size, long weight, long max_weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.weight = weight;
+            this.max_weight = max_weight;
+        }
+
+
+        /** @return number of lookups that found a cached class */
+        public long getHitCount() {
+            return hits;
+        }
+
+
+        /** @return number of lookups that did not find a cached class */
+        public long getMissCount() {
+            return misses;
+        }
+
+
+        /** @return fraction of lookups that found a cached class */
+        public double getHitRate() {
+            long total = hits + misses;
+            return (total == 0) ? 1.0 : (double) hits / total;
+        }
+
+
+        /** @return number of classes evicted to stay within the bound */
+        public long getEvictionCount() {
+            return evictions;
+        }
+
+
+        /** @return number of cached classes */
+        public int getSize() {
+            return size;
+        }
+
+
+        /** @return estimated size of all cached classes in bytes */
+        public long getWeight() {
+            return weight;
+        }
+
+
+        /** @return bound for the estimated size of all cached classes in bytes */
+        public long getMaxWeight() {
+            return max_weight;
+        }
+
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                    + ", size=" + size + ", weight=" + weight + "/" + max_weight;
+        }
+    }
+}
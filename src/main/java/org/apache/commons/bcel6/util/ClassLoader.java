@@ -19,7 +19,8 @@ package org.apache.commons.bcel6.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.bcel6.Constants;
 import org.apache.commons.bcel6.classfile.ClassParser;
@@ -48,6 +49,10 @@ import org.apache.commons.bcel6.classfile.Utility;
  * constructor. The default value contains "java.", "sun.",
  * "javax."</p>
  *
+ * <p>The class loader is parallel capable, i.e., different classes may be
+ * loaded by different threads at the same time. Subclasses have to call
+ * registerAsParallelCapable() themselves to keep that property.</p>
+ *
  * @version $Id$
  * @see JavaWrapper
  * @see ClassPath
@@ -60,7 +65,41 @@ public class ClassLoader extends java.lang.ClassLoader { // TODO rename this cla
             "java.", "javax.", "sun."
     };
 
-    private final Hashtable<String, Class<?>> classes = new Hashtable<String, Class<?>>(); // Hashtable is synchronized thus thread-safe
+    static {
+        registerAsParallelCapable();
+    }
+
+    /* A class created from a $$BCEL$$ name by the default createClass(), with its
+     * bytes once it has been defined. The class must not be modified, so the bytes
+     * can be reused by all loaders. The classes returned by modifyClass() are dumped
+     * every time, as they may have been changed in place.
+     */
+    private static final class CreatedClass {
+
+        final JavaClass clazz;
+        private volatile byte[] bytes;
+
+
+        CreatedClass(JavaClass clazz) {
+            this.clazz = clazz;
+        }
+
+
+        byte[] getBytes() {
+            byte[] b = bytes;
+            if (b == null) {
+                b = clazz.getBytes();
+                bytes = b;
+            }
+            return b;
+        }
+    }
+
+    // Classes created from $$BCEL$$ names by the default createClass(), shared by all loaders
+    private static final int MAX_CREATED_CLASSES = 256;
+    private static final ConcurrentMap<String, CreatedClass> created_classes = new ConcurrentHashMap<String, CreatedClass>();
+
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
     private final String[] ignored_packages;
     private Repository repository = SyntheticRepository.getInstance();
 
@@ -105,44 +144,56 @@ public class ClassLoader extends java.lang.ClassLoader { // TODO rename this cla
         /* First try: lookup hash table.
          */
         if ((cl = classes.get(class_name)) == null) {
-            /* Second try: Load system class using system class loader. You better
-             * don't mess around with them.
-             */
-            for (String ignored_package : ignored_packages) {
-                if (class_name.startsWith(ignored_package)) {
-                    cl = getParent().loadClass(class_name);
-                    break;
-                }
-            }
-            if (cl == null) {
-                JavaClass clazz = null;
-                /* Third try: Special request?
-                 */
-                if (class_name.contains(BCEL_TOKEN)) {
-                    clazz = createClass(class_name);
-                } else { // Fourth try: Load classes via repository
-                    if ((clazz = repository.loadClass(class_name)) != null) {
-                        clazz = modifyClass(clazz);
-                    } else {
-                        throw new ClassNotFoundException(class_name);
+            synchronized (getClassLoadingLock(class_name)) {
+                // Another thread may have defined it while we were waiting for the lock
+                if ((cl = classes.get(class_name)) == null) {
+                    cl = loadClassInternal(class_name);
+                    if (resolve) {
+                        resolveClass(cl);
                     }
+                    classes.put(class_name, cl);
                 }
-                if (clazz != null) {
-                    byte[] bytes = clazz.getBytes();
-                    cl = defineClass(class_name, bytes, 0, bytes.length);
-                } else {
-                    cl = Class.forName(class_name);
-                }
-            }
-            if (resolve) {
-                resolveClass(cl);
             }
         }
-        classes.put(class_name, cl);
         return cl;
     }
 
 
+    private Class<?> loadClassInternal( String class_name ) throws ClassNotFoundException {
+        /* Second try: Load system class using system class loader. You better
+         * don't mess around with them.
+         */
+        for (String ignored_package : ignored_packages) {
+            if (class_name.startsWith(ignored_package)) {
+                return getParent().loadClass(class_name);
+            }
+        }
+        JavaClass clazz = null;
+        byte[] bytes;
+        /* Third try: Special request?
+         */
+        if (class_name.contains(BCEL_TOKEN)) {
+            clazz = createClass(class_name);
+            if (clazz == null) {
+                return Class.forName(class_name);
+            }
+            CreatedClass created = created_classes.get(class_name);
+            bytes = (created != null && created.clazz == clazz) ? created.getBytes() : clazz.getBytes();
+        } else { // Fourth try: Load classes via repository
+            if ((clazz = repository.loadClass(class_name)) != null) {
+                clazz = modifyClass(clazz);
+            } else {
+                throw new ClassNotFoundException(class_name);
+            }
+            if (clazz == null) {
+                return Class.forName(class_name);
+            }
+            bytes = clazz.getBytes();
+        }
+        return defineClass(class_name, bytes, 0, bytes.length);
+    }
+
+
     /** Override this method if you want to alter a class before it gets actually
      * loaded. Does nothing by default.
      */
@@ -162,10 +213,16 @@ public class ClassLoader extends java.lang.ClassLoader { // TODO rename this cla
      * The default implementation interprets the string as a encoded compressed
      * Java class, unpacks and decodes it with the Utility.decode() method, and
      * parses the resulting byte array and returns the resulting JavaClass object.
+     * The result is cached for all class loaders, so it must not be modified;
+     * use copy() if you want to change it.
      *
      * @param class_name compressed byte code with "$$BCEL$$" in it
      */
     protected JavaClass createClass( String class_name ) {
+        CreatedClass created = created_classes.get(class_name);
+        if (created != null) {
+            return created.clazz;
+        }
         int index = class_name.indexOf(BCEL_TOKEN);
         String real_name = class_name.substring(index + BCEL_TOKEN.length());
         JavaClass clazz = null;
@@ -181,9 +238,15 @@ public class ClassLoader extends java.lang.ClassLoader { // TODO rename this cla
         ConstantPool cp = clazz.getConstantPool();
         ConstantClass cl = (ConstantClass) cp.getConstant(clazz.getClassNameIndex(),
                 Constants.CONSTANT_Class);
-        ConstantUtf8 name = (ConstantUtf8) cp.getConstant(cl.getNameIndex(),
-                Constants.CONSTANT_Utf8);
-        name.setBytes(class_name.replace('.', '/'));
+        // Constants can't be changed, so replace the name and create the class anew
+        cp.getConstantPool()[cl.getNameIndex()] = new ConstantUtf8(class_name.replace('.', '/'));
+        clazz = new JavaClass(clazz.getClassNameIndex(), clazz.getSuperclassNameIndex(),
+                clazz.getFileName(), clazz.getMajor(), clazz.getMinor(), clazz.getAccessFlags(), cp,
+                clazz.getInterfaceIndices(), clazz.getFields(), clazz.getMethods(), clazz.getAttributes());
+        if (created_classes.size() >= MAX_CREATED_CLASSES) {
+            created_classes.clear();
+        }
+        created_classes.put(class_name, new CreatedClass(clazz));
         return clazz;
     }
 }
@@ -17,27 +17,59 @@
  */
 package org.apache.commons.bcel6.util;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
  * Responsible for loading (class) files from the CLASSPATH. Inspired by
  * sun.tools.ClassPath.
+ * <p>
+ * findClassFile() remembers the names it could not find, but only while
+ * the lookups can't change: when the class path and its parents consist of
+ * archives and module images, or are served from an index built by
+ * buildIndex(). A file written to a directory on the class path is found
+ * by the next lookup.
  *
  * @version $Id$
  */
@@ -54,9 +86,31 @@ public class ClassPath implements Serializable {
         }
     };
 
+    /**
+     * Where getInputStream() and findInputStream() look for files.
+     */
+    public enum LookupOrder {
+        /** Only search the class path, never ask the class loader. */
+        PATH_ONLY,
+        /** Ask the class loader that loaded BCEL, and search the class path if it fails. */
+        LOADER_FIRST,
+        /** Search the class path, and ask the class loader that loaded BCEL if it fails. */
+        PATH_FIRST
+    }
+
     private final PathEntry[] paths;
     private final String class_path;
     private ClassPath parent;
+    // Maps file names like java/lang/String.class to the first entry containing them
+    private transient volatile Map<String, PathEntry> index;
+    // File names that were looked up, but could not be found
+    private final Set<String> missing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Counts the times missing was cleared, so that callers caching misses know when to forget them
+    private transient volatile int generation;
+
+    private static final int MAX_MISSING = 10000;
+
+    private volatile LookupOrder lookup_order = LookupOrder.LOADER_FIRST;
 
     public ClassPath(ClassPath parent, String class_path) {
         this(class_path);
@@ -79,12 +133,14 @@ public class ClassPath implements Serializable {
                     if (file.exists()) {
                         if (file.isDirectory()) {
                             vec.add(new Dir(path));
+                        } else if (isModuleImage(file)) {
+                            vec.add(new Modules(file));
                         } else {
                             vec.add(new Zip(new ZipFile(file)));
                         }
                     }
                 } catch (IOException e) {
-                    if (path.endsWith(".zip") || path.endsWith(".jar")) {
+                    if (path.endsWith(".zip") || path.endsWith(".jar") || isModuleImage(file)) {
                         System.err.println("CLASSPATH component " + file + ": " + e);
                     }
                 }
@@ -149,6 +205,13 @@ public class ClassPath implements Serializable {
         List<String> list = new ArrayList<String>();
         getPathComponents(class_path, list);
         getPathComponents(boot_path, list);
+        if (boot_path == null) {
+            // Since Java 9, the platform classes are kept in a module image
+            File modules = new File(System.getProperty("java.home"), "lib" + File.separatorChar + "modules");
+            if (modules.exists()) {
+                list.add(modules.getPath());
+            }
+        }
         List<String> dirs = new ArrayList<String>();
         getPathComponents(ext_path, dirs);
         for (String d : dirs) {
@@ -188,15 +251,88 @@ public class ClassPath implements Serializable {
      * @return input stream for file on class path
      */
     public InputStream getInputStream( String name, String suffix ) throws IOException {
-        InputStream is = null;
+        InputStream is = findInputStream(name, suffix);
+        if (is == null) {
+            throw new IOException("Couldn't find: " + name + suffix);
+        }
+        return is;
+    }
+
+
+    /**
+     * Return stream for class or resource on CLASSPATH, like
+     * getInputStream(String, String), but without throwing an exception
+     * if it can't be found.
+     *
+     * @param name fully qualified file name, e.g. java/lang/String
+     * @param suffix file name ends with suff, e.g. .java
+     * @return input stream for file on class path, or null if there is no such file
+     */
+    public InputStream findInputStream( String name, String suffix ) throws IOException {
+        return findInputStream(name, suffix, lookup_order);
+    }
+
+
+    /**
+     * Return stream for class or resource on CLASSPATH, or from the class
+     * loader that loaded BCEL, depending on the given lookup order.
+     *
+     * @param name fully qualified file name, e.g. java/lang/String
+     * @param suffix file name ends with suff, e.g. .java
+     * @param order where to look for the file
+     * @return input stream for file, or null if there is no such file
+     */
+    public InputStream findInputStream( String name, String suffix, LookupOrder order ) throws IOException {
+        InputStream is;
+        switch (order) {
+            case PATH_ONLY:
+                return findPathInputStream(name, suffix);
+            case PATH_FIRST:
+                is = findPathInputStream(name, suffix);
+                return (is != null) ? is : findLoaderInputStream(name, suffix);
+            default:
+                is = findLoaderInputStream(name, suffix);
+                return (is != null) ? is : findPathInputStream(name, suffix);
+        }
+    }
+
+
+    private InputStream findPathInputStream( String name, String suffix ) throws IOException {
+        ClassFile cf = findClassFile(name, suffix);
+        return (cf != null) ? cf.getInputStream() : null;
+    }
+
+
+    private InputStream findLoaderInputStream( String name, String suffix ) {
         try {
-            is = getClass().getClassLoader().getResourceAsStream(name + suffix);
+            return getClass().getClassLoader().getResourceAsStream(name + suffix);
         } catch (Exception e) {
+            return null;
         }
-        if (is != null) {
-            return is;
+    }
+
+
+    /**
+     * @return where getInputStream() and findInputStream() look for files
+     */
+    public LookupOrder getLookupOrder() {
+        return lookup_order;
+    }
+
+
+    /**
+     * Set where getInputStream() and findInputStream() look for files.
+     * The default is LookupOrder.LOADER_FIRST, for compatibility;
+     * LookupOrder.PATH_ONLY is faster and guarantees that classes come
+     * from the directories and archives of this class path.
+     *
+     * @param order the new lookup order
+     */
+    public void setLookupOrder( LookupOrder order ) {
+        if (order == null) {
+            throw new IllegalArgumentException("Lookup order must not be null");
         }
-        return getClassFile(name, suffix).getInputStream();
+        lookup_order = order;
     }
 
     /**
@@ -204,6 +340,11 @@ public class ClassPath implements Serializable {
      * @return InputStream supplying the resource, or null if no resource with that name.
      */
     public InputStream getResourceAsStream(String name) {
+        Map<String, PathEntry> index = this.index;
+        if (index != null) {
+            PathEntry path = index.get(name);
+            return (path != null) ? path.getResourceAsStream(name) : null;
+        }
         for (PathEntry path : paths) {
             InputStream is;
             if ((is = path.getResourceAsStream(name)) != null) {
@@ -218,6 +359,11 @@ public class ClassPath implements Serializable {
      * @return URL supplying the resource, or null if no resource with that name.
      */
     public URL getResource(String name) {
+        Map<String, PathEntry> index = this.index;
+        if (index != null) {
+            PathEntry path = index.get(name);
+            return (path != null) ? path.getResource(name) : null;
+        }
         for (PathEntry path : paths) {
             URL url;
             if ((url = path.getResource(name)) != null) {
@@ -249,6 +395,33 @@ public class ClassPath implements Serializable {
      * @return class file for the java class
      */
     public ClassFile getClassFile( String name, String suffix ) throws IOException {
+        ClassFile cf = findClassFile(name, suffix);
+
+        if (cf != null) {
+            return cf;
+        }
+
+        throw new IOException("Couldn't find: " + name + suffix);
+    }
+
+
+    /**
+     * Like getClassFile(String, String), but returns null instead of
+     * throwing an exception if the file can't be found. If the class path
+     * contains no directories or is indexed, names that could not be found
+     * are remembered, so asking for them again is cheap until clearCache()
+     * is called.
+     *
+     * @param name fully qualified file name, e.g. java/lang/String
+     * @param suffix file name ends with suff, e.g. .java
+     * @return class file for the java class, or null if there is no such file
+     */
+    public ClassFile findClassFile( String name, String suffix ) throws IOException {
+        String file_name = name.replace('.', '/') + suffix;
+        if (missing.contains(file_name)) {
+            return null;
+        }
+
         ClassFile cf = null;
 
         if (parent != null) {
@@ -259,15 +432,65 @@ public class ClassPath implements Serializable {
             cf = getClassFileInternal(name, suffix);
         }
 
-        if (cf != null) {
-            return cf;
+        if ((cf == null) && isImmutable()) {
+            if (missing.size() >= MAX_MISSING) {
+                missing.clear();
+            }
+            missing.add(file_name);
         }
+        return cf;
+    }
 
-        throw new IOException("Couldn't find: " + name + suffix);
+
+    /**
+     * Forget about the files that could not be found so far, e.g., after
+     * the contents of the directories on the class path have changed.
+     */
+    public void clearCache() {
+        forgetMissing();
+    }
+
+
+    private synchronized void forgetMissing() {
+        missing.clear();
+        generation++;
+    }
+
+
+    /**
+     * @return a number that changes whenever this class path or one of its
+     * parents forgets the files it could not find, i.e., on clearCache(),
+     * buildIndex() and clearIndex()
+     */
+    int getCacheGeneration() {
+        return (parent == null) ? generation : generation + parent.getCacheGeneration();
+    }
+
+
+    /**
+     * @return whether lookups in this class path and its parents always give
+     * the same result, i.e., whether a file missing now stays missing
+     */
+    public boolean isImmutable() {
+        if (index == null) {
+            for (PathEntry path : paths) {
+                if (!path.isImmutable()) {
+                    return false;
+                }
+            }
+        }
+        return (parent == null) || parent.isImmutable();
     }
 
     private ClassFile getClassFileInternal(String name, String suffix) throws IOException {
 
+      Map<String, PathEntry> index = this.index;
+      if (index != null) {
+          String file_name = name.replace('.', '/') + suffix;
+          PathEntry path = index.get(file_name);
+          return (path != null) ? path.getIndexedClassFile(file_name) : null;
+      }
+
       for (PathEntry path : paths) {
           ClassFile cf = path.getClassFile(name, suffix);
 
@@ -289,6 +512,15 @@ public class ClassPath implements Serializable {
     }
 
 
+    /**
+     * @param name fully qualified class name, e.g. java.lang.String
+     * @return class file for the java class, or null if there is no such class
+     */
+    public ClassFile findClassFile( String name ) throws IOException {
+        return findClassFile(name, ".class");
+    }
+
+
     /**
      * @param name fully qualified file name, e.g. java/lang/String
      * @param suffix file name ends with suffix, e.g. .java
@@ -345,12 +577,298 @@ public class ClassPath implements Serializable {
         return getClassFile(name, suffix).getPath();
     }
 
+    /**
+     * Build an index of all files in the directories and archives of this
+     * class path, listing the entries in parallel. Afterwards, classes and
+     * resources are looked up in the index only, without accessing the file
+     * system for entries that do not contain them. Files added to or removed
+     * from the class path later on are not seen until the index is built
+     * again. The index of a parent class path has to be built separately.
+     */
+    public void buildIndex() throws IOException {
+        setIndex(listFileNames(new ArrayList<List<String>>(Collections.<List<String>>nCopies(paths.length, null))));
+    }
+
+
+    /**
+     * Like buildIndex(), but reuse the file names stored in the given file
+     * for all archives that have the same modification time and size as
+     * when the file was written, so that they needn't be listed again.
+     * Directories are always listed, since a change to their contents
+     * can't be detected that way. Afterwards, the index is stored in the
+     * file, unless it is up to date already.
+     *
+     * @param index_file file to read the index from and write it to;
+     * it is ignored if it doesn't exist or doesn't match this class path
+     */
+    public void buildIndex( File index_file ) throws IOException {
+        long[] times = new long[paths.length];
+        long[] sizes = new long[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            File file = new File(paths[i].toString());
+            times[i] = file.lastModified();
+            sizes[i] = file.length();
+        }
+        List<List<String>> stored = readIndexFile(index_file, times, sizes);
+        List<List<String>> names = listFileNames(new ArrayList<List<String>>(stored));
+        setIndex(names);
+        for (int i = 0; i < paths.length; i++) {
+            if (stored.get(i) == null && !(paths[i] instanceof Dir)) {
+                writeIndexFile(index_file, names, times, sizes);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * List the files of all entries in parallel, except for those whose
+     * names are known already.
+     *
+     * @param names for every entry, the names of its files or null if unknown
+     * @return names with the unknown lists filled in
+     */
+    private List<List<String>> listFileNames( List<List<String>> names ) throws IOException {
+        List<Future<List<String>>> listings = new ArrayList<Future<List<String>>>(paths.length);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(paths.length, Runtime.getRuntime().availableProcessors())));
+        try {
+            for (int i = 0; i < paths.length; i++) {
+                final PathEntry path = paths[i];
+                listings.add((names.get(i) != null) ? null : executor.submit(new Callable<List<String>>() {
+
+                    public List<String> call() throws IOException {
+                        return path.getFileNames();
+                    }
+                }));
+            }
+            for (int i = 0; i < paths.length; i++) {
+                if (listings.get(i) != null) {
+                    names.set(i, listings.get(i).get());
+                }
+            }
+            return names;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing " + class_path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Couldn't index " + class_path, e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    private void setIndex( List<List<String>> names ) {
+        Map<String, PathEntry> map = new HashMap<String, PathEntry>();
+        for (int i = 0; i < paths.length; i++) {
+            for (String name : names.get(i)) {
+                if (!map.containsKey(name)) { // Earlier entries take precedence
+                    map.put(name, paths[i]);
+                }
+            }
+        }
+        index = map;
+        forgetMissing();
+    }
+
+
+    /*
+     * Layout of index files:
+     *   int magic, string class_path, int #entries,
+     *   for each entry: string path, long time, long size, int #names (-1 for directories),
+     *     followed by the names
+     * where strings are stored as int length and UTF-8 bytes.
+     */
+    private static final int INDEX_MAGIC = 0xBCE11D01;
+
+
+    /**
+     * @return for every entry, the names of its files stored in the index
+     * file, or null if they have to be listed again
+     */
+    private List<List<String>> readIndexFile( File index_file, long[] times, long[] sizes ) {
+        List<List<String>> stored = new ArrayList<List<String>>(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            stored.add(null);
+        }
+        if (!index_file.isFile()) {
+            return stored;
+        }
+        try {
+            ByteBuffer buf;
+            RandomAccessFile raf = new RandomAccessFile(index_file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+            if (buf.getInt() != INDEX_MAGIC || !readString(buf).equals(class_path)
+                    || buf.getInt() != paths.length) {
+                return stored;
+            }
+            List<List<String>> names = new ArrayList<List<String>>(paths.length);
+            for (int i = 0; i < paths.length; i++) {
+                String path = readString(buf);
+                long time = buf.getLong();
+                long size = buf.getLong();
+                boolean valid = path.equals(paths[i].toString()) && time == times[i] && size == sizes[i];
+                int count = buf.getInt();
+                if (count > buf.remaining() / 4) { // Each name takes at least its length
+                    throw new IOException("Corrupt index file " + index_file);
+                }
+                List<String> list = (count >= 0) ? new ArrayList<String>(count) : null;
+                for (int j = 0; j < count; j++) {
+                    list.add(readString(buf));
+                }
+                names.add(valid ? list : null);
+            }
+            return names;
+        } catch (IOException e) {
+            return stored;
+        } catch (RuntimeException e) { // Truncated or otherwise corrupt
+            return stored;
+        }
+    }
+
+
+    private void writeIndexFile( File index_file, List<List<String>> names, long[] times, long[] sizes )
+            throws IOException {
+        File tmp = File.createTempFile(index_file.getName(), ".tmp", index_file.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(INDEX_MAGIC);
+                writeString(out, class_path);
+                out.writeInt(paths.length);
+                for (int i = 0; i < paths.length; i++) {
+                    writeString(out, paths[i].toString());
+                    out.writeLong(times[i]);
+                    out.writeLong(sizes[i]);
+                    if (paths[i] instanceof Dir) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(names.get(i).size());
+                        for (String name : names.get(i)) {
+                            writeString(out, name);
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp.toPath(), index_file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), index_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+
+    private static String readString( ByteBuffer buf ) throws IOException {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IOException("Corrupt index file: string of length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+
+    private static void writeString( DataOutputStream out, String str ) throws IOException {
+        byte[] bytes = str.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * @return fully qualified names of all classes in the directories and
+     * archives of this class path (not including its parent), in class
+     * path order and without duplicates, e.g. java.lang.String
+     */
+    public List<String> getClassNames() throws IOException {
+        Set<String> file_names = new LinkedHashSet<String>();
+        Map<String, PathEntry> index = this.index;
+        if (index != null) {
+            file_names.addAll(index.keySet());
+        } else {
+            for (PathEntry path : paths) {
+                file_names.addAll(path.getFileNames());
+            }
+        }
+        List<String> names = new ArrayList<String>();
+        for (String file_name : file_names) {
+            if (file_name.endsWith(".class") && !file_name.endsWith("module-info.class")) {
+                names.add(file_name.substring(0, file_name.length() - 6).replace('/', '.'));
+            }
+        }
+        return names;
+    }
+
+
+    /**
+     * Discard the index built by buildIndex(), i.e., go back to searching
+     * all entries for every lookup.
+     */
+    public void clearIndex() {
+        index = null;
+        forgetMissing();
+    }
+
+
+    /**
+     * @return whether lookups are served from an index
+     */
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * @return whether the given file is the module image of a Java 9 or later
+     * runtime, i.e., lib/modules in its home directory
+     */
+    private static boolean isModuleImage( File file ) {
+        File lib = file.getParentFile();
+        return file.getName().equals("modules") && lib != null && lib.getName().equals("lib");
+    }
+
     private static abstract class PathEntry implements Serializable {
 
         private static final long serialVersionUID = 6828494485207666122L;
         abstract ClassFile getClassFile( String name, String suffix ) throws IOException;
         abstract URL getResource(String name);
         abstract InputStream getResourceAsStream(String name);
+
+
+        /**
+         * @return names of all files contained, relative to this entry and
+         * separated by '/', e.g. java/lang/String.class
+         */
+        abstract List<String> getFileNames() throws IOException;
+
+
+        /**
+         * @param name file name as returned by getFileNames()
+         * @return class file for a file known to be contained in this entry
+         */
+        abstract ClassFile getIndexedClassFile( String name ) throws IOException;
+
+
+        /**
+         * @return whether the files contained can't change, so that a file
+         * missing now stays missing
+         */
+        abstract boolean isImmutable();
     }
 
     /** Contains information about file/ZIP entry of the Java class.
@@ -419,7 +937,46 @@ public class ClassPath implements Serializable {
         ClassFile getClassFile( String name, String suffix ) throws IOException {
             final File file = new File(dir + File.separatorChar
                     + name.replace('.', File.separatorChar) + suffix);
-            return file.exists() ? new ClassFile() {
+            return file.exists() ? createClassFile(file) : null;
+        }
+
+
+        @Override
+        boolean isImmutable() {
+            return false;
+        }
+
+
+        @Override
+        ClassFile getIndexedClassFile( String name ) {
+            return createClassFile(new File(dir + File.separatorChar + name.replace('/', File.separatorChar)));
+        }
+
+
+        @Override
+        List<String> getFileNames() {
+            List<String> names = new ArrayList<String>();
+            addFileNames(new File(dir), "", names);
+            return names;
+        }
+
+
+        private static void addFileNames( File directory, String prefix, List<String> names ) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        addFileNames(file, prefix + file.getName() + '/', names);
+                    } else {
+                        names.add(prefix + file.getName());
+                    }
+                }
+            }
+        }
+
+
+        private ClassFile createClassFile( final File file ) {
+            return new ClassFile() {
 
                 public InputStream getInputStream() throws IOException {
                     return new FileInputStream(file);
@@ -448,7 +1005,7 @@ public class ClassPath implements Serializable {
                 public String getBase() {
                     return dir;
                 }
-            } : null;
+            };
         }
 
 
@@ -490,7 +1047,32 @@ public class ClassPath implements Serializable {
 
         @Override
         ClassFile getClassFile( String name, String suffix ) throws IOException {
-            final ZipEntry entry = zip.getEntry(name.replace('.', '/') + suffix);
+            return getIndexedClassFile(name.replace('.', '/') + suffix);
+        }
+
+
+        @Override
+        List<String> getFileNames() {
+            List<String> names = new ArrayList<String>(zip.size());
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    names.add(entry.getName());
+                }
+            }
+            return names;
+        }
+
+
+        @Override
+        boolean isImmutable() {
+            return true;
+        }
+
+
+        @Override
+        ClassFile getIndexedClassFile( String name ) {
+            final ZipEntry entry = zip.getEntry(name);
 
             if (entry == null) {
                 return null;
@@ -523,5 +1105,183 @@ public class ClassPath implements Serializable {
                 }
             };
         }
+
+
+        @Override
+        public String toString() {
+            return zip.getName();
+        }
+    }
+
+    /**
+     * The module image of a Java 9 or later runtime, read through the jrt:/
+     * file system. Classes are looked up in the module that contains their
+     * package, so a lookup needs to access a single file at most.
+     */
+    private static class Modules extends PathEntry {
+
+        private static final long serialVersionUID = -5432950164328816937L;
+        private final String modules_file;
+        private final transient FileSystem fs;
+        private final Map<String, String> package_modules; // e.g. java/lang -> java.base
+
+
+        Modules(File modules_file) throws IOException {
+            this.modules_file = modules_file.getPath();
+            fs = openFileSystem(modules_file);
+            Map<String, String> map = new HashMap<String, String>();
+            DirectoryStream<Path> packages = Files.newDirectoryStream(fs.getPath("/packages"));
+            try {
+                for (Path pkg : packages) {
+                    DirectoryStream<Path> modules = Files.newDirectoryStream(pkg);
+                    try {
+                        Iterator<Path> it = modules.iterator();
+                        if (it.hasNext()) {
+                            map.put(pkg.getFileName().toString().replace('.', '/'), it.next().getFileName().toString());
+                        }
+                    } finally {
+                        modules.close();
+                    }
+                }
+            } finally {
+                packages.close();
+            }
+            package_modules = map;
+        }
+
+
+        private static FileSystem openFileSystem( File modules_file ) throws IOException {
+            URI uri = URI.create("jrt:/");
+            File java_home = modules_file.getAbsoluteFile().getParentFile().getParentFile();
+            try {
+                if (java_home.getCanonicalFile().equals(new File(System.getProperty("java.home")).getCanonicalFile())) {
+                    return FileSystems.getFileSystem(uri);
+                }
+                return FileSystems.newFileSystem(uri, Collections.singletonMap("java.home", java_home.getPath()));
+            } catch (RuntimeException e) { // No jrt:/ file system before Java 9
+                throw new IOException("Couldn't open module image " + modules_file + ": " + e, e);
+            }
+        }
+
+
+        /**
+         * @return path of the given file in the module image, or null if
+         * no module contains its package
+         */
+        private Path getPath( String name ) {
+            int i = name.lastIndexOf('/');
+            if (i < 0) {
+                return null;
+            }
+            String module = package_modules.get(name.substring(0, i));
+            return (module != null) ? fs.getPath("/modules", module, name) : null;
+        }
+
+        @Override
+        URL getResource(String name) {
+            final Path path = getPath(name);
+            try {
+                return (path != null && Files.exists(path)) ? path.toUri().toURL() : null;
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        @Override
+        InputStream getResourceAsStream(String name) {
+            final Path path = getPath(name);
+            try {
+                return (path != null && Files.exists(path)) ? Files.newInputStream(path) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        ClassFile getClassFile( String name, String suffix ) throws IOException {
+            final Path path = getPath(name.replace('.', '/') + suffix);
+            return (path != null && Files.exists(path)) ? createClassFile(path) : null;
+        }
+
+
+        @Override
+        boolean isImmutable() {
+            return true;
+        }
+
+
+        @Override
+        ClassFile getIndexedClassFile( String name ) {
+            final Path path = getPath(name);
+            return (path != null) ? createClassFile(path) : null;
+        }
+
+
+        @Override
+        List<String> getFileNames() throws IOException {
+            List<String> names = new ArrayList<String>();
+            for (Map.Entry<String, String> entry : package_modules.entrySet()) {
+                String pkg = entry.getKey();
+                Path dir = fs.getPath("/modules", entry.getValue(), pkg);
+                if (!Files.isDirectory(dir)) {
+                    continue;
+                }
+                DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+                try {
+                    for (Path file : files) {
+                        if (!Files.isDirectory(file)) {
+                            names.add(pkg + '/' + file.getFileName());
+                        }
+                    }
+                } finally {
+                    files.close();
+                }
+            }
+            return names;
+        }
+
+
+        private ClassFile createClassFile( final Path path ) {
+            return new ClassFile() {
+
+                public InputStream getInputStream() throws IOException {
+                    return Files.newInputStream(path);
+                }
+
+
+                public String getPath() {
+                    return path.toUri().toString();
+                }
+
+
+                public long getTime() {
+                    try {
+                        return Files.getLastModifiedTime(path).toMillis();
+                    } catch (IOException e) {
+                        return 0;
+                    }
+                }
+
+
+                public long getSize() {
+                    try {
+                        return Files.size(path);
+                    } catch (IOException e) {
+                        return 0;
+                    }
+                }
+
+
+                public String getBase() {
+                    return modules_file;
+                }
+            };
+        }
+
+
+        @Override
+        public String toString() {
+            return modules_file;
+        }
     }
 }
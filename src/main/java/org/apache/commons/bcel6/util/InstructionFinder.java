@@ -18,11 +18,14 @@
 package org.apache.commons.bcel6.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,8 +43,10 @@ import org.apache.commons.bcel6.generic.InstructionList;
  * equivalents.
  * 
  * <p>
- * This class internally uses the java.util.regex
- * package to search for regular expressions.
+ * Patterns are compiled once into an automaton over opcodes, which is
+ * cached per pattern string and run directly on the opcodes of the list.
+ * Patterns using regular expression features beyond grouping, alternatives
+ * and the quantifiers *, + and ? are handed to the java.util.regex package.
  * 
  * A typical application would look like this:
  * 
@@ -67,16 +72,21 @@ import org.apache.commons.bcel6.generic.InstructionList;
  */
 public class InstructionFinder {
 
-    private static final int OFFSET = 32767; // char + OFFSET is
+    static final int OFFSET = 32767; // char + OFFSET is
     // outside of
     // LATIN-1
     private static final int NO_OPCODES = 256; // Potential number,
     // some are not used
+    private static final int MAX_CACHED_PATTERNS = 1000;
     private static final Map<String, String> map = new HashMap<String, String>();
+    // Compiled patterns, either an InstructionPattern or a java.util.regex.Pattern
+    private static final Map<String, Object> patterns = new ConcurrentHashMap<String, Object>();
     private final InstructionList il;
+    private int[] codes; // opcodes of the instruction list
     private String il_string; // instruction list
-    // as string
+    // as string, only built for java.util.regex patterns
     private InstructionHandle[] handles; // map instruction
+    private int hint; // index of the last area reread, where the next one is looked for first
 
 
     // list to array
@@ -96,14 +106,124 @@ public class InstructionFinder {
      */
     public final void reread() {
         int size = il.getLength();
-        char[] buf = new char[size]; // Create a string with length equal to il
-        // length
         handles = il.getInstructionHandles();
-        // Map opcodes to characters
+        if ((codes == null) || (codes.length < size)) {
+            codes = new int[size];
+        }
         for (int i = 0; i < size; i++) {
-            buf[i] = makeChar(handles[i].getInstruction().getOpcode());
+            codes[i] = handles[i].getInstruction().getOpcode();
+        }
+        il_string = null;
+    }
+
+
+    /**
+     * Reread only the part of the instruction list between two handles that
+     * have not been touched, e.g., after you've replaced or deleted a match.
+     * The list outside this area must not have changed since the last reread.
+     * Only the opcodes of the new instructions are read; the rest is shifted
+     * in place, so this is much cheaper than reread() in long lists.
+     *
+     * @param before
+     *          the last handle before the altered area, or null if the area
+     *          starts the list
+     * @param after
+     *          the first handle after the altered area, or null if the area
+     *          ends the list
+     * @throws ClassGenException if before or after are not in the list, or
+     *          after does not follow before
+     */
+    public final void reread( InstructionHandle before, InstructionHandle after ) {
+        int first = (before == null) ? 0 : indexNear(before) + 1; // first replaced index
+        int end = (after == null) ? handles.length : indexNear(after); // end of replaced indices
+        if (end < first) {
+            throw new ClassGenException("Instruction handle " + after + " does not follow " + before);
+        }
+        int added = 0;
+        InstructionHandle ih = (before == null) ? il.getStart() : before.getNext();
+        for (; ih != after; ih = ih.getNext()) {
+            if (ih == null) {
+                throw new ClassGenException("Instruction handle " + after + " does not follow " + before);
+            }
+            added++;
+        }
+        int tail = handles.length - end;
+        int size = first + added + tail;
+        InstructionHandle[] new_handles = new InstructionHandle[size];
+        System.arraycopy(handles, 0, new_handles, 0, first);
+        System.arraycopy(handles, end, new_handles, first + added, tail);
+        if (codes.length < size) {
+            int[] new_codes = new int[Math.max(size, codes.length * 2)];
+            System.arraycopy(codes, 0, new_codes, 0, first);
+            System.arraycopy(codes, end, new_codes, first + added, tail);
+            codes = new_codes;
+        } else {
+            System.arraycopy(codes, end, codes, first + added, tail);
+        }
+        ih = (before == null) ? il.getStart() : before.getNext();
+        for (int i = first; ih != after; ih = ih.getNext(), i++) {
+            new_handles[i] = ih;
+            codes[i] = ih.getInstruction().getOpcode();
+        }
+        handles = new_handles;
+        hint = first;
+        il_string = null;
+    }
+
+
+    /**
+     * @return index of the given handle, looking around the last area reread first
+     */
+    private int indexNear( InstructionHandle ih ) {
+        int n = handles.length;
+        int h = Math.min(hint, n);
+        for (int d = 0; d < n; d++) {
+            int i = h + d;
+            if (i < n && handles[i] == ih) {
+                return i;
+            }
+            i = h - d - 1;
+            if (i >= 0 && handles[i] == ih) {
+                return i;
+            }
+        }
+        throw new ClassGenException("Instruction handle " + ih + " not found in instruction list.");
+    }
+
+
+    /**
+     * @return the instruction list as string, opcodes mapped to characters
+     */
+    private String getILString() {
+        if (il_string == null) {
+            char[] buf = new char[handles.length]; // Create a string with length equal to il
+            // length
+            for (int i = 0; i < buf.length; i++) {
+                buf[i] = makeChar((short) codes[i]);
+            }
+            il_string = new String(buf);
+        }
+        return il_string;
+    }
+
+
+    /**
+     * @return the compiled form of the given pattern
+     */
+    private static Object getPattern( String pattern ) {
+        Object compiled = patterns.get(pattern);
+        if (compiled == null) {
+            String search = compilePattern(pattern);
+            compiled = InstructionPattern.compile(search);
+            if (compiled == null) {
+                compiled = Pattern.compile(search);
+            }
+            if (patterns.size() >= MAX_CACHED_PATTERNS) {
+                patterns.clear();
+            }
+            patterns.put(pattern, compiled);
         }
-        il_string = new String(buf);
+        return compiled;
     }
 
 
@@ -197,7 +317,10 @@ public class InstructionFinder {
      * <p>
      * If you alter the instruction list upon a match such that other matching
      * areas are affected, you should call reread() to update the finder and call
-     * search() again, because the matches are cached.
+     * search() again, because the matches are cached. reread() only refreshes
+     * the opcodes, and reread(before, after) only those of the altered area,
+     * so resuming the search with search(pattern, from) right behind the
+     * altered area is cheap.
      * 
      * @param pattern
      *          the instruction pattern to search for, where case is ignored
@@ -210,25 +333,39 @@ public class InstructionFinder {
      *         instruction handles describing the matched area
      */
     public final Iterator<InstructionHandle[]> search( String pattern, InstructionHandle from, CodeConstraint constraint ) {
-        String search = compilePattern(pattern);
-        int start = -1;
-        for (int i = 0; i < handles.length; i++) {
-            if (handles[i] == from) {
-                start = i; // Where to start search from (index)
-                break;
+        Object compiled = getPattern(pattern);
+        int start = indexOf(from);
+        List<InstructionHandle[]> matches = new ArrayList<InstructionHandle[]>();
+        if (compiled instanceof InstructionPattern) {
+            InstructionPattern automaton = (InstructionPattern) compiled;
+            while (start < handles.length) {
+                long found = automaton.find(codes, handles.length, start);
+                if (found < 0) {
+                    break;
+                }
+                int startExpr = (int) (found >>> 32);
+                int endExpr = (int) found;
+                if (endExpr == startExpr) { // Skip empty matches
+                    start = endExpr + 1;
+                    continue;
+                }
+                InstructionHandle[] match = getMatch(startExpr, endExpr - startExpr);
+                if ((constraint == null) || constraint.checkCode(match)) {
+                    matches.add(match);
+                }
+                start = endExpr;
             }
+            return matches.iterator();
         }
-        if (start == -1) {
-            throw new ClassGenException("Instruction handle " + from
-                    + " not found in instruction list.");
-        }
-        Pattern regex = Pattern.compile(search);
-        List<InstructionHandle[]> matches = new ArrayList<InstructionHandle[]>();
-        Matcher matcher = regex.matcher(il_string);
-        while (start < il_string.length() && matcher.find(start)) {
+        Matcher matcher = ((Pattern) compiled).matcher(getILString());
+        while (start < handles.length && matcher.find(start)) {
             int startExpr = matcher.start();
             int endExpr = matcher.end();
             int lenExpr = (endExpr - startExpr);
+            if (lenExpr == 0) { // Skip empty matches
+                start = endExpr + 1;
+                continue;
+            }
             InstructionHandle[] match = getMatch(startExpr, lenExpr);
             if ((constraint == null) || constraint.checkCode(match)) {
                 matches.add(match);
@@ -239,6 +376,121 @@ public class InstructionFinder {
     }
 
 
+    /**
+     * @return index of the given handle, i.e., where to start a search from
+     */
+    private int indexOf( InstructionHandle from ) {
+        for (int i = 0; i < handles.length; i++) {
+            if (handles[i] == from) {
+                return i;
+            }
+        }
+        throw new ClassGenException("Instruction handle " + from
+                + " not found in instruction list.");
+    }
+
+
+    /**
+     * Search for all patterns of the given set in a single pass over the
+     * instruction list, beginning from `from'. Every pattern yields the same
+     * matches as a separate search() for it with its constraint. After the
+     * pass, the handler of each pattern is called for its matches, in order
+     * of the start of the matched areas; matches starting at the same
+     * instruction are reported in the order the patterns were added to the
+     * set.
+     * 
+     * @param patterns
+     *          the patterns to search for
+     * @param from
+     *          where to start the search in the instruction list
+     */
+    public final void search( PatternSet patterns, InstructionHandle from ) {
+        int start = indexOf(from);
+        int length = handles.length;
+        int count = patterns.patterns.size();
+        InstructionPattern.Matcher[] matchers = new InstructionPattern.Matcher[count];
+        for (int i = 0; i < count; i++) {
+            matchers[i] = new InstructionPattern.Matcher(patterns.patterns.get(i));
+            matchers[i].reset(start);
+        }
+        List<Found> found = new ArrayList<Found>();
+        int[] busy = new int[count], next_busy = new int[count];
+        int[] visited = new int[count]; // last position a pattern was looked at
+        Arrays.fill(visited, -1);
+        int busy_count = 0;
+        for (int pos = start; pos <= length; pos++) {
+            int next_busy_count = 0;
+            /* Only patterns that are in the middle of a match or that may start
+             * one with the current instruction need to look at it.
+             */
+            int[] starting = (pos < length) ? patterns.starts[codes[pos]] : PatternSet.NONE;
+            int[][] candidates = { busy, patterns.nullable, starting };
+            int[] candidate_counts = { busy_count, patterns.nullable.length, starting.length };
+            for (int c = 0; c < candidates.length; c++) {
+                for (int j = 0; j < candidate_counts[c]; j++) {
+                    int i = candidates[c][j];
+                    if (visited[i] == pos) {
+                        continue;
+                    }
+                    visited[i] = pos;
+                    InstructionPattern.Matcher matcher = matchers[i];
+                    if (!matcher.isBusy()) {
+                        if (matcher.pos > pos) {
+                            continue; // Skipping an empty match
+                        }
+                        matcher.pos = pos; // Nothing could have started in between
+                    }
+                    /* A match is only known once all threads with higher priority
+                     * have died, possibly some instructions behind its end. The next
+                     * search for the pattern then starts over at the end of the match.
+                     */
+                    while (matcher.pos <= pos) {
+                        if (matcher.step(codes, length)) {
+                            long match = matcher.getMatch();
+                            int match_start = (int) (match >>> 32);
+                            int match_end = (int) match;
+                            if (match_end > match_start) {
+                                InstructionHandle[] area = getMatch(match_start, match_end - match_start);
+                                CodeConstraint constraint = patterns.constraints.get(i);
+                                if ((constraint == null) || constraint.checkCode(area)) {
+                                    found.add(new Found(match_start, i, area));
+                                }
+                                matcher.reset(match_end);
+                            } else { // Skip empty matches
+                                matcher.reset(match_end + 1);
+                            }
+                        }
+                    }
+                    if (matcher.isBusy()) {
+                        next_busy[next_busy_count++] = i;
+                    }
+                }
+            }
+            int[] tmp = busy;
+            busy = next_busy;
+            next_busy = tmp;
+            busy_count = next_busy_count;
+        }
+        Collections.sort(found);
+        for (Found f : found) {
+            patterns.handlers.get(f.pattern).handleMatch(f.match);
+        }
+    }
+
+
+    /**
+     * Search for all patterns of the given set in a single pass, beginning
+     * from the start of the instruction list.
+     * 
+     * @param patterns
+     *          the patterns to search for
+     * @see #search(PatternSet, InstructionHandle)
+     */
+    public final void search( PatternSet patterns ) {
+        search(patterns, il.getStart());
+    }
+
+
     /**
      * Start search beginning from the start of the given instruction list.
      * 
@@ -313,6 +565,131 @@ public class InstructionFinder {
         public boolean checkCode( InstructionHandle[] match );
     }
 
+    /**
+     * Receives the matches of a pattern searched for with a PatternSet.
+     */
+    public static interface MatchHandler {
+
+        /**
+         * @param match
+         *          array of instructions matching the pattern
+         */
+        public void handleMatch( InstructionHandle[] match );
+    }
+
+    /**
+     * A set of patterns, each with an optional constraint and a handler for
+     * its matches, that are searched for together in a single pass over an
+     * instruction list. Patterns are compiled when they are added. Once
+     * populated, a set can be used for any number of instruction lists and
+     * may be shared between threads.
+     * 
+     * @see InstructionFinder#search(PatternSet, InstructionHandle)
+     */
+    public static final class PatternSet {
+
+        static final int[] NONE = new int[0];
+        final List<InstructionPattern> patterns = new ArrayList<InstructionPattern>();
+        final List<CodeConstraint> constraints = new ArrayList<CodeConstraint>();
+        final List<MatchHandler> handlers = new ArrayList<MatchHandler>();
+        // Indices of the patterns that may start with a given opcode
+        int[][] starts = new int[NO_OPCODES][];
+        // Indices of the patterns that match the empty sequence
+        int[] nullable = NONE;
+
+
+        public PatternSet() {
+            for (int i = 0; i < NO_OPCODES; i++) {
+                starts[i] = NONE;
+            }
+        }
+
+
+        /**
+         * Add a pattern to the set.
+         * 
+         * @param pattern
+         *          the instruction pattern to search for, where case is ignored;
+         *          see InstructionFinder.search() for the syntax, except that
+         *          only grouping, alternatives and the quantifiers *, + and ?
+         *          (greedy or lazy) are supported, and * and + only where the
+         *          repeated part cannot match the empty sequence
+         * @param constraint
+         *          optional CodeConstraint to check the found code pattern for
+         *          user-defined constraints
+         * @param handler
+         *          receives the matches
+         * @return this set
+         * @throws IllegalArgumentException if the pattern uses other regular
+         *          expression features or the handler is null
+         */
+        public PatternSet add( String pattern, CodeConstraint constraint, MatchHandler handler ) {
+            if (handler == null) {
+                throw new IllegalArgumentException("Match handler must not be null");
+            }
+            Object compiled = getPattern(pattern);
+            if (!(compiled instanceof InstructionPattern)) {
+                throw new IllegalArgumentException("Pattern not supported in a PatternSet: " + pattern);
+            }
+            InstructionPattern automaton = (InstructionPattern) compiled;
+            int index = patterns.size();
+            patterns.add(automaton);
+            constraints.add(constraint);
+            handlers.add(handler);
+            if (automaton.first == null) {
+                nullable = append(nullable, index);
+            } else {
+                for (int i = 0; i < NO_OPCODES; i++) {
+                    if (InstructionPattern.contains(automaton.first, i)) {
+                        starts[i] = append(starts[i], index);
+                    }
+                }
+            }
+            return this;
+        }
+
+
+        private static int[] append( int[] indices, int index ) {
+            int[] result = new int[indices.length + 1];
+            System.arraycopy(indices, 0, result, 0, indices.length);
+            result[indices.length] = index;
+            return result;
+        }
+
+
+        /**
+         * @return number of patterns in this set
+         */
+        public int size() {
+            return patterns.size();
+        }
+    }
+
+    /**
+     * A match found by a PatternSet search, ordered by start and pattern.
+     */
+    private static final class Found implements Comparable<Found> {
+
+        final int start;
+        final int pattern;
+        final InstructionHandle[] match;
+
+
+        Found(int start, int pattern, InstructionHandle[] match) {
+            this.start = start;
+            this.pattern = pattern;
+            this.match = match;
+        }
+
+
+        public int compareTo( Found other ) {
+            if (start != other.start) {
+                return (start < other.start) ? -1 : 1;
+            }
+            return (pattern < other.pattern) ? -1 : ((pattern == other.pattern) ? 0 : 1);
+        }
+    }
+
     // Initialize pattern map
     static {
         map.put("arithmeticinstruction","(irem|lrem|iand|ior|ineg|isub|lneg|fneg|fmul|ldiv|fadd|lxor|frem|idiv|land|ixor|ishr|fsub|lshl|fdiv|iadd|lor|dmul|lsub|ishl|imul|lmul|lushr|dneg|iushr|lshr|ddiv|drem|dadd|ladd|dsub)");
@@ -0,0 +1,616 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instruction pattern compiled into a nondeterministic automaton over
+ * opcodes. Used by InstructionFinder instead of java.util.regex for the
+ * patterns it understands: instruction names and classes, `.', grouping,
+ * alternatives and the (lazy) quantifiers *, + and ?.
+ *
+ * The automaton is run as a Pike VM, i.e., all alternatives are followed in
+ * parallel with threads ordered by priority. This yields the same leftmost,
+ * greedy-first matches as the backtracking java.util.regex engine, but in a
+ * single pass over the code without any backtracking.
+ *
+ * Instances are immutable and may be shared between threads.
+ *
+ * @version $Id$
+ * @see InstructionFinder
+ */
+final class InstructionPattern {
+
+    static final int SET = 0; // consume an opcode contained in sets[arg1]
+    static final int SPLIT = 1; // continue at arg1, and with lower priority at arg2
+    static final int JMP = 2; // continue at arg1
+    static final int MATCH = 3; // report a match
+
+    private static final int NO_OPCODES = 256;
+
+    final int[] op;
+    final int[] arg1;
+    final int[] arg2;
+    final long[][] sets;
+    /* Opcodes a match may start with, or null if the pattern also
+     * matches the empty sequence.
+     */
+    final long[] first;
+
+
+    private InstructionPattern(int[] op, int[] arg1, int[] arg2, long[][] sets, long[] first) {
+        this.op = op;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.sets = sets;
+        this.first = first;
+    }
+
+
+    /**
+     * @param regex pattern as translated by InstructionFinder, i.e., with
+     * instructions encoded as characters starting at InstructionFinder.OFFSET
+     * @return compiled pattern, or null if the pattern uses regular expression
+     * features this class does not support
+     */
+    static InstructionPattern compile( String regex ) {
+        Node node;
+        try {
+            Parser parser = new Parser(regex);
+            node = parser.parseAlternative();
+            if (parser.pos != regex.length()) {
+                return null;
+            }
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        Emitter emitter = new Emitter();
+        node.emit(emitter);
+        emitter.add(MATCH, 0, 0);
+        return new InstructionPattern(emitter.getOps(), emitter.getArgs1(), emitter.getArgs2(),
+                emitter.sets.toArray(new long[emitter.sets.size()][]), node.first());
+    }
+
+
+    static boolean contains( long[] set, int opcode ) {
+        return (set[opcode >>> 6] & (1L << opcode)) != 0;
+    }
+
+
+    /**
+     * Find the leftmost match starting at or after position from.
+     *
+     * @param codes opcodes of the instruction list
+     * @param length number of valid entries in codes
+     * @param from where to start the search
+     * @return start of the match in the upper, end (exclusive) in the lower
+     * 32 bits, or -1 if there is no match
+     */
+    long find( int[] codes, int length, int from ) {
+        Matcher matcher = new Matcher(this);
+        matcher.reset(from);
+        while (matcher.pos <= length) {
+            if (!matcher.isBusy() && (first != null)) { // Skip what can not start a match
+                while ((matcher.pos < length) && !contains(first, codes[matcher.pos])) {
+                    matcher.pos++;
+                }
+                if (matcher.pos == length) {
+                    break;
+                }
+            }
+            if (matcher.step(codes, length)) {
+                return matcher.getMatch();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * State of a search with this pattern. The search advances one
+     * instruction per call of step() and can thus be run in lockstep with
+     * the searches of other patterns.
+     */
+    static final class Matcher {
+
+        final InstructionPattern pattern;
+        private int[] cpc, cstart, cmark; // threads at the current position, in priority order
+        private int[] npc, nstart, nmark; // threads at the next position
+        private final int[] stack;
+        private int gen, ccount;
+        private int match_start, match_end;
+        int pos; // position to be examined next
+        private int from; // matches must not start before this position
+
+
+        Matcher(InstructionPattern pattern) {
+            this.pattern = pattern;
+            int size = pattern.op.length;
+            cpc = new int[size];
+            cstart = new int[size];
+            cmark = new int[size];
+            npc = new int[size];
+            nstart = new int[size];
+            nmark = new int[size];
+            stack = new int[2 * size + 2];
+        }
+
+
+        /**
+         * Start a new search at the given position.
+         */
+        void reset( int from ) {
+            this.from = from;
+            pos = from;
+            ccount = 0;
+            match_start = -1;
+            gen++;
+        }
+
+
+        /**
+         * @return whether the search has threads alive, i.e., the next step may
+         * complete a match even if no new match can start there
+         */
+        boolean isBusy() {
+            return ccount > 0;
+        }
+
+
+        /**
+         * @return start of the match in the upper, end (exclusive) in the lower
+         * 32 bits, or -1 if there is no match (yet)
+         */
+        long getMatch() {
+            return (match_start < 0) ? -1 : (((long) match_start << 32) | match_end);
+        }
+
+
+        /**
+         * Examine the instruction at position pos and advance to the next one.
+         *
+         * @return true if the leftmost match has been determined, i.e., it has
+         * been found and no thread with higher priority is left
+         */
+        boolean step( int[] codes, int length ) {
+            int[] op = pattern.op;
+            if ((match_start < 0) && (pos >= from)) {
+                long[] first = pattern.first;
+                if ((first == null) || ((pos < length) && contains(first, codes[pos]))) {
+                    // A new thread for a match starting here, with lowest priority
+                    stack[0] = 0;
+                    ccount = addThreads(cpc, cstart, cmark, ccount, 1, pos);
+                }
+            }
+            if (ccount > 0) {
+                int ncount = 0;
+                gen++;
+                for (int i = 0; i < ccount; i++) {
+                    int pc = cpc[i];
+                    if (op[pc] == MATCH) {
+                        match_start = cstart[i];
+                        match_end = pos;
+                        break; // Threads with lower priority are cut off
+                    } else if ((pos < length) && contains(pattern.sets[pattern.arg1[pc]], codes[pos])) {
+                        stack[0] = pc + 1;
+                        ncount = addThreads(npc, nstart, nmark, ncount, 1, cstart[i]);
+                    }
+                }
+                int[] tmp = cpc; cpc = npc; npc = tmp;
+                tmp = cstart; cstart = nstart; nstart = tmp;
+                tmp = cmark; cmark = nmark; nmark = tmp;
+                ccount = ncount;
+            }
+            pos++;
+            return (match_start >= 0) && (ccount == 0);
+        }
+
+
+        /**
+         * Follow the jumps and splits from the pcs on the stack, appending the
+         * reached SET and MATCH states in priority order to the list unless
+         * they are already contained.
+         */
+        private int addThreads( int[] pcs, int[] starts, int[] marks, int count, int top, int start ) {
+            int[] op = pattern.op;
+            while (top > 0) {
+                int pc = stack[--top];
+                if (marks[pc] == gen) {
+                    continue;
+                }
+                marks[pc] = gen;
+                switch (op[pc]) {
+                    case JMP:
+                        stack[top++] = pattern.arg1[pc];
+                        break;
+                    case SPLIT:
+                        stack[top++] = pattern.arg2[pc];
+                        stack[top++] = pattern.arg1[pc];
+                        break;
+                    default:
+                        pcs[count] = pc;
+                        starts[count++] = start;
+                        break;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Syntax tree of a pattern.
+     */
+    private abstract static class Node {
+
+        abstract void emit( Emitter e );
+
+
+        /** @return whether the node matches the empty sequence */
+        abstract boolean nullable();
+
+
+        /** @return opcodes a non-empty match may start with */
+        abstract long[] firstSet();
+
+
+        /** @return opcodes a match may start with, or null if it may be empty */
+        final long[] first() {
+            return nullable() ? null : firstSet();
+        }
+    }
+
+    private static final class SetNode extends Node {
+
+        final long[] set;
+
+
+        SetNode(long[] set) {
+            this.set = set;
+        }
+
+
+        @Override
+        void emit( Emitter e ) {
+            e.add(SET, e.addSet(set), 0);
+        }
+
+
+        @Override
+        boolean nullable() {
+            return false;
+        }
+
+
+        @Override
+        long[] firstSet() {
+            return set.clone();
+        }
+    }
+
+    private static final class SequenceNode extends Node {
+
+        final List<Node> nodes;
+
+
+        SequenceNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+
+        @Override
+        void emit( Emitter e ) {
+            for (Node node : nodes) {
+                node.emit(e);
+            }
+        }
+
+
+        @Override
+        boolean nullable() {
+            for (Node node : nodes) {
+                if (!node.nullable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+        @Override
+        long[] firstSet() {
+            long[] set = new long[NO_OPCODES / 64];
+            for (Node node : nodes) {
+                union(set, node.firstSet());
+                if (!node.nullable()) {
+                    break;
+                }
+            }
+            return set;
+        }
+    }
+
+    private static final class AlternativeNode extends Node {
+
+        final List<Node> nodes;
+
+
+        AlternativeNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+
+        @Override
+        void emit( Emitter e ) {
+            int[] jumps = new int[nodes.size() - 1];
+            for (int i = 0; i < jumps.length; i++) {
+                int split = e.add(SPLIT, e.size() + 1, 0);
+                nodes.get(i).emit(e);
+                jumps[i] = e.add(JMP, 0, 0);
+                e.arg2.set(split, Integer.valueOf(e.size()));
+            }
+            nodes.get(jumps.length).emit(e);
+            for (int jump : jumps) {
+                e.arg1.set(jump, Integer.valueOf(e.size()));
+            }
+        }
+
+
+        @Override
+        boolean nullable() {
+            for (Node node : nodes) {
+                if (node.nullable()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        @Override
+        long[] firstSet() {
+            long[] set = new long[NO_OPCODES / 64];
+            for (Node node : nodes) {
+                union(set, node.firstSet());
+            }
+            return set;
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+
+        final Node node;
+        final char quantifier; // `*', `+' or `?'
+        final boolean greedy;
+
+
+        RepeatNode(Node node, char quantifier, boolean greedy) {
+            this.node = node;
+            this.quantifier = quantifier;
+            this.greedy = greedy;
+        }
+
+
+        @Override
+        void emit( Emitter e ) {
+            int start = e.size();
+            switch (quantifier) {
+                case '*': {
+                    int split = e.add(SPLIT, 0, 0);
+                    node.emit(e);
+                    e.add(JMP, start, 0);
+                    e.setSplit(split, split + 1, e.size(), greedy);
+                    break;
+                }
+                case '+': {
+                    node.emit(e);
+                    int split = e.add(SPLIT, 0, 0);
+                    e.setSplit(split, start, e.size(), greedy);
+                    break;
+                }
+                default: {
+                    int split = e.add(SPLIT, 0, 0);
+                    node.emit(e);
+                    e.setSplit(split, split + 1, e.size(), greedy);
+                    break;
+                }
+            }
+        }
+
+
+        @Override
+        boolean nullable() {
+            return (quantifier != '+') || node.nullable();
+        }
+
+
+        @Override
+        long[] firstSet() {
+            return node.firstSet();
+        }
+    }
+
+
+    static void union( long[] set, long[] other ) {
+        for (int i = 0; i < set.length; i++) {
+            set[i] |= other[i];
+        }
+    }
+
+    /**
+     * Builds the program of the automaton.
+     */
+    private static final class Emitter {
+
+        final List<Integer> op = new ArrayList<Integer>();
+        final List<Integer> arg1 = new ArrayList<Integer>();
+        final List<Integer> arg2 = new ArrayList<Integer>();
+        final List<long[]> sets = new ArrayList<long[]>();
+
+
+        int size() {
+            return op.size();
+        }
+
+
+        int add( int o, int a1, int a2 ) {
+            op.add(Integer.valueOf(o));
+            arg1.add(Integer.valueOf(a1));
+            arg2.add(Integer.valueOf(a2));
+            return op.size() - 1;
+        }
+
+
+        int addSet( long[] set ) {
+            sets.add(set);
+            return sets.size() - 1;
+        }
+
+
+        void setSplit( int split, int loop, int exit, boolean greedy ) {
+            arg1.set(split, Integer.valueOf(greedy ? loop : exit));
+            arg2.set(split, Integer.valueOf(greedy ? exit : loop));
+        }
+
+
+        int[] getOps() {
+            return toArray(op);
+        }
+
+
+        int[] getArgs1() {
+            return toArray(arg1);
+        }
+
+
+        int[] getArgs2() {
+            return toArray(arg2);
+        }
+
+
+        private static int[] toArray( List<Integer> list ) {
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = list.get(i).intValue();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Recursive descent parser for translated patterns. Throws
+     * UnsupportedOperationException for anything it does not understand,
+     * so that the caller can fall back to java.util.regex.
+     */
+    private static final class Parser {
+
+        final String regex;
+        int pos;
+
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+
+        Node parseAlternative() {
+            List<Node> nodes = new ArrayList<Node>();
+            nodes.add(parseSequence());
+            while ((pos < regex.length()) && (regex.charAt(pos) == '|')) {
+                pos++;
+                nodes.add(parseSequence());
+            }
+            if (nodes.size() == 1) {
+                return nodes.get(0);
+            }
+            // Alternatives of single instructions collapse into one set
+            long[] set = new long[NO_OPCODES / 64];
+            for (Node node : nodes) {
+                if (!(node instanceof SetNode)) {
+                    return new AlternativeNode(nodes);
+                }
+                union(set, ((SetNode) node).set);
+            }
+            return new SetNode(set);
+        }
+
+
+        private Node parseSequence() {
+            List<Node> nodes = new ArrayList<Node>();
+            while ((pos < regex.length()) && (regex.charAt(pos) != '|') && (regex.charAt(pos) != ')')) {
+                Node node = parseAtom();
+                if ((pos < regex.length()) && isQuantifier(regex.charAt(pos))) {
+                    char quantifier = regex.charAt(pos++);
+                    boolean greedy = true;
+                    if ((pos < regex.length()) && (regex.charAt(pos) == '?')) {
+                        greedy = false;
+                        pos++;
+                    }
+                    if ((pos < regex.length()) && (isQuantifier(regex.charAt(pos)) || (regex.charAt(pos) == '{'))) {
+                        throw new UnsupportedOperationException(); // possessive or nested quantifier
+                    }
+                    if ((quantifier != '?') && node.nullable()) {
+                        // java.util.regex ends a loop on an empty iteration
+                        throw new UnsupportedOperationException();
+                    }
+                    node = new RepeatNode(node, quantifier, greedy);
+                }
+                nodes.add(node);
+            }
+            return (nodes.size() == 1) ? nodes.get(0) : new SequenceNode(nodes);
+        }
+
+
+        private static boolean isQuantifier( char ch ) {
+            return (ch == '*') || (ch == '+') || (ch == '?');
+        }
+
+
+        private Node parseAtom() {
+            char ch = regex.charAt(pos++);
+            if (ch >= InstructionFinder.OFFSET) {
+                int opcode = ch - InstructionFinder.OFFSET;
+                if (opcode >= NO_OPCODES) {
+                    throw new UnsupportedOperationException();
+                }
+                long[] set = new long[NO_OPCODES / 64];
+                set[opcode >>> 6] |= 1L << opcode;
+                return new SetNode(set);
+            } else if (ch == '.') {
+                long[] set = new long[NO_OPCODES / 64];
+                for (int i = 0; i < set.length; i++) {
+                    set[i] = -1L;
+                }
+                return new SetNode(set);
+            } else if (ch == '(') {
+                if (regex.startsWith("?:", pos)) { // Non-capturing group
+                    pos += 2;
+                } else if ((pos < regex.length()) && (regex.charAt(pos) == '?')) {
+                    throw new UnsupportedOperationException(); // Look-around, flags, ...
+                }
+                Node node = parseAlternative();
+                if ((pos >= regex.length()) || (regex.charAt(pos) != ')')) {
+                    throw new UnsupportedOperationException();
+                }
+                pos++;
+                return node;
+            }
+            throw new UnsupportedOperationException(); // Character classes, anchors, escapes, ...
+        }
+    }
+}
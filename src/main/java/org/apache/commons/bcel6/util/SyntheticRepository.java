@@ -19,9 +19,18 @@ package org.apache.commons.bcel6.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.bcel6.classfile.ClassParser;
 import org.apache.commons.bcel6.classfile.JavaClass;
@@ -35,6 +44,12 @@ import org.apache.commons.bcel6.classfile.JavaClass;
  * <br>
  * It is designed to be used as a singleton, however it
  * can also be used with custom classpaths.
+ * <br>
+ * Loaded classes are kept in a ClassCache of bounded size.
+ * <br>
+ * Repositories are thread-safe. If several threads ask for the same
+ * class at once, it is parsed by one of them and the others wait for
+ * the result.
  *
  * @see org.apache.commons.bcel6.Repository
  *
@@ -44,9 +59,17 @@ public class SyntheticRepository implements Repository {
 
     private static final long serialVersionUID = 2923440730410019444L;
     //private static final String DEFAULT_PATH = ClassPath.getClassPath();
-    private static final Map<ClassPath, SyntheticRepository> _instances = new HashMap<ClassPath, SyntheticRepository>(); // CLASSPATH X REPOSITORY
+    private static final ConcurrentMap<ClassPath, SyntheticRepository> _instances = new ConcurrentHashMap<ClassPath, SyntheticRepository>(); // CLASSPATH X REPOSITORY
     private ClassPath _path = null;
-    private final Map<String, SoftReference<JavaClass>> _loadedClasses = new HashMap<String, SoftReference<JavaClass>>(); // CLASSNAME X JAVACLASS
+    private final ClassCache _loadedClasses = new ClassCache(); // CLASSNAME X JAVACLASS
+    private final Set<String> _missingClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()); // CLASSNAMEs not found on the class path
+    private final ConcurrentMap<String, FutureTask<JavaClass>> _loadingClasses = new ConcurrentHashMap<String, FutureTask<JavaClass>>(); // CLASSNAME X PENDING PARSE
+
+    private volatile int _missingGeneration; // ClassPath cache generation _missingClasses belong to
+
+    private static final int MAX_MISSING_CLASSES = 10000;
+
+    private volatile ClassPath.LookupOrder _lookupOrder = null; // null: use the ClassPath's order
 
 
     private SyntheticRepository(ClassPath path) {
@@ -63,7 +86,10 @@ public class SyntheticRepository implements Repository {
         SyntheticRepository rep = _instances.get(classPath);
         if (rep == null) {
             rep = new SyntheticRepository(classPath);
-            _instances.put(classPath, rep);
+            SyntheticRepository previous = _instances.putIfAbsent(classPath, rep);
+            if (previous != null) {
+                rep = previous;
+            }
         }
         return rep;
     }
@@ -73,7 +99,8 @@ public class SyntheticRepository implements Repository {
      * Store a new JavaClass instance into this Repository.
      */
     public void storeClass( JavaClass clazz ) {
-        _loadedClasses.put(clazz.getClassName(), new SoftReference<JavaClass>(clazz));
+        _loadedClasses.put(clazz.getClassName(), clazz);
+        _missingClasses.remove(clazz.getClassName());
         clazz.setRepository(this);
     }
 
@@ -90,11 +117,7 @@ public class SyntheticRepository implements Repository {
      * Find an already defined (cached) JavaClass object by name.
      */
     public JavaClass findClass( String className ) {
-        SoftReference<JavaClass> ref = _loadedClasses.get(className);
-        if (ref == null) {
-            return null;
-        }
-        return ref.get();
+        return _loadedClasses.get(className);
     }
 
 
@@ -110,6 +133,26 @@ public class SyntheticRepository implements Repository {
      *   Repository, and could not be found on the classpath
      */
     public JavaClass loadClass( String className ) throws ClassNotFoundException {
+        JavaClass clazz = lookupClass(className);
+        if (clazz == null) {
+            throw new ClassNotFoundException("SyntheticRepository could not load " + className);
+        }
+        return clazz;
+    }
+
+
+    /**
+     * Find a JavaClass object by name, like loadClass(String), but return
+     * null if the class can't be found on the classpath. Class names that
+     * could not be found are remembered, so asking for them again is
+     * cheap until clear() is called.
+     *
+     * @param className the name of the class
+     * @return the JavaClass object, or null if there is no such class
+     * @throws ClassNotFoundException if the class was found on the
+     *   classpath, but could not be read
+     */
+    public JavaClass lookupClass( String className ) throws ClassNotFoundException {
         if (className == null || className.equals("")) {
             throw new IllegalArgumentException("Invalid class name " + className);
         }
@@ -118,12 +161,202 @@ public class SyntheticRepository implements Repository {
         if (clazz != null) {
             return clazz;
         }
+        if (isMissing(className)) {
+            return null;
+        }
+        final String name = className;
+        FutureTask<JavaClass> task = new FutureTask<JavaClass>(new Callable<JavaClass>() {
+
+            public JavaClass call() throws ClassNotFoundException {
+                // It may have been stored while we were checking for a pending parse
+                JavaClass clazz = _loadedClasses.peek(name);
+                return (clazz != null) ? clazz : parseClass(name);
+            }
+        });
+        FutureTask<JavaClass> pending = _loadingClasses.putIfAbsent(className, task);
+        if (pending == null) {
+            try {
+                task.run();
+            } finally {
+                _loadingClasses.remove(className, task);
+            }
+            pending = task;
+        }
         try {
-            return loadClass(_path.getInputStream(className), className);
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClassNotFoundException("Interrupted while waiting for class " + className, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ClassNotFoundException("Exception while looking for class " + className
+                    + ": " + cause, cause);
+        }
+    }
+
+
+    /**
+     * Callback for progress reports from preload().
+     */
+    public interface PreloadListener {
+
+        /**
+         * Called for every class that has been looked up, from the thread
+         * that looked it up.
+         *
+         * @param className the name of the class
+         * @param clazz the class, or null if it could not be found or read
+         * @param done number of classes looked up so far, including this one
+         * @param total number of classes to look up
+         */
+        void classPreloaded( String className, JavaClass clazz, int done, int total );
+    }
+
+
+    /**
+     * Load the given classes into this repository in parallel, e.g., to
+     * avoid loading them one at a time later on. Classes that can't be
+     * found or read are skipped.
+     *
+     * @param classNames names of the classes to load
+     * @param executor runs the tasks loading the classes
+     * @return number of the classes that could be loaded
+     * @throws InterruptedException if interrupted while waiting for the tasks
+     */
+    public int preload( Collection<String> classNames, Executor executor ) throws InterruptedException {
+        return preload(classNames, executor, null, Integer.MAX_VALUE, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Load all classes in the given class path into this repository in
+     * parallel. The classes themselves are looked up in the class path of
+     * this repository; the given class path is usually a part of it, e.g.,
+     * a single archive.
+     *
+     * @param classPath path listing the classes to load
+     * @param executor runs the tasks loading the classes
+     * @return number of the classes that could be loaded
+     * @throws IOException if the class path can't be listed
+     * @throws InterruptedException if interrupted while waiting for the tasks
+     */
+    public int preload( ClassPath classPath, Executor executor ) throws IOException, InterruptedException {
+        return preload(classPath.getClassNames(), executor);
+    }
+
+
+    /**
+     * Load the given classes into this repository in parallel, stopping
+     * when a budget is exhausted. Classes are looked up in the order
+     * given, as far as the executor preserves it.
+     *
+     * @param classNames names of the classes to load
+     * @param executor runs the tasks loading the classes
+     * @param listener notified after every class, may be null
+     * @param maxClasses number of classes to look up at most
+     * @param timeout no further classes are looked up when it has elapsed
+     * @param unit unit of timeout
+     * @return number of the classes that could be loaded
+     * @throws InterruptedException if interrupted while waiting for the tasks
+     */
+    public int preload( Collection<String> classNames, Executor executor, final PreloadListener listener,
+            final int maxClasses, long timeout, TimeUnit unit ) throws InterruptedException {
+        final int total = Math.min(classNames.size(), maxClasses);
+        final long start = System.nanoTime();
+        final long budget = unit.toNanos(timeout);
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger loaded = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(classNames.size());
+        for (final String className : classNames) {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        if (started.incrementAndGet() > maxClasses || System.nanoTime() - start > budget) {
+                            return;
+                        }
+                        JavaClass clazz = null;
+                        try {
+                            clazz = lookupClass(className);
+                        } catch (ClassNotFoundException e) {
+                        } catch (RuntimeException e) { // e.g. ClassFormatException
+                        }
+                        if (clazz != null) {
+                            loaded.incrementAndGet();
+                        }
+                        int n = done.incrementAndGet();
+                        if (listener != null) {
+                            listener.classPreloaded(className, clazz, n, total);
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        finished.await();
+        return loaded.get();
+    }
+
+
+    /**
+     * Read and store the class with the given name, or remember that it
+     * can't be found.
+     */
+    private JavaClass parseClass( String className ) throws ClassNotFoundException {
+        if (isMissing(className)) {
+            return null;
+        }
+        int generation = _path.getCacheGeneration();
+        InputStream is;
+        try {
+            ClassPath.LookupOrder order = _lookupOrder;
+            if (order == null) {
+                order = _path.getLookupOrder();
+            }
+            is = _path.findInputStream(className.replace('.', '/'), ".class", order);
         } catch (IOException e) {
             throw new ClassNotFoundException("Exception while looking for class " + className
                     + ": " + e, e);
         }
+        if (is == null) {
+            // A class file may still be written to a directory on the class path
+            if (_path.isImmutable()) {
+                if (_missingClasses.size() >= MAX_MISSING_CLASSES) {
+                    _missingClasses.clear();
+                }
+                _missingClasses.add(className);
+                if (_path.getCacheGeneration() != generation) { // Cleared while looking
+                    _missingClasses.remove(className);
+                }
+            }
+            return null;
+        }
+        return loadClass(is, className);
+    }
+
+
+    /**
+     * @return whether the class is known to be missing, after forgetting
+     * the misses if the ClassPath has forgotten its own since
+     */
+    private boolean isMissing( String className ) {
+        int generation = _path.getCacheGeneration();
+        if (generation != _missingGeneration) {
+            _missingClasses.clear();
+            _missingGeneration = generation;
+        }
+        return _missingClasses.contains(className);
     }
 
 
@@ -197,9 +430,45 @@ public class SyntheticRepository implements Repository {
     }
 
 
+    /**
+     * The cache holding the classes of this repository, e.g., to change
+     * its size, pin classes or get statistics.
+     */
+    public ClassCache getCache() {
+        return _loadedClasses;
+    }
+
+
+    /**
+     * @return where classes are looked for, i.e., the lookup order set
+     * for this repository or else the one of its ClassPath
+     */
+    public ClassPath.LookupOrder getLookupOrder() {
+        ClassPath.LookupOrder order = _lookupOrder;
+        return (order != null) ? order : _path.getLookupOrder();
+    }
+
+
+    /**
+     * Set where this repository looks for classes, independently of the
+     * lookup order of its ClassPath, which may be shared with other
+     * repositories.
+     *
+     * @param order the new lookup order, or null to use the one of the ClassPath
+     */
+    public void setLookupOrder( ClassPath.LookupOrder order ) {
+        if (order != _lookupOrder) {
+            _lookupOrder = order;
+            _missingClasses.clear();
+        }
+    }
+
+
     /** Clear all entries from cache.
      */
     public void clear() {
         _loadedClasses.clear();
+        _missingClasses.clear();
+        _path.clearCache();
     }
 }
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.classfile.ClassFormatException;
+import org.apache.commons.bcel6.classfile.ConstantPool;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.classfile.Utility;
+
+/**
+ * Answers subtype queries for the classes of a Repository. The super
+ * classes and interfaces of every class are computed once and cached,
+ * so that instanceOf() and implementationOf() take constant time.
+ * The first common super classes of pairs of classes are memoised.
+ * Classes not yet in the repository are not loaded; only the header of
+ * their class file, up to the list of interfaces, is read from the
+ * repository's class path, in the repository's lookup order.
+ * <br>
+ * Instances are thread-safe. Call clear(String) when a class in the
+ * repository is replaced or removed, and clear() when the repository
+ * is cleared.
+ *
+ * @see org.apache.commons.bcel6.Repository#getTypeHierarchy()
+ * @version $Id$
+ */
+public class TypeHierarchy {
+
+    private static final class Node {
+
+        final String name;
+        final boolean is_interface;
+        final Node[] superclasses; // java.lang.Object first, this node last
+        final Set<String> interfaces; // transitively, including this node if it's an interface
+
+
+        Node(String name, boolean is_interface, Node superclass, Node[] super_interfaces) {
+            this.name = name;
+            this.is_interface = is_interface;
+            if (superclass == null) {
+                superclasses = new Node[] { this };
+            } else {
+                int depth = superclass.superclasses.length;
+                superclasses = new Node[depth + 1];
+                System.arraycopy(superclass.superclasses, 0, superclasses, 0, depth);
+                superclasses[depth] = this;
+            }
+            Set<String> inherited = (superclass != null) ? superclass.interfaces : Collections.<String>emptySet();
+            Set<String> all = new HashSet<String>(inherited);
+            if (is_interface) {
+                all.add(name);
+            }
+            for (Node inter : super_interfaces) {
+                all.addAll(inter.interfaces);
+            }
+            // Most classes don't add any interfaces, so share the set of the super class
+            interfaces = (all.size() == inherited.size()) ? inherited : all;
+        }
+
+
+        /** @return whether the node was computed from the class with the given name */
+        boolean dependsOn( String class_name ) {
+            if (interfaces.contains(class_name)) {
+                return true;
+            }
+            for (Node superclass : superclasses) {
+                if (superclass.name.equals(class_name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        boolean isSubtypeOf( Node sup ) {
+            if (sup.is_interface) {
+                return interfaces.contains(sup.name);
+            }
+            int depth = sup.superclasses.length - 1;
+            return depth < superclasses.length && superclasses[depth].name.equals(sup.name);
+        }
+    }
+
+    private final Repository repository;
+    /** An unordered pair of class names. */
+    private static final class Pair {
+
+        final String first;
+        final String second;
+
+
+        Pair(String a, String b) {
+            if (a.compareTo(b) <= 0) {
+                first = a;
+                second = b;
+            } else {
+                first = b;
+                second = a;
+            }
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            Pair p = (Pair) o;
+            return first.equals(p.first) && second.equals(p.second);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * first.hashCode() + second.hashCode();
+        }
+    }
+
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+    private final ConcurrentMap<Pair, String> common_superclasses = new ConcurrentHashMap<Pair, String>();
+
+
+    /**
+     * @param repository where to look up classes
+     */
+    public TypeHierarchy(Repository repository) {
+        this.repository = repository;
+    }
+
+
+    /**
+     * @return the repository classes are looked up in
+     */
+    public Repository getRepository() {
+        return repository;
+    }
+
+
+    /**
+     * Equivalent to runtime "instanceof" operator.
+     *
+     * @param clazz fully qualified class name, e.g. java.lang.String
+     * @param super_class fully qualified name of a class or interface
+     * @return true, if clazz is derived from super_class or the same
+     * @throws ClassNotFoundException if clazz, super_class or any
+     *   superclasses or superinterfaces of clazz can't be found
+     */
+    public boolean instanceOf( String clazz, String super_class ) throws ClassNotFoundException {
+        return getNode(clazz).isSubtypeOf(getNode(super_class));
+    }
+
+
+    /**
+     * @param clazz fully qualified class name, e.g. java.lang.String
+     * @param inter fully qualified interface name, e.g. java.lang.Runnable
+     * @return true, if clazz is an implementation of interface inter
+     * @throws ClassNotFoundException if clazz, inter or any superclasses
+     *   or superinterfaces of clazz can't be found
+     */
+    public boolean implementationOf( String clazz, String inter ) throws ClassNotFoundException {
+        Node node = getNode(inter);
+        if (!node.is_interface) {
+            throw new IllegalArgumentException(inter + " is no interface");
+        }
+        return getNode(clazz).isSubtypeOf(node);
+    }
+
+
+    /**
+     * @return true, if the named class is an interface
+     * @throws ClassNotFoundException if the class can't be found
+     */
+    public boolean isInterface( String clazz ) throws ClassNotFoundException {
+        return getNode(clazz).is_interface;
+    }
+
+
+    /**
+     * @return names of the super classes of clazz in ascending order, i.e.,
+     * java.lang.Object is always the last element
+     * @throws ClassNotFoundException if any of the superclasses can't be found
+     */
+    public String[] getSuperClasses( String clazz ) throws ClassNotFoundException {
+        Node[] superclasses = getNode(clazz).superclasses;
+        String[] names = new String[superclasses.length - 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = superclasses[names.length - 1 - i].name;
+        }
+        return names;
+    }
+
+
+    /**
+     * The first common super class of two classes is the deepest class both
+     * are derived from. The super class of an interface is java.lang.Object,
+     * so for an interface and another type the result is java.lang.Object.
+     * The operation is commutative; its results are memoised.
+     *
+     * @return name of the first common super class of clazz1 and clazz2,
+     * which may be one of them; null if there is none, e.g. for a broken
+     * class without super class
+     * @throws ClassNotFoundException if any superclasses of clazz1 or clazz2
+     *   can't be found
+     */
+    public String getFirstCommonSuperclass( String clazz1, String clazz2 ) throws ClassNotFoundException {
+        Pair key = new Pair(clazz1.replace('/', '.'), clazz2.replace('/', '.'));
+        String common = common_superclasses.get(key);
+        if (common == null) {
+            Node[] superclasses1 = getNode(key.first).superclasses;
+            Node[] superclasses2 = getNode(key.second).superclasses;
+            // Both are ordered by depth, so walk up from the deepest level they share
+            int depth = Math.min(superclasses1.length, superclasses2.length) - 1;
+            while (depth >= 0 && !superclasses1[depth].name.equals(superclasses2[depth].name)) {
+                depth--;
+            }
+            if (depth < 0) {
+                return null;
+            }
+            common = superclasses1[depth].name;
+            common_superclasses.putIfAbsent(key, common);
+        }
+        return common;
+    }
+
+
+    /**
+     * @return names of all interfaces implemented by clazz (transitively),
+     * in alphabetical order
+     * @throws ClassNotFoundException if any superclasses or superinterfaces
+     *   of clazz can't be found
+     */
+    public String[] getAllInterfaces( String clazz ) throws ClassNotFoundException {
+        Set<String> interfaces = new TreeSet<String>(getNode(clazz).interfaces);
+        return interfaces.toArray(new String[interfaces.size()]);
+    }
+
+
+    /**
+     * Forget everything computed so far, e.g., after classes in the
+     * repository have been replaced.
+     */
+    public void clear() {
+        nodes.clear();
+        common_superclasses.clear();
+    }
+
+
+    /**
+     * Forget what was computed for the named class and for the classes
+     * derived from it, e.g., after the class has been replaced in or removed
+     * from the repository. Everything else stays cached.
+     *
+     * @param class_name fully qualified class name, e.g. java.lang.String
+     */
+    public void clear( String class_name ) {
+        class_name = class_name.replace('/', '.');
+        Set<String> removed = new HashSet<String>();
+        for (Node node : nodes.values()) {
+            if (node.dependsOn(class_name) && nodes.remove(node.name, node)) {
+                removed.add(node.name);
+            }
+        }
+        if (!removed.isEmpty()) {
+            for (Pair pair : common_superclasses.keySet()) {
+                if (removed.contains(pair.first) || removed.contains(pair.second)) {
+                    common_superclasses.remove(pair);
+                }
+            }
+        }
+    }
+
+
+    private Node getNode( String class_name ) throws ClassNotFoundException {
+        class_name = class_name.replace('/', '.');
+        Node node = nodes.get(class_name);
+        return (node != null) ? node : createNode(class_name, new HashSet<String>());
+    }
+
+
+    private Node createNode( String class_name, Set<String> visiting ) throws ClassNotFoundException {
+        if (!visiting.add(class_name)) {
+            throw new ClassFormatException("Circular class hierarchy involving " + class_name);
+        }
+        String super_name;
+        String[] interface_names;
+        boolean is_interface;
+        JavaClass clazz = repository.findClass(class_name);
+        ClassPath path = repository.getClassPath();
+        if (clazz == null && path != null) {
+            InputStream is;
+            try {
+                ClassPath.LookupOrder order = (repository instanceof SyntheticRepository)
+                        ? ((SyntheticRepository) repository).getLookupOrder() : path.getLookupOrder();
+                is = path.findInputStream(class_name.replace('.', '/'), ".class", order);
+            } catch (IOException e) {
+                throw new ClassNotFoundException("Exception while looking for class " + class_name
+                        + ": " + e, e);
+            }
+            if (is == null) {
+                throw new ClassNotFoundException("TypeHierarchy could not find " + class_name);
+            }
+            DataInputStream file = new DataInputStream(new BufferedInputStream(is));
+            try {
+                // Class file header, see ClassParser.parse()
+                if (file.readInt() != 0xCAFEBABE) {
+                    throw new ClassFormatException(class_name + " is not a Java .class file");
+                }
+                file.readUnsignedShort(); // minor
+                file.readUnsignedShort(); // major
+                ConstantPool constant_pool = new ConstantPool(file);
+                is_interface = (file.readUnsignedShort() & Constants.ACC_INTERFACE) != 0;
+                file.readUnsignedShort(); // this class
+                int super_index = file.readUnsignedShort();
+                super_name = (super_index == 0) ? null : Utility.compactClassName(
+                        constant_pool.getConstantString(super_index, Constants.CONSTANT_Class), false);
+                interface_names = new String[file.readUnsignedShort()];
+                for (int i = 0; i < interface_names.length; i++) {
+                    interface_names[i] = Utility.compactClassName(
+                            constant_pool.getConstantString(file.readUnsignedShort(), Constants.CONSTANT_Class), false);
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException("Exception while reading class " + class_name
+                        + ": " + e, e);
+            } finally {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                }
+            }
+        } else {
+            if (clazz == null) {
+                clazz = repository.loadClass(class_name);
+            }
+            is_interface = clazz.isInterface();
+            super_name = "java.lang.Object".equals(class_name) ? null : clazz.getSuperclassName();
+            interface_names = clazz.getInterfaceNames();
+        }
+
+        Node superclass = null;
+        if (super_name != null) {
+            superclass = nodes.get(super_name);
+            if (superclass == null) {
+                superclass = createNode(super_name, visiting);
+            }
+        }
+        Node[] super_interfaces = new Node[interface_names.length];
+        for (int i = 0; i < interface_names.length; i++) {
+            Node inter = nodes.get(interface_names[i]);
+            super_interfaces[i] = (inter != null) ? inter : createNode(interface_names[i], visiting);
+        }
+        visiting.remove(class_name);
+
+        Node node = new Node(class_name, is_interface, superclass, super_interfaces);
+        Node previous = nodes.putIfAbsent(class_name, node);
+        return (previous != null) ? previous : node;
+    }
+}
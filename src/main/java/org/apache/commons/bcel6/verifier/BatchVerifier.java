@@ -0,0 +1,419 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.verifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.bcel6.Repository;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.classfile.Method;
+import org.apache.commons.bcel6.util.ClassPath;
+import org.apache.commons.bcel6.util.SyntheticRepository;
+
+/**
+ * Verifies all classes of a jar file, directory or class path with
+ * JustIce. Every class runs through pass 1, 2, 3a and 3b on a pool of
+ * worker threads; the verifiers of referenced classes and the type
+ * hierarchy of the BCEL Repository are shared between the workers.
+ * The results are reported to a {@link Sink} as they become available.
+ *
+ * @version $Id$
+ * @see Verifier
+ * @see TransitiveHull
+ */
+public class BatchVerifier {
+
+    /**
+     * The outcome of one verification pass of a class or of one of its methods.
+     */
+    public static final class Result {
+
+        private final String class_name;
+        private final int method_no;
+        private final String method;
+        private final String pass;
+        private final VerificationResult result;
+
+
+        Result(String class_name, int method_no, String method, String pass, VerificationResult result) {
+            this.class_name = class_name;
+            this.method_no = method_no;
+            this.method = method;
+            this.pass = pass;
+            this.result = result;
+        }
+
+
+        /** @return the fully qualified name of the verified class */
+        public String getClassName() {
+            return class_name;
+        }
+
+
+        /** @return the number of the verified method, or -1 for pass 1 and 2 */
+        public int getMethodNo() {
+            return method_no;
+        }
+
+
+        /** @return the verified method, or null for pass 1 and 2 */
+        public String getMethod() {
+            return method;
+        }
+
+
+        /** @return the pass, one of "1", "2", "3a" and "3b" */
+        public String getPass() {
+            return pass;
+        }
+
+
+        /** @return the result of the pass */
+        public VerificationResult getResult() {
+            return result;
+        }
+
+
+        /** @return whether the pass rejected the class or method */
+        public boolean isRejected() {
+            return result.getStatus() == VerificationResult.VERIFIED_REJECTED;
+        }
+
+
+        /**
+         * @return a single line with the class, method, pass, status
+         * and message, separated by tabs
+         */
+        @Override
+        public String toString() {
+            String status = result.getStatus() == VerificationResult.VERIFIED_OK ? "OK"
+                    : (isRejected() ? "REJECTED" : "NOTYET");
+            return class_name + "\t" + (method == null ? "-" : method) + "\tPass " + pass + "\t"
+                    + status + "\t" + result.getMessage().trim().replace('\n', ' ');
+        }
+    }
+
+    /**
+     * Receives the results of a BatchVerifier. Calls are serialized by
+     * the BatchVerifier, so implementations need not be thread-safe.
+     */
+    public interface Sink {
+
+        void report( Result result );
+    }
+
+    /**
+     * A Sink printing every result on a line of its own.
+     */
+    public static class PrintSink implements Sink {
+
+        private final PrintStream out;
+
+
+        public PrintSink(PrintStream out) {
+            this.out = out;
+        }
+
+
+        public void report( Result result ) {
+            out.println(result);
+        }
+    }
+
+    /** The number of results kept in the cache file by default. */
+    private static final int DEFAULT_CACHE_SIZE = 500000;
+    /** The number of Verifier instances kept by the VerifierFactory by default. */
+    private static final int DEFAULT_REGISTRY_SIZE = 10000;
+
+    private final Sink sink;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean fail_fast = false;
+    private boolean report_all = false;
+    private VerificationResultCache result_cache;
+
+
+    /**
+     * @param sink receives the results of the verification
+     */
+    public BatchVerifier(Sink sink) {
+        this.sink = sink;
+    }
+
+
+    /** @return the number of worker threads */
+    public int getThreads() {
+        return threads;
+    }
+
+
+    /**
+     * @param threads the number of worker threads, by default the number
+     * of available processors
+     */
+    public void setThreads( int threads ) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+
+    /** @return whether verification stops at the first rejected class */
+    public boolean isFailFast() {
+        return fail_fast;
+    }
+
+
+    /**
+     * @param fail_fast if true, no further classes are verified once
+     * a class has been rejected
+     */
+    public void setFailFast( boolean fail_fast ) {
+        this.fail_fast = fail_fast;
+    }
+
+
+    /** @return whether passed and not tried passes are reported, too */
+    public boolean isReportAll() {
+        return report_all;
+    }
+
+
+    /**
+     * @param report_all if true, every pass is reported to the sink;
+     * by default only rejections are
+     */
+    public void setReportAll( boolean report_all ) {
+        this.report_all = report_all;
+    }
+
+
+    /** @return the cache of verification results used, or null */
+    public VerificationResultCache getResultCache() {
+        return result_cache;
+    }
+
+
+    /**
+     * @param result_cache a cache of verification results, used by the
+     * Verifiers of the classes verified; unchanged classes found in there
+     * are not verified again
+     * @see Verifier#setResultCache(VerificationResultCache)
+     */
+    public void setResultCache( VerificationResultCache result_cache ) {
+        this.result_cache = result_cache;
+    }
+
+
+    /**
+     * Verifies all classes found in the given jar files or directories.
+     * Referenced classes are looked up there and in the system class path.
+     * The BCEL Repository is replaced for the duration of the run.
+     *
+     * @param class_path jar files or directories, separated by File.pathSeparator
+     * @return the number of rejected classes
+     */
+    public int verify( String class_path ) throws IOException {
+        ClassPath path = new ClassPath(ClassPath.SYSTEM_CLASS_PATH, class_path);
+        path.buildIndex();
+        org.apache.commons.bcel6.util.Repository old = Repository.getRepository();
+        Repository.setRepository(SyntheticRepository.getInstance(path));
+        try {
+            return verify(path.getClassNames());
+        } finally {
+            Repository.setRepository(old);
+        }
+    }
+
+
+    /**
+     * Verifies the given classes, which are looked up in the BCEL Repository.
+     *
+     * @param class_names fully qualified names of the classes to verify
+     * @return the number of rejected classes
+     */
+    public int verify( Collection<String> class_names ) {
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(class_names.size());
+            for (final String class_name : class_names) {
+                futures.add(executor.submit(new Runnable() {
+
+                    public void run() {
+                        if (stop.get()) {
+                            return;
+                        }
+                        if (!verifyClass(class_name)) {
+                            rejected.incrementAndGet();
+                            if (fail_fast) {
+                                stop.set(true);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return rejected.get();
+    }
+
+
+    /**
+     * Runs all passes over one class.
+     *
+     * @return false if the class was rejected
+     */
+    boolean verifyClass( String class_name ) {
+        Verifier v = VerifierFactory.getVerifier(class_name);
+        v.setResultCache(result_cache);
+        String pass = "1";
+        int method_no = -1;
+        String method = null;
+        try {
+            if (!report(class_name, method_no, method, pass, v.doPass1())) {
+                return false;
+            }
+            pass = "2";
+            if (!report(class_name, method_no, method, pass, v.doPass2())) {
+                return false;
+            }
+            JavaClass jc = Repository.lookupClass(class_name);
+            Method[] methods = jc.getMethods();
+            boolean ok = true;
+            for (method_no = 0; method_no < methods.length; method_no++) {
+                method = methods[method_no].toString();
+                pass = "3a";
+                VerificationResult vr = v.doPass3a(method_no);
+                if (!report(class_name, method_no, method, pass, vr)) {
+                    ok = false;
+                    continue;
+                }
+                pass = "3b";
+                ok &= report(class_name, method_no, method, pass, v.doPass3b(method_no));
+            }
+            return ok;
+        } catch (ClassNotFoundException e) {
+            report(class_name, method_no, method, pass, new VerificationResult(
+                    VerificationResult.VERIFIED_REJECTED, "Could not find class: " + e.getMessage()));
+            return false;
+        } catch (RuntimeException e) {
+            // internal errors of the verifier, e.g. AssertionViolatedException
+            report(class_name, method_no, method, pass, new VerificationResult(
+                    VerificationResult.VERIFIED_REJECTED, "Internal error: " + e));
+            return false;
+        }
+    }
+
+
+    /**
+     * Passes a result to the sink, if it is to be reported.
+     *
+     * @return false if the pass rejected the class or method
+     */
+    private boolean report( String class_name, int method_no, String method, String pass, VerificationResult vr ) {
+        boolean rejected = vr.getStatus() == VerificationResult.VERIFIED_REJECTED;
+        if (rejected || report_all) {
+            Result result = new Result(class_name, method_no, method, pass, vr);
+            synchronized (sink) {
+                sink.report(result);
+            }
+        }
+        return vr.getStatus() == VerificationResult.VERIFIED_OK;
+    }
+
+
+    /**
+     * Verifies all classes of the given jar files or directories and
+     * prints the rejections to standard output.
+     * Usage: BatchVerifier [--threads n] [--fail-fast] [--all] [--cache file [--cache-size n]] [--registry-size n] path...
+     * With --cache, the results are kept in the given file and unchanged
+     * classes are not verified again in later runs. --registry-size bounds
+     * the number of verifiers the VerifierFactory keeps, see
+     * {@link VerifierFactory#setMaximumSize(int)}.
+     * The exit status is 1 if any class was rejected.
+     */
+    public static void main( String[] args ) throws IOException {
+        BatchVerifier verifier = new BatchVerifier(new PrintSink(System.out));
+        StringBuilder class_path = new StringBuilder();
+        File cache_file = null;
+        int cache_size = DEFAULT_CACHE_SIZE;
+        int registry_size = DEFAULT_REGISTRY_SIZE;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                verifier.setThreads(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--fail-fast")) {
+                verifier.setFailFast(true);
+            } else if (args[i].equals("--all")) {
+                verifier.setReportAll(true);
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cache_file = new File(args[++i]);
+            } else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+                cache_size = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--registry-size") && i + 1 < args.length) {
+                registry_size = Integer.parseInt(args[++i]);
+            } else {
+                if (class_path.length() > 0) {
+                    class_path.append(File.pathSeparatorChar);
+                }
+                class_path.append(args[i]);
+            }
+        }
+        if (class_path.length() == 0) {
+            System.out.println("Usage: BatchVerifier [--threads n] [--fail-fast] [--all] [--cache file [--cache-size n]] [--registry-size n] path...");
+            System.exit(2);
+        }
+        VerifierFactory.setMaximumSize(registry_size);
+        if (cache_file != null) {
+            verifier.setResultCache(new VerificationResultCache(cache_size, cache_file));
+        }
+        int rejected = verifier.verify(class_path.toString());
+        if (cache_file != null) {
+            verifier.getResultCache().save();
+        }
+        System.out.println(rejected + " class(es) rejected.");
+        System.exit(rejected == 0 ? 0 : 1);
+    }
+}
@@ -62,11 +62,13 @@ public abstract class PassVerifier {
      * then this result may be returned after every invocation of this
      * method instead of running the verification pass anew; likewise with
      * the result of getMessages().
+     * Concurrent invocations run the pass only once; the other callers
+     * wait for its result.
      *
      * @see #getMessages()
      * @see #addMessage(String)
      */
-    public VerificationResult verify() {
+    public synchronized VerificationResult verify() {
         if (verificationResult == null) {
             verificationResult = do_verify();
         }
@@ -86,7 +88,7 @@ public abstract class PassVerifier {
      *
      * @see #getMessages()
      */
-    public void addMessage( String message ) {
+    public synchronized void addMessage( String message ) {
         messages.add(message);
     }
 
@@ -98,7 +100,7 @@ public abstract class PassVerifier {
      * @see #addMessage(String)
      * @see #do_verify()
      */
-    public String[] getMessages() {
+    public synchronized String[] getMessages() {
         verify(); // create messages if not already done (cached!)
         return messages.toArray(new String[messages.size()]);
     }
@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.verifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.bcel6.Repository;
+import org.apache.commons.bcel6.classfile.ClassFormatException;
+import org.apache.commons.bcel6.classfile.Constant;
+import org.apache.commons.bcel6.classfile.ConstantClass;
+import org.apache.commons.bcel6.classfile.ConstantNameAndType;
+import org.apache.commons.bcel6.classfile.ConstantPool;
+import org.apache.commons.bcel6.classfile.FieldOrMethod;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.generic.ArrayType;
+import org.apache.commons.bcel6.generic.ObjectType;
+import org.apache.commons.bcel6.generic.Type;
+import org.apache.commons.bcel6.verifier.exc.AssertionViolatedException;
+
+/**
+ * A cache of VerificationResults that lets a Verifier skip passes it has
+ * already run over an unchanged class, possibly in an earlier run of the
+ * program when the cache is kept in a file.
+ * <p>
+ * The results are keyed by a digest of the class file and of the headers
+ * of all classes it references and of their supertypes, see
+ * {@link #keyOf(String)}. A header consists of the access flags, names and
+ * supertypes of a class and of the access flags, names and signatures of its
+ * fields and methods; that is everything of another class the verification
+ * of a class depends on. So a changed class, a changed referenced class or
+ * a changed hierarchy leads to a different key, and the results stored for
+ * the old key are no longer used. They are evicted eventually as the cache
+ * holds at most a fixed number of results, dropping the least recently
+ * used ones first.
+ * <p>
+ * Results of passes that were not run (VR_NOTYET) are not cached, and
+ * neither are the warning messages of the passes: a Verifier answering
+ * from the cache has no messages for the cached passes.
+ * A VerificationResultCache may be shared by several threads and Verifiers.
+ *
+ * @version $Id$
+ * @see Verifier#setResultCache(VerificationResultCache)
+ */
+public class VerificationResultCache {
+
+    /** Identifies the cache files, followed by the format version. */
+    private static final int MAGIC = 0x4A494345; // "JICE"
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int max_entries;
+    private final File file;
+    private final Map<String, VerificationResult> results;
+
+
+    /**
+     * Creates a cache held in memory only.
+     *
+     * @param max_entries the maximum number of results held
+     */
+    public VerificationResultCache(int max_entries) {
+        this.max_entries = checkMaxEntries(max_entries);
+        this.file = null;
+        this.results = newResultMap(max_entries);
+    }
+
+
+    /**
+     * Creates a cache kept in the given file. The results stored there
+     * are read now, {@link #save()} writes the cache back. A file that
+     * is not a cache file of this format is ignored and overwritten
+     * by save().
+     *
+     * @param max_entries the maximum number of results held, in memory
+     * and in the file
+     * @param file the cache file, which need not exist yet
+     * @throws IOException if the file exists but cannot be read
+     */
+    public VerificationResultCache(int max_entries, File file) throws IOException {
+        this.max_entries = checkMaxEntries(max_entries);
+        this.file = file;
+        this.results = newResultMap(max_entries);
+        if (file.isFile()) {
+            load();
+        }
+    }
+
+
+    private static int checkMaxEntries( int max_entries ) {
+        if (max_entries < 1) {
+            throw new IllegalArgumentException("Need room for at least one result: " + max_entries);
+        }
+        return max_entries;
+    }
+
+
+    /** Creates a map in access order that drops its eldest entry when full. */
+    private static Map<String, VerificationResult> newResultMap( final int max_entries ) {
+        return new LinkedHashMap<String, VerificationResult>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, VerificationResult> eldest ) {
+                return size() > max_entries;
+            }
+        };
+    }
+
+
+    /** @return the maximum number of results held */
+    public int getMaxEntries() {
+        return max_entries;
+    }
+
+
+    /** @return the cache file, or null if the cache is held in memory only */
+    public File getFile() {
+        return file;
+    }
+
+
+    /** @return the number of results held */
+    public synchronized int size() {
+        return results.size();
+    }
+
+
+    /** Removes all results. */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+
+    /**
+     * Returns the result stored for a pass.
+     *
+     * @param key the key of the class, see {@link #keyOf(String)}
+     * @param pass identifies the pass and method, e.g. "3b 4"
+     * @return the result, or null if none is stored
+     */
+    public synchronized VerificationResult get( String key, String pass ) {
+        return results.get(key + ' ' + pass);
+    }
+
+
+    /**
+     * Stores the result of a pass. Results with the status
+     * VERIFIED_NOTYET are not stored.
+     *
+     * @param key the key of the class, see {@link #keyOf(String)}
+     * @param pass identifies the pass and method, e.g. "3b 4"
+     */
+    public synchronized void put( String key, String pass, VerificationResult vr ) {
+        if (vr.getStatus() != VerificationResult.VERIFIED_NOTYET) {
+            results.put(key + ' ' + pass, canonical(vr));
+        }
+    }
+
+
+    /** Returns the shared VR_OK instance for passed results, as some callers compare by identity. */
+    private static VerificationResult canonical( VerificationResult vr ) {
+        return vr.equals(VerificationResult.VR_OK) ? VerificationResult.VR_OK : vr;
+    }
+
+
+    /**
+     * Computes the key of a class, which is looked up in the BCEL Repository.
+     * The key is the class name and a digest of the class file and of the headers
+     * of the classes named in its constant pool and its field and method signatures,
+     * together with the headers of all their supertypes. Classes that cannot be
+     * found enter the digest as missing.
+     *
+     * @param class_name the fully qualified name of the class
+     * @return the key of the class
+     * @throws ClassNotFoundException if the class itself cannot be found
+     */
+    public static String keyOf( String class_name ) throws ClassNotFoundException {
+        JavaClass jc = Repository.lookupClass(class_name);
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionViolatedException("SHA-256 is not supported: " + e, e);
+        }
+        md.update(jc.getBytes());
+        Set<String> referenced = new TreeSet<String>();
+        referenced.add(jc.getClassName());
+        ConstantPool cp = jc.getConstantPool();
+        for (int i = 1; i < cp.getLength(); i++) {
+            Constant c = cp.getConstant(i);
+            try {
+                if (c instanceof ConstantClass) {
+                    String name = (String) ((ConstantClass) c).getConstantValue(cp);
+                    if (name.startsWith("[")) {
+                        addReferenced(Type.getType(name), referenced);
+                    } else {
+                        referenced.add(name.replace('/', '.'));
+                    }
+                } else if (c instanceof ConstantNameAndType) {
+                    addSignature(((ConstantNameAndType) c).getSignature(cp), referenced);
+                }
+            } catch (ClassFormatException e) {
+                // a malformed entry; rejected by pass 2, and part of the class file digest anyway
+            }
+        }
+        List<FieldOrMethod> members = new ArrayList<FieldOrMethod>();
+        members.addAll(Arrays.asList(jc.getFields()));
+        members.addAll(Arrays.asList(jc.getMethods()));
+        for (FieldOrMethod member : members) {
+            try {
+                addSignature(member.getSignature(), referenced);
+            } catch (ClassFormatException e) {
+                // as above
+            }
+        }
+        Set<String> done = new TreeSet<String>();
+        for (String name : referenced) {
+            addHeaders(name, md, done);
+        }
+        byte[] digest = md.digest();
+        StringBuilder key = new StringBuilder(class_name.length() + 1 + 2 * digest.length);
+        key.append(class_name).append(' ');
+        for (byte b : digest) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16));
+            key.append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+
+    /** Adds the class names of the types in a field or method signature. */
+    private static void addSignature( String signature, Set<String> referenced ) {
+        if (signature.startsWith("(")) {
+            for (Type t : Type.getArgumentTypes(signature)) {
+                addReferenced(t, referenced);
+            }
+            addReferenced(Type.getReturnType(signature), referenced);
+        } else {
+            addReferenced(Type.getType(signature), referenced);
+        }
+    }
+
+
+    private static void addReferenced( Type t, Set<String> referenced ) {
+        if (t instanceof ArrayType) {
+            t = ((ArrayType) t).getBasicType();
+        }
+        if (t instanceof ObjectType) {
+            referenced.add(((ObjectType) t).getClassName());
+        }
+    }
+
+
+    /**
+     * Adds the header of the named class and those of its supertypes to
+     * the digest, skipping the classes already done.
+     */
+    private static void addHeaders( String name, MessageDigest md, Set<String> done ) {
+        List<String> todo = new ArrayList<String>();
+        todo.add(name);
+        while (!todo.isEmpty()) {
+            String current = todo.remove(todo.size() - 1);
+            if (!done.add(current)) {
+                continue;
+            }
+            JavaClass jc;
+            try {
+                jc = Repository.lookupClass(current);
+            } catch (ClassNotFoundException e) {
+                update(md, "missing " + current);
+                continue;
+            }
+            update(md, "class " + jc.getAccessFlags() + ' ' + jc.getClassName() + ' ' + jc.getSuperclassName());
+            for (String interface_name : jc.getInterfaceNames()) {
+                update(md, "implements " + interface_name);
+                todo.add(interface_name);
+            }
+            for (FieldOrMethod field : jc.getFields()) {
+                update(md, "field " + field.getAccessFlags() + ' ' + field.getName() + ' ' + field.getSignature());
+            }
+            for (FieldOrMethod method : jc.getMethods()) {
+                update(md, "method " + method.getAccessFlags() + ' ' + method.getName() + ' ' + method.getSignature());
+            }
+            todo.add(jc.getSuperclassName());
+        }
+    }
+
+
+    private static void update( MessageDigest md, String s ) {
+        md.update(s.getBytes(UTF8));
+        md.update((byte) 0);
+    }
+
+
+    /**
+     * Writes the results to the cache file, least recently used first.
+     *
+     * @throws IOException if the file cannot be written
+     * @throws IllegalStateException if the cache is held in memory only
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("The cache is held in memory only.");
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(results.size());
+            for (Map.Entry<String, VerificationResult> entry : results.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeByte(entry.getValue().getStatus());
+                writeString(out, entry.getValue().getMessage());
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file + " by " + tmp);
+            }
+        }
+    }
+
+
+    /** Reads the results from the cache file, unless it is not a cache file. */
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                int status = in.readByte();
+                String message = readString(in);
+                results.put(key, canonical(new VerificationResult(status, message)));
+            }
+        } catch (EOFException e) {
+            // a truncated file; keep what could be read
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /** Writes a string of any length; writeUTF() is limited to 64K. */
+    private static void writeString( DataOutputStream out, String s ) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString( DataInputStream in ) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt cache file, string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -18,11 +18,17 @@
 package org.apache.commons.bcel6.verifier;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+import org.apache.commons.bcel6.Repository;
 import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.verifier.exc.AssertionViolatedException;
 import org.apache.commons.bcel6.verifier.statics.Pass1Verifier;
 import org.apache.commons.bcel6.verifier.statics.Pass2Verifier;
 import org.apache.commons.bcel6.verifier.statics.Pass3aVerifier;
@@ -38,68 +44,279 @@ import org.apache.commons.bcel6.verifier.structurals.Pass3bVerifier;
  *
  * A Verifier creates PassVerifier instances to perform the actual verification.
  * Verifier instances are usually generated by the VerifierFactory.
+ * A Verifier may be used by several threads at once; different methods
+ * of a class may be verified concurrently, see {@link #verifyAllMethods(Executor)}.
  *
  * @version $Id$
  * @see org.apache.commons.bcel6.verifier.VerifierFactory
  * @see org.apache.commons.bcel6.verifier.PassVerifier
  */
-public class Verifier {
+public class Verifier implements AutoCloseable {
 
     /**
      * The name of the class this verifier operates on.
      */
     private final String classname;
     /** A Pass1Verifier for this Verifier instance. */
-    private Pass1Verifier p1v;
+    private volatile Pass1Verifier p1v;
     /** A Pass2Verifier for this Verifier instance. */
-    private Pass2Verifier p2v;
-    /** The Pass3aVerifiers for this Verifier instance. Key: Interned string specifying the method number. */
-    private final Map<String, Pass3aVerifier> p3avs = new HashMap<String, Pass3aVerifier>();
-    /** The Pass3bVerifiers for this Verifier instance. Key: Interned string specifying the method number. */
-    private final Map<String, Pass3bVerifier> p3bvs = new HashMap<String, Pass3bVerifier>();
+    private volatile Pass2Verifier p2v;
+    /** The Pass3aVerifiers for this Verifier instance. Key: The method number. */
+    private final ConcurrentMap<Integer, Pass3aVerifier> p3avs = new ConcurrentSkipListMap<Integer, Pass3aVerifier>();
+    /** The Pass3bVerifiers for this Verifier instance. Key: The method number. */
+    private final ConcurrentMap<Integer, Pass3bVerifier> p3bvs = new ConcurrentSkipListMap<Integer, Pass3bVerifier>();
+
+
+    /** Whether pass 3b type checks methods against their StackMapTable. */
+    private volatile boolean typeChecking = true;
+
+    /** The cache of results of earlier verifications, or null. */
+    private volatile VerificationResultCache resultCache;
+    /** The key of the class in the resultCache; computed on first use. */
+    private volatile String cacheKey;
+
+    /** The class put into the Repository for this Verifier, or null. */
+    private JavaClass addedClass;
+    /** The class of the same name addedClass replaced in the Repository, or null. */
+    private JavaClass replacedClass;
+
+
+    /**
+     * Returns whether pass 3b verifies methods of class files of version 50 and later
+     * by type checking against their StackMapTable attributes (the default), instead
+     * of inferring the types.
+     */
+    public boolean isTypeChecking() {
+        return typeChecking;
+    }
+
+
+    /**
+     * Sets whether pass 3b verifies methods of class files of version 50 and later
+     * by type checking against their StackMapTable attributes. Results of pass 3b
+     * obtained in the other mode are discarded.
+     */
+    public void setTypeChecking( boolean typeChecking ) {
+        if (typeChecking != this.typeChecking) {
+            this.typeChecking = typeChecking;
+            p3bvs.clear();
+        }
+    }
+
+
+    /** Returns the cache of verification results used, or null if there is none. */
+    public VerificationResultCache getResultCache() {
+        return resultCache;
+    }
+
+
+    /**
+     * Sets a cache of verification results. The do* methods return the result
+     * stored there for an unchanged class instead of running the pass, and store
+     * the results of the passes they run. There are no messages for passes
+     * answered from the cache.
+     *
+     * @param resultCache the cache, or null to always run the passes
+     * @see VerificationResultCache
+     */
+    public void setResultCache( VerificationResultCache resultCache ) {
+        this.resultCache = resultCache;
+    }
+
+
+    /**
+     * Returns the result of the given pass stored in the result cache,
+     * or null if there is none.
+     */
+    private VerificationResult cached( String pass ) {
+        VerificationResultCache cache = resultCache;
+        if (cache == null) {
+            return null;
+        }
+        String key = getCacheKey();
+        return (key == null) ? null : cache.get(key, pass);
+    }
+
+
+    /**
+     * Stores the result of the given pass in the result cache, if there is one.
+     *
+     * @return vr
+     */
+    private VerificationResult cache( String pass, VerificationResult vr ) {
+        VerificationResultCache cache = resultCache;
+        if (cache != null) {
+            String key = getCacheKey();
+            if (key != null) {
+                cache.put(key, pass, vr);
+            }
+        }
+        return vr;
+    }
+
+
+    /** Returns the key of the class in the result cache, or null if the class cannot be found. */
+    private String getCacheKey() {
+        String key = cacheKey;
+        if (key == null) {
+            try {
+                key = VerificationResultCache.keyOf(classname);
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+            cacheKey = key;
+        }
+        return key;
+    }
 
 
     /** Returns the VerificationResult for the given pass. */
     public VerificationResult doPass1() {
-        if (p1v == null) {
-            p1v = new Pass1Verifier(this);
+        VerificationResult vr = cached("1");
+        if (vr != null) {
+            return vr;
+        }
+        Pass1Verifier v;
+        synchronized (this) {
+            if (p1v == null) {
+                p1v = new Pass1Verifier(this);
+            }
+            v = p1v;
         }
-        return p1v.verify();
+        return cache("1", v.verify());
     }
 
 
     /** Returns the VerificationResult for the given pass. */
     public VerificationResult doPass2() {
-        if (p2v == null) {
-            p2v = new Pass2Verifier(this);
+        VerificationResult vr = cached("2");
+        if (vr != null) {
+            return vr;
+        }
+        Pass2Verifier v;
+        synchronized (this) {
+            if (p2v == null) {
+                p2v = new Pass2Verifier(this);
+            }
+            v = p2v;
         }
-        return p2v.verify();
+        return cache("2", v.verify());
     }
 
 
     /** Returns the VerificationResult for the given pass. */
     public VerificationResult doPass3a( int method_no ) {
-        String key = Integer.toString(method_no);
-        Pass3aVerifier p3av;
-        p3av = p3avs.get(key);
-        if (p3avs.get(key) == null) {
+        String pass = "3a " + method_no;
+        VerificationResult vr = cached(pass);
+        if (vr != null) {
+            return vr;
+        }
+        Integer key = Integer.valueOf(method_no);
+        Pass3aVerifier p3av = p3avs.get(key);
+        if (p3av == null) {
             p3av = new Pass3aVerifier(this, method_no);
-            p3avs.put(key, p3av);
+            Pass3aVerifier existing = p3avs.putIfAbsent(key, p3av);
+            if (existing != null) {
+                p3av = existing;
+            }
         }
-        return p3av.verify();
+        return cache(pass, p3av.verify());
     }
 
 
     /** Returns the VerificationResult for the given pass. */
     public VerificationResult doPass3b( int method_no ) {
-        String key = Integer.toString(method_no);
-        Pass3bVerifier p3bv;
-        p3bv = p3bvs.get(key);
-        if (p3bvs.get(key) == null) {
-            p3bv = new Pass3bVerifier(this, method_no);
-            p3bvs.put(key, p3bv);
+        // type checking and type inference may come to different results
+        String pass = (typeChecking ? "3b " : "3b-inference ") + method_no;
+        VerificationResult vr = cached(pass);
+        if (vr != null) {
+            return vr;
+        }
+        Integer key = Integer.valueOf(method_no);
+        Pass3bVerifier p3bv = p3bvs.get(key);
+        while (p3bv == null || p3bv.isTypeChecking() != typeChecking) {
+            // None yet, or one left from the other mode
+            Pass3bVerifier created = new Pass3bVerifier(this, method_no);
+            boolean stored = (p3bv == null) ? p3bvs.putIfAbsent(key, created) == null
+                    : p3bvs.replace(key, p3bv, created);
+            p3bv = stored ? created : p3bvs.get(key);
         }
-        return p3bv.verify();
+        // key the result by the mode it is computed in, which the verifier recorded
+        pass = (p3bv.isTypeChecking() ? "3b " : "3b-inference ") + method_no;
+        return cache(pass, p3bv.verify());
+    }
+
+
+    /**
+     * Verifies all methods of the class, running pass 3a and pass 3b
+     * of the individual methods as tasks of the given Executor.
+     * Passes 1 and 2 are run in the calling thread first; if pass 2
+     * does not succeed there is nothing to verify per method and an
+     * empty array is returned.
+     * If the calling thread is interrupted while waiting, the pending
+     * methods are cancelled and reported as VR_NOTYET.
+     *
+     * @param executor the Executor running the per-method tasks; null
+     * runs them in the calling thread
+     * @return the result of pass 3b for every method, or the result of
+     * pass 3a where that one did not succeed, in method order
+     * @throws ClassNotFoundException if the class cannot be loaded
+     */
+    public VerificationResult[] verifyAllMethods( Executor executor ) throws ClassNotFoundException {
+        if (!doPass2().equals(VerificationResult.VR_OK)) {
+            return new VerificationResult[0];
+        }
+        JavaClass jc = org.apache.commons.bcel6.Repository.lookupClass(classname);
+        int methods = jc.getMethods().length;
+        List<FutureTask<VerificationResult>> tasks = new ArrayList<FutureTask<VerificationResult>>(methods);
+        for (int i = 0; i < methods; i++) {
+            final int method_no = i;
+            FutureTask<VerificationResult> task = new FutureTask<VerificationResult>(new Callable<VerificationResult>() {
+
+                @Override
+                public VerificationResult call() {
+                    VerificationResult vr = doPass3a(method_no);
+                    if (!vr.equals(VerificationResult.VR_OK)) {
+                        return vr;
+                    }
+                    return doPass3b(method_no);
+                }
+            });
+            tasks.add(task);
+            if (executor == null) {
+                task.run();
+            } else {
+                executor.execute(task);
+            }
+        }
+        VerificationResult[] results = new VerificationResult[methods];
+        boolean interrupted = false;
+        for (int i = 0; i < methods; i++) {
+            FutureTask<VerificationResult> task = tasks.get(i);
+            if (interrupted) {
+                task.cancel(false);
+                results[i] = VerificationResult.VR_NOTYET;
+                continue;
+            }
+            try {
+                results[i] = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+                task.cancel(false);
+                results[i] = VerificationResult.VR_NOTYET;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new AssertionViolatedException("Verification of method " + i + " of '" + classname + "' failed: " + cause, cause);
+            }
+        }
+        return results;
     }
 
 
@@ -132,11 +349,49 @@ public class Verifier {
      * BCEL's repository.
      *
      */
-    public void flush() {
+    public synchronized void flush() {
         p1v = null;
         p2v = null;
         p3avs.clear();
         p3bvs.clear();
+        cacheKey = null;
+    }
+
+
+    /**
+     * Puts the given class into the BCEL Repository until close() is called.
+     *
+     * @see VerifierFactory#createVerifier(JavaClass)
+     */
+    synchronized void addToRepository( JavaClass clazz ) {
+        JavaClass previous = Repository.addClass(clazz);
+        if (previous != clazz) {
+            addedClass = clazz;
+            replacedClass = previous;
+        }
+    }
+
+
+    /**
+     * Forgets everything known about the class file, like flush(). For a
+     * Verifier created by VerifierFactory.createVerifier(JavaClass), the
+     * class is also taken out of the BCEL Repository again, and the class
+     * of the same name that was there before is put back, unless the entry
+     * has been replaced in the meantime.
+     */
+    public synchronized void close() {
+        flush();
+        if (addedClass != null) {
+            if (Repository.getRepository().findClass(classname) == addedClass) {
+                if (replacedClass != null) {
+                    Repository.addClass(replacedClass);
+                } else {
+                    Repository.removeClass(addedClass);
+                }
+            }
+            addedClass = null;
+            replacedClass = null;
+        }
     }
 
 
@@ -146,6 +401,8 @@ public class Verifier {
      */
     public String[] getMessages() throws ClassNotFoundException {
         List<String> messages = new ArrayList<String>();
+        Pass1Verifier p1v = this.p1v;
+        Pass2Verifier p2v = this.p2v;
         if (p1v != null) {
             String[] p1m = p1v.getMessages();
             for (String element : p1m) {
@@ -163,7 +420,7 @@ public class Verifier {
             int meth = pv.getMethodNo();
             for (String element : p3am) {
                 messages.add("Pass 3a, method " + meth + " ('"
-                        + org.apache.commons.bcel6.Repository.lookupClass(classname).getMethods()[meth]
+                        + Repository.lookupClass(classname).getMethods()[meth]
                         + "'): " + element);
             }
         }
@@ -172,7 +429,7 @@ public class Verifier {
             int meth = pv.getMethodNo();
             for (String element : p3bm) {
                 messages.add("Pass 3b, method " + meth + " ('"
-                        + org.apache.commons.bcel6.Repository.lookupClass(classname).getMethods()[meth]
+                        + Repository.lookupClass(classname).getMethods()[meth]
                         + "'): " + element);
             }
         }
@@ -17,16 +17,25 @@
  */
 package org.apache.commons.bcel6.verifier;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.bcel6.classfile.JavaClass;
 
 /**
  * This class produces instances of the Verifier class. Its purpose is to make
  * sure that they are singleton instances with respect to the class name they
  * operate on. That means, for every class (represented by a unique fully qualified
  * class name) there is exactly one Verifier.
+ * <p>
+ * By default every Verifier created is kept. Long-running applications should
+ * bound the registry with {@link #setMaximumSize(int)}; the least recently used
+ * verifiers are then dropped together with their results. A dropped Verifier
+ * still works for whoever holds it, and the next getVerifier() call for its
+ * class creates a new one, which verifies the class again.
  *
  * @version $Id$
  * @see org.apache.commons.bcel6.verifier.Verifier
@@ -34,13 +43,27 @@ import java.util.Vector;
 public class VerifierFactory {
 
     /**
-     * The HashMap that holds the data about the already-constructed Verifier instances.
+     * The map that holds the data about the already-constructed Verifier instances,
+     * in access order. All accesses are synchronized on the map.
      */
-    private static final Map<String, Verifier> hashMap = new HashMap<String, Verifier>();
+    private static final Map<String, Verifier> hashMap = new LinkedHashMap<String, Verifier>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Verifier> eldest ) {
+            return size() > maximumSize;
+        }
+    };
+    /**
+     * The maximum number of Verifier instances kept in the hashMap. Guarded by the hashMap.
+     */
+    private static int maximumSize = Integer.MAX_VALUE;
     /**
      * The VerifierFactoryObserver instances that observe the VerifierFactory.
      */
-    private static final List<VerifierFactoryObserver> observers = new Vector<VerifierFactoryObserver>();
+    private static final List<VerifierFactoryObserver> observers = new CopyOnWriteArrayList<VerifierFactoryObserver>();
 
 
     /**
@@ -56,12 +79,44 @@ public class VerifierFactory {
      * @return the (only) verifier responsible for the class with the given name.
      */
     public static Verifier getVerifier( String fully_qualified_classname ) {
-        Verifier v = hashMap.get(fully_qualified_classname);
-        if (v == null) {
+        Verifier v;
+        synchronized (hashMap) {
+            v = hashMap.get(fully_qualified_classname);
+            if (v != null) {
+                return v;
+            }
             v = new Verifier(fully_qualified_classname);
             hashMap.put(fully_qualified_classname, v);
-            notify(fully_qualified_classname);
         }
+        notify(fully_qualified_classname);
+        return v;
+    }
+
+
+    /**
+     * Returns a new Verifier for the class with the given name that is not
+     * registered with the VerifierFactory. It is not returned by getVerifier()
+     * or getVerifiers() and the observers are not notified, so it becomes
+     * garbage together with its results as soon as the caller drops it.
+     * The verifiers of classes it refers to are still obtained by getVerifier().
+     */
+    public static Verifier createVerifier( String fully_qualified_classname ) {
+        return new Verifier(fully_qualified_classname);
+    }
+
+
+    /**
+     * Returns a new, unregistered Verifier for the given class, see
+     * {@link #createVerifier(String)}. As the verification passes look the
+     * class up by name, it is put into the BCEL Repository until the
+     * Verifier is closed; then the class of the same name that was there
+     * before, if any, is put back.
+     *
+     * @see Verifier#close()
+     */
+    public static Verifier createVerifier( JavaClass clazz ) {
+        Verifier v = new Verifier(clazz.getClassName());
+        v.addToRepository(clazz);
         return v;
     }
 
@@ -85,8 +140,66 @@ public class VerifierFactory {
      * referenced class files.
      */
     public static Verifier[] getVerifiers() {
-        Verifier[] vs = new Verifier[hashMap.values().size()];
-        return hashMap.values().toArray(vs); // Because vs is big enough, vs is used to store the values into and returned!
+        synchronized (hashMap) {
+            return hashMap.values().toArray(new Verifier[hashMap.size()]);
+        }
+    }
+
+
+    /**
+     * Drops the Verifier for the class with the given name, if there is one.
+     * The next getVerifier() call for the class creates a new Verifier.
+     *
+     * @return true if a Verifier was dropped
+     */
+    public static boolean remove( String fully_qualified_classname ) {
+        synchronized (hashMap) {
+            return hashMap.remove(fully_qualified_classname) != null;
+        }
+    }
+
+
+    /**
+     * Drops all Verifier instances.
+     */
+    public static void clear() {
+        synchronized (hashMap) {
+            hashMap.clear();
+        }
+    }
+
+
+    /**
+     * Returns the maximum number of Verifier instances kept,
+     * Integer.MAX_VALUE (the default) if there is no limit.
+     */
+    public static int getMaximumSize() {
+        synchronized (hashMap) {
+            return maximumSize;
+        }
+    }
+
+
+    /**
+     * Limits the number of Verifier instances kept. When a new Verifier would
+     * exceed the limit, the least recently used one is dropped. Lowering the
+     * limit drops the least recently used verifiers at once.
+     *
+     * @param maximumSize the maximum number of verifiers, at least 1;
+     * Integer.MAX_VALUE for no limit
+     */
+    public static void setMaximumSize( int maximumSize ) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        synchronized (hashMap) {
+            VerifierFactory.maximumSize = maximumSize;
+            Iterator<String> it = hashMap.keySet().iterator();
+            while (hashMap.size() > maximumSize) {
+                it.next();
+                it.remove();
+            }
+        }
     }
 
 
@@ -20,19 +20,15 @@ package org.apache.commons.bcel6.verifier.structurals;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.bcel6.generic.ATHROW;
-import org.apache.commons.bcel6.generic.BranchInstruction;
-import org.apache.commons.bcel6.generic.GotoInstruction;
+import org.apache.commons.bcel6.generic.ClassGenException;
+import org.apache.commons.bcel6.generic.FlowGraph;
 import org.apache.commons.bcel6.generic.Instruction;
 import org.apache.commons.bcel6.generic.InstructionHandle;
 import org.apache.commons.bcel6.generic.JsrInstruction;
 import org.apache.commons.bcel6.generic.MethodGen;
 import org.apache.commons.bcel6.generic.RET;
-import org.apache.commons.bcel6.generic.ReturnInstruction;
-import org.apache.commons.bcel6.generic.Select;
 import org.apache.commons.bcel6.verifier.exc.AssertionViolatedException;
 import org.apache.commons.bcel6.verifier.exc.StructuralCodeConstraintException;
 
@@ -46,6 +42,9 @@ public class ControlFlowGraph{
     /**
      * Objects of this class represent a node in a ControlFlowGraph.
      * These nodes are instructions, not basic blocks.
+     * The frames are kept by the last-executed JSR; as most instructions
+     * are not part of a subroutine, the frames for the top level are kept
+     * in fields and the maps are only created when needed.
      */
     private class InstructionContextImpl implements InstructionContext{
 
@@ -64,33 +63,116 @@ public class ControlFlowGraph{
         private final InstructionHandle instruction;
 
         /**
-         * The 'incoming' execution Frames.
+         * The index of the instruction in the FlowGraph.
          */
-        private final Map<InstructionContext, Frame> inFrames;    // key: the last-executed JSR
+        private final int index;
 
         /**
-         * The 'outgoing' execution Frames.
+         * The 'incoming' execution Frame at the top level.
          */
-        private final Map<InstructionContext, Frame> outFrames; // key: the last-executed JSR 
+        private Frame inFrame;
+
+        /**
+         * The 'outgoing' execution Frame at the top level.
+         */
+        private Frame outFrame;
+
+        /**
+         * The 'incoming' execution Frames in subroutines, or null.
+         */
+        private Map<InstructionContext, Frame> inFrames;    // key: the last-executed JSR
+
+        /**
+         * The 'outgoing' execution Frames in subroutines, or null.
+         */
+        private Map<InstructionContext, Frame> outFrames; // key: the last-executed JSR 
+
+        /**
+         * The successors, computed on first request.
+         */
+        private InstructionContext[] successors;
 
         /**
          * The 'execution predecessors' - a list of type InstructionContext 
          * of those instances that have been execute()d before in that order.
          */
-        private List<InstructionContext> executionPredecessors = null; // Type: InstructionContext
+        private ExecutionChain executionPredecessors = null;
 
         /**
          * Creates an InstructionHandleImpl object from an InstructionHandle.
          * Creation of one per InstructionHandle suffices. Don't create more.
          */
-        public InstructionContextImpl(InstructionHandle inst){
+        public InstructionContextImpl(InstructionHandle inst, int index){
             if (inst == null) {
                 throw new AssertionViolatedException("Cannot instantiate InstructionContextImpl from NULL.");
             }
 
             instruction = inst;
-            inFrames = new HashMap<InstructionContext, Frame>();
-            outFrames = new HashMap<InstructionContext, Frame>();
+            this.index = index;
+        }
+
+        /**
+         * Returns the 'incoming' execution Frame for the given last-executed JSR, or null.
+         */
+        private Frame getInFrame(InstructionContext jsr){
+            if (jsr == null){
+                return inFrame;
+            }
+            return (inFrames == null) ? null : inFrames.get(jsr);
+        }
+
+        /**
+         * Sets the 'incoming' execution Frame for the given last-executed JSR.
+         */
+        private void putInFrame(InstructionContext jsr, Frame frame){
+            if (jsr == null){
+                inFrame = frame;
+            }
+            else{
+                if (inFrames == null){
+                    inFrames = new HashMap<InstructionContext, Frame>();
+                }
+                inFrames.put(jsr, frame);
+            }
+        }
+
+        /**
+         * Returns the 'outgoing' execution Frame for the given last-executed JSR, or null.
+         */
+        private Frame getOutFrame(InstructionContext jsr){
+            if (jsr == null){
+                return outFrame;
+            }
+            return (outFrames == null) ? null : outFrames.get(jsr);
+        }
+
+        /**
+         * Sets the 'outgoing' execution Frame for the given last-executed JSR.
+         */
+        private void putOutFrame(InstructionContext jsr, Frame frame){
+            if (jsr == null){
+                outFrame = frame;
+            }
+            else{
+                if (outFrames == null){
+                    outFrames = new HashMap<InstructionContext, Frame>();
+                }
+                outFrames.put(jsr, frame);
+            }
+        }
+
+        /**
+         * Returns a String representation of the frames, for error messages.
+         */
+        private String framesToString(Frame top, Map<InstructionContext, Frame> frames){
+            Map<InstructionContext, Frame> all = new HashMap<InstructionContext, Frame>();
+            if (top != null){
+                all.put(null, top);
+            }
+            if (frames != null){
+                all.putAll(frames);
+            }
+            return all.toString();
         }
 
         /* Satisfies InstructionContext.getTag(). */
@@ -114,16 +196,23 @@ public class ControlFlowGraph{
          * Returns a clone of the "outgoing" frame situation with respect to the given ExecutionChain.
          */    
         public Frame getOutFrame(ArrayList<InstructionContext> execChain){
+            return getOutFrame(ExecutionChain.of(execChain));
+        }
+
+        /**
+         * Returns a clone of the "outgoing" frame situation with respect to the given ExecutionChain.
+         */
+        public Frame getOutFrame(ExecutionChain execChain){
             executionPredecessors = execChain;
 
             Frame org;
 
             InstructionContext jsr = lastExecutionJSR();
 
-            org = outFrames.get(jsr);
+            org = getOutFrame(jsr);
 
             if (org == null){
-                throw new AssertionViolatedException("outFrame not set! This:\n"+this+"\nExecutionChain: "+getExecutionChain()+"\nOutFrames: '"+outFrames+"'.");
+                throw new AssertionViolatedException("outFrame not set! This:\n"+this+"\nExecutionChain: "+getExecutionChain()+"\nOutFrames: '"+framesToString(outFrame, outFrames)+"'.");
             }
             return org.getClone();
         }
@@ -133,10 +222,10 @@ public class ControlFlowGraph{
 
             InstructionContext jsr = lastExecutionJSR();
 
-            org = inFrames.get(jsr);
+            org = getInFrame(jsr);
 
             if (org == null){
-                throw new AssertionViolatedException("inFrame not set! This:\n"+this+"\nInFrames: '"+inFrames+"'.");
+                throw new AssertionViolatedException("inFrame not set! This:\n"+this+"\nInFrames: '"+framesToString(inFrame, inFrames)+"'.");
       }
       return org.getClone();
     }
@@ -157,10 +246,16 @@ public class ControlFlowGraph{
          * changed from the one before execute()ing.
          */
         public boolean execute(Frame inFrame, ArrayList<InstructionContext> execPreds, InstConstraintVisitor icv, ExecutionVisitor ev){
+            return execute(inFrame, ExecutionChain.of(execPreds), icv, ev);
+        }
 
-            @SuppressWarnings("unchecked") // OK because execPreds is compatible type
-            final List<InstructionContext> clone = (List<InstructionContext>) execPreds.clone();
-            executionPredecessors = clone;
+        /**
+         * Like execute(Frame, ArrayList, InstConstraintVisitor, ExecutionVisitor);
+         * the ExecutionChain is immutable and therefore kept without copying.
+         */
+        public boolean execute(Frame inFrame, ExecutionChain execPreds, InstConstraintVisitor icv, ExecutionVisitor ev){
+
+            executionPredecessors = execPreds;
 
             //sanity check
             if ( (lastExecutionJSR() == null) && (subroutines.subroutineOf(getInstruction()) != subroutines.getTopLevel() ) ){
@@ -170,9 +265,9 @@ public class ControlFlowGraph{
                 throw new AssertionViolatedException("Huh?! Am I '"+this+"' part of a subroutine or not?");
             }
 
-            Frame inF = inFrames.get(lastExecutionJSR());
+            Frame inF = getInFrame(lastExecutionJSR());
             if (inF == null){// no incoming frame was set, so set it.
-                inFrames.put(lastExecutionJSR(), inFrame);
+                putInFrame(lastExecutionJSR(), inFrame);
                 inF = inFrame;
             }
             else{// if there was an "old" inFrame
@@ -209,7 +304,7 @@ public class ControlFlowGraph{
             ev.setFrame(workingFrame);
             getInstruction().accept(ev);
             //getInstruction().accept(ExecutionVisitor.withFrame(workingFrame));
-            outFrames.put(lastExecutionJSR(), workingFrame);
+            putOutFrame(lastExecutionJSR(), workingFrame);
 
             return true;    // new inFrame was different from old inFrame so merging them
                                         // yielded a different this.inFrame.
@@ -233,7 +328,7 @@ public class ControlFlowGraph{
          */
         private boolean mergeInFrames(Frame inFrame) {
             // TODO: Can be performance-improved.
-            Frame inF = inFrames.get(lastExecutionJSR());
+            Frame inF = getInFrame(lastExecutionJSR());
             OperandStack oldstack = inF.getStack().getClone();
             LocalVariables oldlocals = inF.getLocals().getClone();
             try {
@@ -252,11 +347,11 @@ public class ControlFlowGraph{
          * by the surrounding ControlFlowGraph.
          */
         private String getExecutionChain(){
-            String s = this.toString();
-            for (int i=executionPredecessors.size()-1; i>=0; i--){
-                s = executionPredecessors.get(i)+"\n" + s;
+            StringBuilder s = new StringBuilder();
+            for (InstructionContext ic : executionPredecessors.toList()){
+                s.append(ic).append('\n');
             }
-            return s;
+            return s.append(this).toString();
         }
 
 
@@ -285,42 +380,25 @@ public class ControlFlowGraph{
          * Returns null if we were called from the top level.
          */
         private InstructionContextImpl lastExecutionJSR(){
-
-            int size = executionPredecessors.size();
-            int retcount = 0;
-
-            for (int i=size-1; i>=0; i--){
-                InstructionContextImpl current = (InstructionContextImpl) (executionPredecessors.get(i));
-                Instruction currentlast = current.getInstruction().getInstruction();
-                if (currentlast instanceof RET) {
-                    retcount++;
-                }
-                if (currentlast instanceof JsrInstruction){
-                    retcount--;
-                    if (retcount == -1) {
-                        return current;
-                    }
-                }
-            }
-            return null;
+            return (InstructionContextImpl) executionPredecessors.getLastJSR();
         }
 
         /* Satisfies InstructionContext.getSuccessors(). */
         public InstructionContext[] getSuccessors(){
-            return contextsOf(_getSuccessors());
+            if (successors == null){
+                successors = _getSuccessors();
+            }
+            return successors.clone();
         }
 
         /**
-         * A utility method that calculates the successors of a given InstructionHandle
+         * A utility method that calculates the successors of this instruction.
          * That means, a RET does have successors as defined here.
          * A JsrInstruction has its target as its successor
          * (opposed to its physical successor) as defined here.
+         * All other successors are those of the FlowGraph.
          */
-// TODO: implement caching!
-        private InstructionHandle[] _getSuccessors(){
-            final InstructionHandle[] empty = new InstructionHandle[0];
-            final InstructionHandle[] single = new InstructionHandle[1];
-
+        private InstructionContext[] _getSuccessors(){
             Instruction inst = getInstruction().getInstruction();
 
             if (inst instanceof RET){
@@ -338,50 +416,22 @@ public class ControlFlowGraph{
                 for (int i=0; i<jsrs.length; i++){
                     ret[i] = jsrs[i].getNext();
                 }
-                return ret;
-            }
-
-            // Terminates method normally.
-            if (inst instanceof ReturnInstruction){
-                return empty;
-            }
-
-            // Terminates method abnormally, because JustIce mandates
-            // subroutines not to be protected by exception handlers.
-            if (inst instanceof ATHROW){
-                return empty;
+                return contextsOf(ret);
             }
 
             // See method comment.
             if (inst instanceof JsrInstruction){
-                single[0] = ((JsrInstruction) inst).getTarget();
-                return single;
+                return new InstructionContext[]{ contextOf(((JsrInstruction) inst).getTarget()) };
             }
 
-            if (inst instanceof GotoInstruction){
-                single[0] = ((GotoInstruction) inst).getTarget();
-                return single;
+            // Returns and ATHROW have none: JustIce mandates subroutines
+            // not to be protected by exception handlers.
+            int[] succs = graph.getInstructionSuccessors(index);
+            InstructionContext[] ret = new InstructionContext[succs.length];
+            for (int i=0; i<succs.length; i++){
+                ret[i] = contexts[succs[i]];
             }
-
-            if (inst instanceof BranchInstruction){
-                if (inst instanceof Select){
-                    // BCEL's getTargets() returns only the non-default targets,
-                    // thanks to Eli Tilevich for reporting.
-                    InstructionHandle[] matchTargets = ((Select) inst).getTargets();
-                    InstructionHandle[] ret = new InstructionHandle[matchTargets.length+1];
-                    ret[0] = ((Select) inst).getTarget();
-                    System.arraycopy(matchTargets, 0, ret, 1, matchTargets.length);
-                    return ret;
-                }
-                final InstructionHandle[] pair = new InstructionHandle[2];
-                pair[0] = getInstruction().getNext();
-                pair[1] = ((BranchInstruction) inst).getTarget();
-                return pair;
-            }
-
-            // default case: Fall through.        
-            single[0] = getInstruction().getNext();
-            return single;
+            return ret;
         }
 
     } // End Inner InstructionContextImpl Class.
@@ -395,19 +445,23 @@ public class ControlFlowGraph{
     /** The ExceptionHandlers object for the method whose control flow is represented by this ControlFlowGraph. */
     private final ExceptionHandlers exceptionhandlers;
 
-    /** All InstructionContext instances of this ControlFlowGraph. */
-    private final Map<InstructionHandle, InstructionContext> instructionContexts = new HashMap<InstructionHandle, InstructionContext>(); //keys: InstructionHandle, values: InstructionContextImpl
+    /** The FlowGraph of the method, shared with the Subroutines. */
+    private final FlowGraph graph;
+
+    /** All InstructionContext instances of this ControlFlowGraph. Index: The index of the instruction in the FlowGraph. */
+    private final InstructionContextImpl[] contexts;
 
     /** 
      * A Control Flow Graph.
      */
     public ControlFlowGraph(MethodGen method_gen){
-        subroutines = new Subroutines(method_gen);
+        graph = method_gen.getFlowGraph();
+        subroutines = new Subroutines(method_gen, graph);
         exceptionhandlers = new ExceptionHandlers(method_gen);
 
-        InstructionHandle[] instructionhandles = method_gen.getInstructionList().getInstructionHandles();
-        for (InstructionHandle instructionhandle : instructionhandles) {
-            instructionContexts.put(instructionhandle, new InstructionContextImpl(instructionhandle));
+        contexts = new InstructionContextImpl[graph.getInstructionCount()];
+        for (int i=0; i<contexts.length; i++){
+            contexts[i] = new InstructionContextImpl(graph.getInstructionHandle(i), i);
         }
 
         //this.method_gen = method_gen;
@@ -417,11 +471,15 @@ public class ControlFlowGraph{
      * Returns the InstructionContext of a given instruction.
      */
     public InstructionContext contextOf(InstructionHandle inst){
-        InstructionContext ic = instructionContexts.get(inst);
-        if (ic == null){
-            throw new AssertionViolatedException("InstructionContext requested for an InstructionHandle that's not known!");
+        if (inst != null){
+            try{
+                return contexts[graph.indexOf(inst)];
+            }
+            catch(ClassGenException e){
+                // not an instruction of this method, see below
+            }
         }
-        return ic;
+        throw new AssertionViolatedException("InstructionContext requested for an InstructionHandle that's not known!");
     }
 
     /**
@@ -438,12 +496,20 @@ public class ControlFlowGraph{
 
     /**
      * Returns an InstructionContext[] with all the InstructionContext instances
-     * for the method whose control flow is represented by this ControlFlowGraph
-     * <B>(NOT ORDERED!)</B>.
+     * for the method whose control flow is represented by this ControlFlowGraph,
+     * in the order of the instruction list.
      */
     public InstructionContext[] getInstructionContexts(){
-        InstructionContext[] ret = new InstructionContext[instructionContexts.values().size()];
-        return instructionContexts.values().toArray(ret);
+        InstructionContext[] ret = new InstructionContext[contexts.length];
+        System.arraycopy(contexts, 0, ret, 0, contexts.length);
+        return ret;
+    }
+
+    /**
+     * Returns the FlowGraph of the method, with its basic blocks.
+     */
+    public FlowGraph getFlowGraph(){
+        return graph;
     }
 
     /**
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.verifier.structurals;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.bcel6.generic.Instruction;
+import org.apache.commons.bcel6.generic.JsrInstruction;
+import org.apache.commons.bcel6.generic.RET;
+
+/**
+ * An ExecutionChain is the immutable list of InstructionContext objects
+ * executed so far on one execution path of the Pass3bVerifier, see
+ * {@link InstructionContext#execute(Frame, ExecutionChain, InstConstraintVisitor, ExecutionVisitor)}.
+ * Appending an instruction creates a new chain sharing this one as its
+ * tail, so the chains of all paths through a method together take
+ * space linear in the number of executed instructions.
+ * The last JSR without a corresponding RET is tracked while appending,
+ * so finding the subroutine an instruction is executed in does not
+ * need to walk the chain.
+ *
+ * @version $Id$
+ */
+public final class ExecutionChain{
+
+    /** The chain of the top level, before any instruction was executed. */
+    public static final ExecutionChain EMPTY = new ExecutionChain(null, null, null, 0);
+
+    /**
+     * The JSR instructions without a corresponding RET so far,
+     * innermost first.
+     */
+    private static final class Jsrs{
+        private final InstructionContext jsr;
+        private final Jsrs outer;
+
+        Jsrs(InstructionContext jsr, Jsrs outer){
+            this.jsr = jsr;
+            this.outer = outer;
+        }
+    }
+
+    /** The last executed instruction; null for EMPTY. */
+    private final InstructionContext last;
+
+    /** The instructions executed before the last one. */
+    private final ExecutionChain previous;
+
+    /** The open JSR instructions; null on the top level. */
+    private final Jsrs jsrs;
+
+    /** The number of instructions in this chain. */
+    private final int size;
+
+    private ExecutionChain(InstructionContext last, ExecutionChain previous, Jsrs jsrs, int size){
+        this.last = last;
+        this.previous = previous;
+        this.jsrs = jsrs;
+        this.size = size;
+    }
+
+    /**
+     * Returns a chain consisting of the given InstructionContext objects,
+     * in execution order.
+     */
+    public static ExecutionChain of(List<InstructionContext> executionPredecessors){
+        ExecutionChain chain = EMPTY;
+        for (InstructionContext ic : executionPredecessors){
+            chain = chain.append(ic);
+        }
+        return chain;
+    }
+
+    /**
+     * Returns the chain of this one followed by the given InstructionContext.
+     * This chain is not modified.
+     */
+    public ExecutionChain append(InstructionContext ic){
+        Jsrs j = jsrs;
+        Instruction inst = ic.getInstruction().getInstruction();
+        if (inst instanceof JsrInstruction){
+            j = new Jsrs(ic, j);
+        }
+        else if ((inst instanceof RET) && (j != null)){
+            j = j.outer;
+        }
+        return new ExecutionChain(ic, this, j, size + 1);
+    }
+
+    /**
+     * Returns the InstructionContext with a JSR/JSR_W that was last in
+     * this chain without a corresponding RET, i.e. the one we were called
+     * by; null if we are on the top level.
+     */
+    public InstructionContext getLastJSR(){
+        return (jsrs == null) ? null : jsrs.jsr;
+    }
+
+    /** Returns the last executed InstructionContext, or null if this chain is empty. */
+    public InstructionContext getLast(){
+        return last;
+    }
+
+    /** Returns the number of InstructionContext objects in this chain. */
+    public int size(){
+        return size;
+    }
+
+    /** Returns true if no instruction was executed so far. */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Returns the InstructionContext objects of this chain in execution order.
+     */
+    public ArrayList<InstructionContext> toList(){
+        InstructionContext[] ics = new InstructionContext[size];
+        ExecutionChain chain = this;
+        for (int i=size-1; i>=0; i--){
+            ics[i] = chain.last;
+            chain = chain.previous;
+        }
+        ArrayList<InstructionContext> list = new ArrayList<InstructionContext>(size);
+        for (InstructionContext ic : ics){
+            list.add(ic);
+        }
+        return list;
+    }
+
+    /**
+     * Returns a String representation of the InstructionContext objects
+     * of this chain in execution order.
+     */
+    @Override
+    public String toString(){
+        return toList().toString();
+    }
+}
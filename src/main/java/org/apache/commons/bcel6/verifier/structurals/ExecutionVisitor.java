@@ -833,8 +833,8 @@ public class ExecutionVisitor extends EmptyVisitor{
     public void visitINVOKESPECIAL(INVOKESPECIAL o){
         if (o.getMethodName(cpg).equals(Constants.CONSTRUCTOR_NAME)){
             UninitializedObjectType t = (UninitializedObjectType) stack().peek(o.getArgumentTypes(cpg).length);
-            if (t == Frame._this){    
-                Frame._this = null;
+            if (t == Frame.getThis()){
+                Frame.setThis(null);
             }
             stack().initializeObject(t);
             locals().initializeObject(t);
@@ -33,8 +33,29 @@ public class Frame{
      * which instance it is that is not initialized yet. It will be
      * initialized invoking another constructor later.
      * NULL means the instance already *is* initialized.
+     * Kept per thread so that methods may be verified concurrently.
      */
-    protected static UninitializedObjectType _this;
+    private static final ThreadLocal<UninitializedObjectType> _this = new ThreadLocal<UninitializedObjectType>();
+
+    /**
+     * Returns the uninitialized instance of the instance initialization
+     * method currently verified by this thread, or null.
+     */
+    static UninitializedObjectType getThis() {
+        return _this.get();
+    }
+
+    /**
+     * Sets the uninitialized instance of the instance initialization
+     * method currently verified by this thread; null means initialized.
+     */
+    static void setThis( UninitializedObjectType t ) {
+        if (t == null) {
+            _this.remove();
+        } else {
+            _this.set(t);
+        }
+    }
 
     /**
      *
@@ -50,8 +71,9 @@ public class Frame{
      *
      */
     public Frame(int maxLocals, int maxStack){
-        locals = new LocalVariables(maxLocals);
-        stack = new OperandStack(maxStack);
+        TypeTable table = new TypeTable();
+        locals = new LocalVariables(maxLocals, table);
+        stack = new OperandStack(maxStack, table);
     }
 
     /**
@@ -74,6 +74,15 @@ public interface InstructionContext{
      */
     boolean execute(Frame inFrame, ArrayList<InstructionContext> executionPredecessors, InstConstraintVisitor icv, ExecutionVisitor ev);
 
+    /**
+     * Like execute(Frame, ArrayList, InstConstraintVisitor, ExecutionVisitor),
+     * but with the execution predecessors given as an immutable ExecutionChain
+     * that need not be copied.
+     *
+     * @see #execute(Frame, ArrayList, InstConstraintVisitor, ExecutionVisitor)
+     */
+    boolean execute(Frame inFrame, ExecutionChain executionPredecessors, InstConstraintVisitor icv, ExecutionVisitor ev);
+
     Frame getInFrame();
 
     /**
@@ -85,6 +94,14 @@ public interface InstructionContext{
      */
     Frame getOutFrame(ArrayList<InstructionContext> executionPredecessors);
 
+    /**
+     * Like getOutFrame(ArrayList), but with the execution predecessors
+     * given as an ExecutionChain.
+     *
+     * @see #getOutFrame(ArrayList)
+     */
+    Frame getOutFrame(ExecutionChain executionPredecessors);
+
     /**
      * Returns the InstructionHandle this InstructionContext is wrapped around.
      *
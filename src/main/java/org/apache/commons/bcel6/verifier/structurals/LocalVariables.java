@@ -30,17 +30,26 @@ import org.apache.commons.bcel6.verifier.exc.StructuralCodeConstraintException;
  * @version $Id$
  */
 public class LocalVariables{
-    /** The Type[] containing the local variable slots. */
-    private final Type[] locals;
+    /** The table of the types in the local variable slots. */
+    private final TypeTable table;
+
+    /** The IDs of the types of the local variable slots, see TypeTable. */
+    private final int[] locals;
 
     /**
      * Creates a new LocalVariables object.
      */
     public LocalVariables(int maxLocals){
-        locals = new Type[maxLocals];
-        for (int i=0; i<maxLocals; i++){
-            locals[i] = Type.UNKNOWN;
-        }
+        this(maxLocals, new TypeTable());
+    }
+
+    /**
+     * Creates a new LocalVariables object with the given TypeTable.
+     * All slots are of Type.UNKNOWN.
+     */
+    LocalVariables(int maxLocals, TypeTable table){
+        this.table = table;
+        locals = new int[maxLocals]; // all TypeTable.UNKNOWN
     }
 
     /**
@@ -50,10 +59,8 @@ public class LocalVariables{
      */
     @Override
     protected Object clone(){
-        LocalVariables lvs = new LocalVariables(locals.length);
-        for (int i=0; i<locals.length; i++){
-            lvs.locals[i] = this.locals[i];
-        }
+        LocalVariables lvs = new LocalVariables(locals.length, table);
+        System.arraycopy(this.locals, 0, lvs.locals, 0, locals.length);
         return lvs;
     }
 
@@ -61,7 +68,7 @@ public class LocalVariables{
      * Returns the type of the local variable slot i.
      */
     public Type get(int i){
-        return locals[i];
+        return table.type(locals[i]);
     }
 
     /**
@@ -72,6 +79,13 @@ public class LocalVariables{
         return (LocalVariables) this.clone();
     }
 
+    /**
+     * Returns the TypeTable of the local variable slots.
+     */
+    TypeTable getTypeTable(){
+        return table;
+    }
+
     /**
      * Returns the number of local variable slots this
      * LocalVariables instance has.
@@ -87,7 +101,18 @@ public class LocalVariables{
         if (type == Type.BYTE || type == Type.SHORT || type == Type.BOOLEAN || type == Type.CHAR){
             throw new AssertionViolatedException("LocalVariables do not know about '"+type+"'. Use Type.INT instead.");
         }
-        locals[i] = type;
+        locals[i] = table.intern(type);
+    }
+
+    /**
+     * Returns the ID of the type of the local variable slot i of lv in
+     * the TypeTable of this instance.
+     */
+    private int idOf(LocalVariables lv, int i){
+        if (lv.table == table){
+            return lv.locals[i];
+        }
+        return table.intern(lv.table.type(lv.locals[i]));
     }
 
     /** @return a hash code value for the object.
@@ -108,8 +133,9 @@ public class LocalVariables{
             return false;
         }
         for (int i=0; i<this.locals.length; i++){
-            if (!this.locals[i].equals(lv.locals[i])){
-                //System.out.println(this.locals[i]+" is not "+lv.locals[i]);
+            // equal types have equal IDs except for UninitializedObjectType instances;
+            // the types of another table are compared without interning them here
+            if (((lv.table != table) || (this.locals[i] != lv.locals[i])) && !this.get(i).equals(lv.get(i))){
                 return false;
             }
         }
@@ -137,45 +163,52 @@ public class LocalVariables{
      * @see #merge(LocalVariables)
      */
     private void merge(LocalVariables lv, int i){
+        int other = idOf(lv, i);
+        if (locals[i] == other){
+            return;
+        }
+        Type mine = table.type(locals[i]);
+        Type theirs = table.type(other);
         try {
 
         // We won't accept an unitialized object if we know it was initialized;
         // compare vmspec2, 4.9.4, last paragraph.
-        if ( (!(locals[i] instanceof UninitializedObjectType)) && (lv.locals[i] instanceof UninitializedObjectType) ){
+        if ( (!(mine instanceof UninitializedObjectType)) && (theirs instanceof UninitializedObjectType) ){
             throw new StructuralCodeConstraintException("Backwards branch with an uninitialized object in the local variables detected.");
         }
         // Even harder, what about _different_ uninitialized object types?!
-        if ( (!(locals[i].equals(lv.locals[i]))) && (locals[i] instanceof UninitializedObjectType) && (lv.locals[i] instanceof UninitializedObjectType) ){
+        if ( (!(mine.equals(theirs))) && (mine instanceof UninitializedObjectType) && (theirs instanceof UninitializedObjectType) ){
             throw new StructuralCodeConstraintException("Backwards branch with an uninitialized object in the local variables detected.");
         }
         // If we just didn't know that it was initialized, we have now learned.
-        if (locals[i] instanceof UninitializedObjectType){
-            if (! (lv.locals[i] instanceof UninitializedObjectType)){
-                locals[i] = ((UninitializedObjectType) locals[i]).getInitialized();
+        if (mine instanceof UninitializedObjectType){
+            if (! (theirs instanceof UninitializedObjectType)){
+                mine = ((UninitializedObjectType) mine).getInitialized();
+                locals[i] = table.intern(mine);
             }
         }
-        if ((locals[i] instanceof ReferenceType) && (lv.locals[i] instanceof ReferenceType)){
-            if (! locals[i].equals(lv.locals[i])){ // needed in case of two UninitializedObjectType instances
-                Type sup = ((ReferenceType) locals[i]).getFirstCommonSuperclass((ReferenceType) (lv.locals[i]));
+        if ((mine instanceof ReferenceType) && (theirs instanceof ReferenceType)){
+            if (! mine.equals(theirs)){ // needed in case of two UninitializedObjectType instances
+                int sup = table.getFirstCommonSuperclass(locals[i], other);
 
-                if (sup != null){
+                if (sup != -1){
                     locals[i] = sup;
                 }
                 else{
                     // We should have checked this in Pass2!
-                    throw new AssertionViolatedException("Could not load all the super classes of '"+locals[i]+"' and '"+lv.locals[i]+"'.");
+                    throw new AssertionViolatedException("Could not load all the super classes of '"+mine+"' and '"+theirs+"'.");
                 }
             }
         }
         else{
-            if (! (locals[i].equals(lv.locals[i])) ){
+            if (! (mine.equals(theirs)) ){
 /*TODO
-                if ((locals[i] instanceof org.apache.commons.bcel6.generic.ReturnaddressType) && (lv.locals[i] instanceof org.apache.commons.bcel6.generic.ReturnaddressType)){
-                    //System.err.println("merging "+locals[i]+" and "+lv.locals[i]);
-                    throw new AssertionViolatedException("Merging different ReturnAddresses: '"+locals[i]+"' and '"+lv.locals[i]+"'.");
+                if ((mine instanceof org.apache.commons.bcel6.generic.ReturnaddressType) && (theirs instanceof org.apache.commons.bcel6.generic.ReturnaddressType)){
+                    //System.err.println("merging "+mine+" and "+theirs);
+                    throw new AssertionViolatedException("Merging different ReturnAddresses: '"+mine+"' and '"+theirs+"'.");
                 }
 */
-                locals[i] = Type.UNKNOWN;
+                locals[i] = TypeTable.UNKNOWN;
             }
         }
         } catch (ClassNotFoundException e) {
@@ -193,7 +226,7 @@ public class LocalVariables{
         for (int i=0; i<locals.length; i++){
             sb.append(Integer.toString(i));
             sb.append(": ");
-            sb.append(locals[i]);
+            sb.append(get(i));
             sb.append("\n");
         }
         return sb.toString();
@@ -204,9 +237,17 @@ public class LocalVariables{
      * with an "initialized" ObjectType.
      */
     public void initializeObject(UninitializedObjectType u){
+        int id = table.find(u);
+        if (id == -1){
+            return;
+        }
+        int initialized = -1;
         for (int i=0; i<locals.length; i++){
-            if (locals[i] == u){
-                locals[i] = u.getInitialized();
+            if (locals[i] == id){
+                if (initialized == -1){
+                    initialized = table.intern(u.getInitialized());
+                }
+                locals[i] = initialized;
             }
         }
     }
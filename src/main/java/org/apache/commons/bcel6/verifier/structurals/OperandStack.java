@@ -18,8 +18,6 @@
 package org.apache.commons.bcel6.verifier.structurals;
 
 
-import java.util.ArrayList;
-
 import org.apache.commons.bcel6.generic.ObjectType;
 import org.apache.commons.bcel6.generic.ReferenceType;
 import org.apache.commons.bcel6.generic.Type;
@@ -35,8 +33,17 @@ import org.apache.commons.bcel6.verifier.exc.StructuralCodeConstraintException;
  */
 public class OperandStack{
 
-    /** We hold the stack information here. */
-    private ArrayList<Type> stack = new ArrayList<Type>();
+    /** The table of the types on the stack. */
+    private final TypeTable table;
+
+    /** We hold the stack information here: the IDs of the types, see TypeTable. */
+    private final int[] stack;
+
+    /** The number of Type objects on the stack. */
+    private int size;
+
+    /** The number of stack slots used. */
+    private int slots;
 
     /** The maximum number of stack slots this OperandStack instance may hold. */
     private final int maxStack;
@@ -45,7 +52,7 @@ public class OperandStack{
      * Creates an empty stack with a maximum of maxStack slots.
      */
     public OperandStack(int maxStack){
-        this.maxStack = maxStack;
+        this(maxStack, new TypeTable());
     }
 
     /**
@@ -53,9 +60,28 @@ public class OperandStack{
      * the ObjectType 'obj' at the top.
      */
     public OperandStack(int maxStack, ObjectType obj){
+        this(maxStack, obj, new TypeTable());
+    }
+
+    /**
+     * Creates an empty stack with a maximum of maxStack slots
+     * and the given TypeTable.
+     */
+    OperandStack(int maxStack, TypeTable table){
         this.maxStack = maxStack;
+        this.table = table;
+        this.stack = new int[maxStack]; // every Type takes at least one slot
+    }
+
+    /**
+     * Creates an otherwise empty stack with a maximum of maxStack slots,
+     * the given TypeTable and the ObjectType 'obj' at the top.
+     */
+    OperandStack(int maxStack, ObjectType obj, TypeTable table){
+        this(maxStack, table);
         this.push(obj);
-    }    
+    }
+
     /**
      * Returns a deep copy of this object; that means, the clone operates
      * on a new stack. However, the Type objects on the stack are
@@ -63,10 +89,10 @@ public class OperandStack{
      */
     @Override
     protected Object clone(){
-        OperandStack newstack = new OperandStack(this.maxStack);
-        @SuppressWarnings("unchecked") // OK because this.stack is the same type
-        final ArrayList<Type> clone = (ArrayList<Type>) this.stack.clone();
-        newstack.stack = clone;
+        OperandStack newstack = new OperandStack(this.maxStack, table);
+        System.arraycopy(this.stack, 0, newstack.stack, 0, size);
+        newstack.size = size;
+        newstack.slots = slots;
         return newstack;
     }
 
@@ -74,13 +100,20 @@ public class OperandStack{
      * Clears the stack.
      */
     public void clear(){
-        stack = new ArrayList<Type>();
+        size = 0;
+        slots = 0;
     }
 
     /** @return a hash code value for the object.
      */
     @Override
-    public int hashCode() { return stack.hashCode(); }
+    public int hashCode() {
+        int hash = 1;
+        for (int i=0; i<size; i++){
+            hash = 31*hash + table.type(stack[i]).hashCode();
+        }
+        return hash;
+    }
 
     /**
      * Returns true if and only if this OperandStack
@@ -93,7 +126,28 @@ public class OperandStack{
             return false;
         }
         OperandStack s = (OperandStack) o;
-        return this.stack.equals(s.stack);
+        if (this.size != s.size){
+            return false;
+        }
+        for (int i=0; i<size; i++){
+            // equal types have equal IDs except for UninitializedObjectType instances;
+            // the types of another table are compared without interning them here
+            if (((s.table != table) || (this.stack[i] != s.stack[i])) && !table.type(this.stack[i]).equals(s.table.type(s.stack[i]))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ID of the i-th type from the bottom of the stack s
+     * in the TypeTable of this instance.
+     */
+    private int idOf(OperandStack s, int i){
+        if (s.table == table){
+            return s.stack[i];
+        }
+        return table.intern(s.table.type(s.stack[i]));
     }
 
     /**
@@ -109,7 +163,7 @@ public class OperandStack{
      * Returns true IFF this OperandStack is empty.
    */
     public boolean isEmpty(){
-        return stack.isEmpty();
+        return size == 0;
     }
 
     /**
@@ -131,14 +185,21 @@ public class OperandStack{
    * iff i==0 the top element is returned. The element is not popped off the stack!
    */
     public Type peek(int i){
-        return stack.get(size()-i-1);
+        if (i < 0 || i >= size){
+            throw new IndexOutOfBoundsException("Index: "+i+", Size: "+size);
+        }
+        return table.type(stack[size-i-1]);
     }
 
     /**
      * Returns the element on top of the stack. The element is popped off the stack.
      */
     public Type pop(){
-        Type e = stack.remove(size()-1);
+        if (size == 0){
+            throw new IndexOutOfBoundsException("Cannot pop from an empty OperandStack.");
+        }
+        Type e = table.type(stack[--size]);
+        slots -= e.getSize();
         return e;
     }
 
@@ -165,14 +226,15 @@ public class OperandStack{
         if (slotsUsed() >= maxStack){
             throw new AssertionViolatedException("OperandStack too small, should have thrown proper Exception elsewhere. Stack: "+this);
         }
-        stack.add(type);
+        stack[size++] = table.intern(type);
+        slots += type.getSize();
     }
 
     /**
      * Returns the size of this OperandStack; that means, how many Type objects there are.
      */
     public int size(){
-        return stack.size();
+        return size;
     }
 
     /**
@@ -180,14 +242,6 @@ public class OperandStack{
      * @see #maxStack()
      */    
     public int slotsUsed(){
-        /*  XXX change this to a better implementation using a variable
-            that keeps track of the actual slotsUsed()-value monitoring
-            all push()es and pop()s.
-        */
-        int slots = 0;
-        for (int i=0; i<stack.size(); i++){
-            slots += peek(i).getSize();
-        }
         return slots;
     }
 
@@ -222,27 +276,38 @@ public class OperandStack{
             throw new StructuralCodeConstraintException("Cannot merge stacks of different size:\nOperandStack A:\n"+this+"\nOperandStack B:\n"+s);
         }
 
-        for (int i=0; i<size(); i++){
+        for (int i=0; i<size; i++){
+            int other = idOf(s, i);
+            if (stack[i] == other){
+                continue;
+            }
+            Type mine = table.type(stack[i]);
+            Type theirs = table.type(other);
             // If the object _was_ initialized and we're supposed to merge
             // in some uninitialized object, we reject the code (see vmspec2, 4.9.4, last paragraph).
-            if ( (! (stack.get(i) instanceof UninitializedObjectType)) && (s.stack.get(i) instanceof UninitializedObjectType) ){
+            if ( (! (mine instanceof UninitializedObjectType)) && (theirs instanceof UninitializedObjectType) ){
                 throw new StructuralCodeConstraintException("Backwards branch with an uninitialized object on the stack detected.");
             }
             // Even harder, we're not initialized but are supposed to broaden
             // the known object type
-            if ( (!(stack.get(i).equals(s.stack.get(i)))) && (stack.get(i) instanceof UninitializedObjectType) && (!(s.stack.get(i) instanceof UninitializedObjectType))){
+            if ( (!(mine.equals(theirs))) && (mine instanceof UninitializedObjectType) && (!(theirs instanceof UninitializedObjectType))){
                 throw new StructuralCodeConstraintException("Backwards branch with an uninitialized object on the stack detected.");
             }
             // on the other hand...
-            if (stack.get(i) instanceof UninitializedObjectType){ //if we have an uninitialized object here
-                if (! (s.stack.get(i) instanceof UninitializedObjectType)){ //that has been initialized by now
-                    stack.set(i, ((UninitializedObjectType) (stack.get(i))).getInitialized() ); //note that.
+            if (mine instanceof UninitializedObjectType){ //if we have an uninitialized object here
+                if (! (theirs instanceof UninitializedObjectType)){ //that has been initialized by now
+                    mine = ((UninitializedObjectType) mine).getInitialized(); //note that.
+                    stack[i] = table.intern(mine);
                 }
             }
-            if (! stack.get(i).equals(s.stack.get(i))){
-                if (    (stack.get(i) instanceof ReferenceType) &&
-                            (s.stack.get(i) instanceof ReferenceType)  ){
-                    stack.set(i, ((ReferenceType) stack.get(i)).getFirstCommonSuperclass((ReferenceType) (s.stack.get(i))));
+            if (! mine.equals(theirs)){
+                if (    (mine instanceof ReferenceType) &&
+                            (theirs instanceof ReferenceType)  ){
+                    int sup = table.getFirstCommonSuperclass(stack[i], other);
+                    if (sup == -1){
+                        throw new AssertionViolatedException("Could not load all the super classes of '"+mine+"' and '"+theirs+"'.");
+                    }
+                    stack[i] = sup;
                 }
                 else{
                     throw new StructuralCodeConstraintException("Cannot merge stacks of different types:\nStack A:\n"+this+"\nStack B:\n"+s);
@@ -260,9 +325,17 @@ public class OperandStack{
      * with an "initialized" ObjectType.
      */
     public void initializeObject(UninitializedObjectType u){
-        for (int i=0; i<stack.size(); i++){
-            if (stack.get(i) == u){
-                stack.set(i, u.getInitialized());
+        int id = table.find(u);
+        if (id == -1){
+            return;
+        }
+        int initialized = -1;
+        for (int i=0; i<size; i++){
+            if (stack[i] == id){
+                if (initialized == -1){
+                    initialized = table.intern(u.getInitialized());
+                }
+                stack[i] = initialized;
             }
         }
     }
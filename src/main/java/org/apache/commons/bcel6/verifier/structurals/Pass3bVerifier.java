@@ -20,10 +20,9 @@ package org.apache.commons.bcel6.verifier.structurals;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Random;
-import java.util.Vector;
 
 import org.apache.commons.bcel6.Constants;
 import org.apache.commons.bcel6.Repository;
@@ -64,7 +63,7 @@ public final class Pass3bVerifier extends PassVerifier{
 
     /**
      * An InstructionContextQueue is a utility class that holds
-     * (InstructionContext, ArrayList) pairs in a Queue data structure.
+     * (InstructionContext, ExecutionChain) pairs in a Queue data structure.
      * This is used to hold information about InstructionContext objects
      * externally --- i.e. that information is not saved inside the
      * InstructionContext object itself. This is useful to save the
@@ -76,24 +75,31 @@ public final class Pass3bVerifier extends PassVerifier{
      * we have about its symbolic execution predecessors.
      */
     private static final class InstructionContextQueue{
-        private final List<InstructionContext> ics = new Vector<InstructionContext>();
-        private final List<ArrayList<InstructionContext>> ecs = new Vector<ArrayList<InstructionContext>>();
-        public void add(InstructionContext ic, ArrayList<InstructionContext> executionChain){
-            ics.add(ic);
-            ecs.add(executionChain);
+        private final Deque<InstructionContext> ics = new ArrayDeque<InstructionContext>();
+        private final Deque<ExecutionChain> ecs = new ArrayDeque<ExecutionChain>();
+        public void add(InstructionContext ic, ExecutionChain executionChain){
+            ics.addLast(ic);
+            ecs.addLast(executionChain);
         }
         public boolean isEmpty(){
             return ics.isEmpty();
         }
-        public void remove(int i){
-            ics.remove(i);
-            ecs.remove(i);
+        /** Moves the first n pairs to the end of the queue. */
+        public void rotate(int n){
+            for (int i=0; i<n; i++){
+                ics.addLast(ics.removeFirst());
+                ecs.addLast(ecs.removeFirst());
+            }
+        }
+        public void removeFirst(){
+            ics.removeFirst();
+            ecs.removeFirst();
         }
-        public InstructionContext getIC(int i){
-            return ics.get(i);
+        public InstructionContext getFirstIC(){
+            return ics.getFirst();
         }
-        public ArrayList<InstructionContext> getEC(int i){
-            return ecs.get(i);
+        public ExecutionChain getFirstEC(){
+            return ecs.getFirst();
         }
         public int size(){
             return ics.size();
@@ -109,6 +115,9 @@ public final class Pass3bVerifier extends PassVerifier{
     /** The method number to verify. */
     private final int method_no;
 
+    /** Whether to type check against the StackMapTable; the owner's setting at instantiation. */
+    private final boolean typeChecking;
+
     /**
      * This class should only be instantiated by a Verifier.
      *
@@ -117,6 +126,7 @@ public final class Pass3bVerifier extends PassVerifier{
     public Pass3bVerifier(Verifier owner, int method_no){
         myOwner = owner;
         this.method_no = method_no;
+        this.typeChecking = owner.isTypeChecking();
     }
 
     /**
@@ -127,34 +137,26 @@ public final class Pass3bVerifier extends PassVerifier{
    * fix point of frame merging.
      */
     private void circulationPump(MethodGen m,ControlFlowGraph cfg, InstructionContext start, Frame vanillaFrame, InstConstraintVisitor icv, ExecutionVisitor ev){
-        final Random random = new Random();
+        Random random = null; // only needed if the verification is randomized
         InstructionContextQueue icq = new InstructionContextQueue();
 
-        start.execute(vanillaFrame, new ArrayList<InstructionContext>(), icv, ev);    // new ArrayList() <=>    no Instruction was executed before
+        start.execute(vanillaFrame, ExecutionChain.EMPTY, icv, ev);    // empty chain <=>    no Instruction was executed before
                                                                                                     //                                    => Top-Level routine (no jsr call before)
-        icq.add(start, new ArrayList<InstructionContext>());
+        icq.add(start, ExecutionChain.EMPTY);
 
         // LOOP!
         while (!icq.isEmpty()){
-            InstructionContext u;
-            ArrayList<InstructionContext> ec;
             if (!DEBUG){
-                int r = random.nextInt(icq.size());
-                u = icq.getIC(r);
-                ec = icq.getEC(r);
-                icq.remove(r);
-            }
-            else{
-                u  = icq.getIC(0);
-                ec = icq.getEC(0);
-                icq.remove(0);
+                if (random == null){
+                    random = new Random();
+                }
+                icq.rotate(random.nextInt(icq.size()));
             }
-
-            @SuppressWarnings("unchecked") // ec is of type ArrayList<InstructionContext>
-            ArrayList<InstructionContext> oldchain = (ArrayList<InstructionContext>) (ec.clone());
-            @SuppressWarnings("unchecked") // ec is of type ArrayList<InstructionContext>
-            ArrayList<InstructionContext> newchain = (ArrayList<InstructionContext>) (ec.clone());
-            newchain.add(u);
+            InstructionContext u = icq.getFirstIC();
+            // The chains are immutable, so they are shared instead of copied.
+            ExecutionChain oldchain = icq.getFirstEC();
+            icq.removeFirst();
+            ExecutionChain newchain = oldchain.append(u);
 
             if ((u.getInstruction().getInstruction()) instanceof RET){
 //System.err.println(u);
@@ -165,24 +167,7 @@ public final class Pass3bVerifier extends PassVerifier{
                 InstructionContext theSuccessor = cfg.contextOf(t.getTarget());
 
                 // Sanity check
-                InstructionContext lastJSR = null;
-                int skip_jsr = 0;
-                for (int ss=oldchain.size()-1; ss >= 0; ss--){
-                    if (skip_jsr < 0){
-                        throw new AssertionViolatedException("More RET than JSR in execution chain?!");
-                    }
-//System.err.println("+"+oldchain.get(ss));
-                    if ((oldchain.get(ss)).getInstruction().getInstruction() instanceof JsrInstruction){
-                        if (skip_jsr == 0){
-                            lastJSR = oldchain.get(ss);
-                            break;
-                        }
-                        skip_jsr--;
-                    }
-                    if ((oldchain.get(ss)).getInstruction().getInstruction() instanceof RET){
-                        skip_jsr++;
-                    }
-                }
+                InstructionContext lastJSR = oldchain.getLastJSR();
                 if (lastJSR == null){
                     throw new AssertionViolatedException("RET without a JSR before in ExecutionChain?! EC: '"+oldchain+"'.");
                 }
@@ -192,9 +177,7 @@ public final class Pass3bVerifier extends PassVerifier{
                 }
 
                 if (theSuccessor.execute(u.getOutFrame(oldchain), newchain, icv, ev)){
-                    @SuppressWarnings("unchecked") // newchain is already of type ArrayList<InstructionContext>
-                    ArrayList<InstructionContext> newchainClone = (ArrayList<InstructionContext>) newchain.clone();
-                    icq.add(theSuccessor, newchainClone);
+                    icq.add(theSuccessor, newchain);
                 }
             }
             else{// "not a ret"
@@ -203,9 +186,7 @@ public final class Pass3bVerifier extends PassVerifier{
                 InstructionContext[] succs = u.getSuccessors();
                 for (InstructionContext v : succs) {
                     if (v.execute(u.getOutFrame(oldchain), newchain, icv, ev)){
-                        @SuppressWarnings("unchecked") // newchain is already of type ArrayList<InstructionContext>
-                        ArrayList<InstructionContext> newchainClone = (ArrayList<InstructionContext>) newchain.clone();
-                        icq.add(v, newchainClone);
+                        icq.add(v, newchain);
                     }
                 }
             }// end "not a ret"
@@ -225,8 +206,8 @@ public final class Pass3bVerifier extends PassVerifier{
                 // by using an empty chain for the exception handlers.
                 //if (v.execute(new Frame(u.getOutFrame(oldchain).getLocals(), new OperandStack (u.getOutFrame().getStack().maxStack(), (exc_hds[s].getExceptionType()==null? Type.THROWABLE : exc_hds[s].getExceptionType())) ), newchain), icv, ev){
                     //icq.add(v, (ArrayList) newchain.clone());
-                if (v.execute(new Frame(u.getOutFrame(oldchain).getLocals(), new OperandStack (u.getOutFrame(oldchain).getStack().maxStack(), (exc_hd.getExceptionType()==null? Type.THROWABLE : exc_hd.getExceptionType())) ), new ArrayList<InstructionContext>(), icv, ev)){
-                    icq.add(v, new ArrayList<InstructionContext>());
+                if (v.execute(new Frame(u.getOutFrame(oldchain).getLocals(), new OperandStack (u.getOutFrame(oldchain).getStack().maxStack(), (exc_hd.getExceptionType()==null? Type.THROWABLE : exc_hd.getExceptionType()), u.getOutFrame(oldchain).getLocals().getTypeTable()) ), ExecutionChain.EMPTY, icv, ev)){
+                    icq.add(v, ExecutionChain.EMPTY);
                 }
             }
 
@@ -236,7 +217,7 @@ public final class Pass3bVerifier extends PassVerifier{
         do{
             if ((ih.getInstruction() instanceof ReturnInstruction) && (!(cfg.isDead(ih)))) {
                 InstructionContext ic = cfg.contextOf(ih);
-                Frame f = ic.getOutFrame(new ArrayList<InstructionContext>()); // TODO: This is buggy, we check only the top-level return instructions this way. Maybe some maniac returns from a method when in a subroutine?
+                Frame f = ic.getOutFrame(ExecutionChain.EMPTY); // TODO: This is buggy, we check only the top-level return instructions this way. Maybe some maniac returns from a method when in a subroutine?
                 LocalVariables lvs = f.getLocals();
                 for (int i=0; i<lvs.maxLocals(); i++){
                     if (lvs.get(i) instanceof UninitializedObjectType){
@@ -285,9 +266,40 @@ public final class Pass3bVerifier extends PassVerifier{
         throw new StructuralCodeConstraintException("Returned type "+returnedType+" does not match Method's return type "+m.getReturnType());
     }
 
+    /**
+     * Verifies the method by type checking against its StackMapTable, if
+     * the Verifier allows that and the class file version calls for it.
+     * Class files of version 50 fall back to type inference if type checking
+     * fails, like the JVM does; for later versions, the outcome of type
+     * checking is final.
+     *
+     * @return true if the method was verified; false if it has to be verified
+     * by type inference.
+     * @throws StructuralCodeConstraintException if type checking rejected the method.
+     * @see StackMapTypeChecker
+     */
+    private boolean typeCheck(JavaClass jc, Method method, MethodGen mg, InstConstraintVisitor icv, ExecutionVisitor ev){
+        if (!typeChecking || !StackMapTypeChecker.isApplicable(jc.getMajor(), method.getCode())){
+            return false;
+        }
+        try{
+            new StackMapTypeChecker(mg, method, icv, ev).check();
+            return true;
+        }
+        catch (StructuralCodeConstraintException ce){
+            if (jc.getMajor() >= StackMapTypeChecker.TYPE_CHECKING_MAJOR){
+                throw ce;
+            }
+            addMessage("Type checking failed, falling back to type inference: "+ce.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Pass 3b implements the data flow analysis as described in the Java Virtual
      * Machine Specification, Second Edition.
+     * Methods of class files of version 50 and later are type checked against
+     * their StackMapTable instead, see typeCheck().
       * Later versions will use LocalVariablesInfo objects to verify if the
       * verifier-inferred types and the class file's debug information (LocalVariables
       * attributes) match [TODO].
@@ -327,6 +339,10 @@ public final class Pass3bVerifier extends PassVerifier{
 
             icv.setMethodGen(mg);
 
+            if (! (mg.isAbstract() || mg.isNative()) && typeCheck(jc, methods[method_no], mg, icv, ev)){
+                return VerificationResult.VR_OK;
+            }
+
             ////////////// DFA BEGINS HERE ////////////////
             if (! (mg.isAbstract() || mg.isNative()) ){ // IF mg HAS CODE (See pass 2)
 
@@ -336,11 +352,11 @@ public final class Pass3bVerifier extends PassVerifier{
                 Frame f = new Frame(mg.getMaxLocals(),mg.getMaxStack());
                 if ( !mg.isStatic() ){
                     if (mg.getName().equals(Constants.CONSTRUCTOR_NAME)){
-                        Frame._this = new UninitializedObjectType(ObjectType.getInstance(jc.getClassName()));
-                        f.getLocals().set(0, Frame._this);
+                        Frame.setThis(new UninitializedObjectType(ObjectType.getInstance(jc.getClassName())));
+                        f.getLocals().set(0, Frame.getThis());
                     }
                     else{
-                        Frame._this = null;
+                        Frame.setThis(null);
                         f.getLocals().set(0, ObjectType.getInstance(jc.getClassName()));
                     }
                 }
@@ -372,6 +388,9 @@ public final class Pass3bVerifier extends PassVerifier{
 
             throw new AssertionViolatedException("Some RuntimeException occured while verify()ing class '"+jc.getClassName()+"', method '"+methods[method_no]+"'. Original RuntimeException's stack trace:\n---\n"+sw+"---\n", re);
         }
+        finally{
+            Frame.setThis(null);
+        }
         return VerificationResult.VR_OK;
     }
 
@@ -379,4 +398,12 @@ public final class Pass3bVerifier extends PassVerifier{
     public int getMethodNo(){
         return method_no;
     }
+
+    /**
+     * Returns whether this verifier type checks against the StackMapTable,
+     * as the owning Verifier did when instantiating it.
+     */
+    public boolean isTypeChecking(){
+        return typeChecking;
+    }
 }
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.verifier.structurals;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.classfile.Attribute;
+import org.apache.commons.bcel6.classfile.Code;
+import org.apache.commons.bcel6.classfile.ConstantClass;
+import org.apache.commons.bcel6.classfile.ConstantPool;
+import org.apache.commons.bcel6.classfile.ConstantUtf8;
+import org.apache.commons.bcel6.classfile.Method;
+import org.apache.commons.bcel6.classfile.StackMapTable;
+import org.apache.commons.bcel6.classfile.StackMapTableEntry;
+import org.apache.commons.bcel6.classfile.StackMapType;
+import org.apache.commons.bcel6.generic.ARETURN;
+import org.apache.commons.bcel6.generic.ATHROW;
+import org.apache.commons.bcel6.generic.BranchInstruction;
+import org.apache.commons.bcel6.generic.CodeExceptionGen;
+import org.apache.commons.bcel6.generic.ConstantPoolGen;
+import org.apache.commons.bcel6.generic.GotoInstruction;
+import org.apache.commons.bcel6.generic.Instruction;
+import org.apache.commons.bcel6.generic.InstructionHandle;
+import org.apache.commons.bcel6.generic.JsrInstruction;
+import org.apache.commons.bcel6.generic.MethodGen;
+import org.apache.commons.bcel6.generic.NEW;
+import org.apache.commons.bcel6.generic.ObjectType;
+import org.apache.commons.bcel6.generic.RET;
+import org.apache.commons.bcel6.generic.ReferenceType;
+import org.apache.commons.bcel6.generic.ReturnInstruction;
+import org.apache.commons.bcel6.generic.Select;
+import org.apache.commons.bcel6.generic.Type;
+import org.apache.commons.bcel6.verifier.exc.AssertionViolatedException;
+import org.apache.commons.bcel6.verifier.exc.StructuralCodeConstraintException;
+
+/**
+ * Verifies the code of a method by type checking, as described in The Java
+ * Virtual Machine Specification, Java SE 7 Edition, section 4.10.1.
+ * Instead of inferring the types by a fix point iteration like
+ * Pass3bVerifier.circulationPump() does, the frames declared by the
+ * StackMapTable attribute are taken for granted at the branch targets
+ * and exception handlers; every instruction is then checked exactly once,
+ * in code order, against the frame falling through to it.
+ * The same InstConstraintVisitor and ExecutionVisitor as for type inference
+ * are used to check and execute the single instructions.
+ * A violation is reported by throwing a StructuralCodeConstraintException.
+ *
+ * @version $Id$
+ * @see Pass3bVerifier
+ */
+final class StackMapTypeChecker{
+
+    /** The first class file version that must be verified by type checking. */
+    static final int TYPE_CHECKING_MAJOR = 51;
+
+    private final MethodGen mg;
+    private final ConstantPoolGen cpg;
+    private final InstConstraintVisitor icv;
+    private final ExecutionVisitor ev;
+    private final StackMapTableEntry[] entries;
+
+    /** The type of 'this' in an instance initialization method, otherwise null. */
+    private final UninitializedObjectType uninitialized_this;
+
+    /**
+     * The uninitialized objects created by the NEW instructions. Key: The offset
+     * of the NEW instruction. There is one instance per offset, so the
+     * ExecutionVisitor can initialize all of its copies by identity.
+     */
+    private final Map<Integer, UninitializedObjectType> uninitialized = new HashMap<Integer, UninitializedObjectType>();
+
+    /** The TypeTable shared by all the frames of the method. */
+    private final TypeTable table = new TypeTable();
+
+    /**
+     * Creates a StackMapTypeChecker for the given method. The InstConstraintVisitor and
+     * ExecutionVisitor must have been set up for the MethodGen.
+     */
+    StackMapTypeChecker(MethodGen mg, Method method, InstConstraintVisitor icv, ExecutionVisitor ev){
+        this.mg = mg;
+        this.cpg = mg.getConstantPool();
+        this.icv = icv;
+        this.ev = ev;
+        this.entries = getStackMapTable(method.getCode());
+        if (!mg.isStatic() && mg.getName().equals(Constants.CONSTRUCTOR_NAME)){
+            uninitialized_this = new UninitializedObjectType(ObjectType.getInstance(mg.getClassName()));
+        }
+        else{
+            uninitialized_this = null;
+        }
+    }
+
+    /**
+     * Returns true if methods of a class file of the given version with the given code
+     * are to be verified by type checking: class files of version 51 and later always
+     * are; those of version 50 only if they have a StackMapTable.
+     */
+    static boolean isApplicable(int major, Code code){
+        if (code == null){
+            return false;
+        }
+        if (major >= TYPE_CHECKING_MAJOR){
+            return true;
+        }
+        return (major == Constants.MAJOR_1_6) && (getStackMapTable(code).length > 0);
+    }
+
+    /**
+     * Returns the entries of the StackMapTable attribute of the given code,
+     * or an empty array if there is none.
+     */
+    private static StackMapTableEntry[] getStackMapTable(Code code){
+        for (Attribute a : code.getAttributes()){
+            if (a instanceof StackMapTable){
+                return ((StackMapTable) a).getStackMapTable();
+            }
+        }
+        return new StackMapTableEntry[0];
+    }
+
+    /**
+     * Type checks the code of the method.
+     *
+     * @throws StructuralCodeConstraintException if the code is not type safe.
+     */
+    void check(){
+        List<Type> initialLocals = getInitialLocals();
+        Map<Integer, Frame> frames = decodeFrames(initialLocals);
+        CodeExceptionGen[] handlers = mg.getExceptionHandlers();
+
+        Frame current = toFrame(initialLocals, new ArrayList<Type>());
+        Frame.setThis(uninitialized_this);
+        boolean reachable = true;
+        int matched = 0;
+        for (InstructionHandle ih = mg.getInstructionList().getStart(); ih != null; ih = ih.getNext()){
+            int pc = ih.getPosition();
+            Instruction inst = ih.getInstruction();
+            Frame declared = frames.get(Integer.valueOf(pc));
+            if (declared != null){
+                matched++;
+                if (reachable){
+                    assertAssignable(current, declared, "falling through to offset "+pc);
+                }
+                current = declared.getClone();
+                Frame.setThis(containsThis(current) ? uninitialized_this : null);
+            }
+            else if (!reachable){
+                throw new StructuralCodeConstraintException("Instruction '"+ih+"' follows an unconditional branch but there is no stack map frame for it.");
+            }
+
+            for (CodeExceptionGen handler : handlers){
+                if ((handler.getStartPC().getPosition() <= pc) && (pc <= handler.getEndPC().getPosition())){
+                    checkHandler(current, handler, frames);
+                }
+            }
+
+            if ((inst instanceof JsrInstruction) || (inst instanceof RET)){
+                throw new StructuralCodeConstraintException("Instruction '"+ih+"' must not occur in code verified by type checking.");
+            }
+
+            Frame working = current.getClone();
+            try{
+                icv.setFrame(working);
+                ih.accept(icv);
+                if ((inst instanceof ARETURN) && !isAssignable(current.getStack().peek(), mg.getReturnType())){
+                    throw new StructuralCodeConstraintException("Returned type "+current.getStack().peek()+" is not assignable to the method's return type "+mg.getReturnType()+".");
+                }
+                ev.setFrame(working);
+                ih.accept(ev);
+                if (inst instanceof NEW){
+                    working.getStack().pop();
+                    working.getStack().push(getUninitialized(pc));
+                }
+
+                if (inst instanceof BranchInstruction){
+                    BranchInstruction branch = (BranchInstruction) inst;
+                    assertTarget(working, branch.getTarget(), frames);
+                    if (branch instanceof Select){
+                        for (InstructionHandle target : ((Select) branch).getTargets()){
+                            assertTarget(working, target, frames);
+                        }
+                    }
+                }
+            }
+            catch(StructuralCodeConstraintException ce){
+                ce.extendMessage("","\nInstructionHandle: "+ih+"\n");
+                ce.extendMessage("","\nExecution Frame:\n"+current);
+                throw ce;
+            }
+            reachable = !((inst instanceof GotoInstruction) || (inst instanceof ReturnInstruction) || (inst instanceof ATHROW) || (inst instanceof Select));
+            current = working;
+        }
+        if (reachable){
+            throw new StructuralCodeConstraintException("Execution falls off the end of the code.");
+        }
+        if (matched != frames.size()){
+            throw new StructuralCodeConstraintException("The StackMapTable has frames at offsets that do not start an instruction.");
+        }
+    }
+
+    /**
+     * Checks that the locals of the given frame with the exception on the stack
+     * are assignable to the frame declared for the handler.
+     */
+    private void checkHandler(Frame current, CodeExceptionGen handler, Map<Integer, Frame> frames){
+        ObjectType catchType = handler.getCatchType();
+        Frame exc = new Frame(current.getLocals().getClone(), new OperandStack(mg.getMaxStack(), (catchType == null) ? Type.THROWABLE : catchType, current.getLocals().getTypeTable()));
+        int pc = handler.getHandlerPC().getPosition();
+        Frame declared = frames.get(Integer.valueOf(pc));
+        if (declared == null){
+            throw new StructuralCodeConstraintException("There is no stack map frame for the exception handler at offset "+pc+".");
+        }
+        assertAssignable(exc, declared, "entering the exception handler at offset "+pc);
+    }
+
+    /**
+     * Checks that the frame is assignable to the frame declared for the branch target.
+     */
+    private void assertTarget(Frame frame, InstructionHandle target, Map<Integer, Frame> frames){
+        int pc = target.getPosition();
+        Frame declared = frames.get(Integer.valueOf(pc));
+        if (declared == null){
+            throw new StructuralCodeConstraintException("There is no stack map frame for the branch target at offset "+pc+".");
+        }
+        assertAssignable(frame, declared, "branching to offset "+pc);
+    }
+
+    /**
+     * Checks that every local variable and every operand stack entry of
+     * "from" is assignable to the corresponding one of "to".
+     */
+    private void assertAssignable(Frame from, Frame to, String where){
+        OperandStack fs = from.getStack();
+        OperandStack ts = to.getStack();
+        if (fs.size() != ts.size()){
+            throw new StructuralCodeConstraintException("Operand stack size mismatch when "+where+":\nActual:\n"+fs+"\nStack map frame:\n"+ts);
+        }
+        for (int i=0; i<fs.size(); i++){
+            if (!isAssignable(fs.peek(i), ts.peek(i))){
+                throw new StructuralCodeConstraintException("Operand stack type mismatch when "+where+": '"+fs.peek(i)+"' is not assignable to '"+ts.peek(i)+"'.\nActual:\n"+fs+"\nStack map frame:\n"+ts);
+            }
+        }
+        LocalVariables fl = from.getLocals();
+        LocalVariables tl = to.getLocals();
+        for (int i=0; i<tl.maxLocals(); i++){
+            if (!isAssignable(fl.get(i), tl.get(i))){
+                throw new StructuralCodeConstraintException("Local variable type mismatch when "+where+": local "+i+" '"+fl.get(i)+"' is not assignable to '"+tl.get(i)+"'.\nActual:\n"+fl+"\nStack map frame:\n"+tl);
+            }
+        }
+    }
+
+    /**
+     * Returns true if a value of type "from" may be used where the verification
+     * type "to" is expected. As in The Java Virtual Machine Specification,
+     * every reference type is assignable to an interface type.
+     */
+    private boolean isAssignable(Type from, Type to){
+        if (to == Type.UNKNOWN){
+            return true;
+        }
+        if (from == Type.BOOLEAN || from == Type.BYTE || from == Type.CHAR || from == Type.SHORT){
+            from = Type.INT;
+        }
+        if (to == Type.BOOLEAN || to == Type.BYTE || to == Type.CHAR || to == Type.SHORT){
+            to = Type.INT;
+        }
+        if ((from instanceof UninitializedObjectType) || (to instanceof UninitializedObjectType)){
+            return from == to;
+        }
+        if (from.equals(to)){
+            return true;
+        }
+        if ((from instanceof ReferenceType) && (to instanceof ReferenceType)){
+            if (from == Type.NULL){
+                return true;
+            }
+            try{
+                if ((to instanceof ObjectType) && ((ObjectType) to).referencesInterfaceExact()){
+                    return true;
+                }
+                return ((ReferenceType) from).isAssignmentCompatibleWith(to);
+            }
+            catch (ClassNotFoundException e){
+                // FIXME: maybe not the best way to handle this
+                throw new AssertionViolatedException("Missing class: " + e, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the frame contains the uninitialized 'this'.
+     */
+    private boolean containsThis(Frame frame){
+        if (uninitialized_this == null){
+            return false;
+        }
+        LocalVariables lv = frame.getLocals();
+        for (int i=0; i<lv.maxLocals(); i++){
+            if (lv.get(i) == uninitialized_this){
+                return true;
+            }
+        }
+        OperandStack os = frame.getStack();
+        for (int i=0; i<os.size(); i++){
+            if (os.peek(i) == uninitialized_this){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the verification types of the local variables on method entry,
+     * one per variable (not per slot).
+     */
+    private List<Type> getInitialLocals(){
+        List<Type> locals = new ArrayList<Type>();
+        if (!mg.isStatic()){
+            if (uninitialized_this != null){
+                locals.add(uninitialized_this);
+            }
+            else{
+                locals.add(ObjectType.getInstance(mg.getClassName()));
+            }
+        }
+        for (Type t : mg.getArgumentTypes()){
+            locals.add(t.normalizeForStackOrLocal());
+        }
+        return locals;
+    }
+
+    /**
+     * Decodes the StackMapTable into complete frames. Key: The byte code offset.
+     */
+    private Map<Integer, Frame> decodeFrames(List<Type> initialLocals){
+        Map<Integer, Frame> frames = new HashMap<Integer, Frame>();
+        List<Type> locals = new ArrayList<Type>(initialLocals);
+        int offset = -1;
+        for (StackMapTableEntry entry : entries){
+            offset += entry.getByteCodeOffsetDelta() + 1;
+            int frame_type = entry.getFrameType();
+            List<Type> stack = new ArrayList<Type>();
+            if (frame_type >= Constants.CHOP_FRAME && frame_type <= Constants.CHOP_FRAME_MAX){
+                int chop = Constants.SAME_FRAME_EXTENDED - frame_type;
+                if (chop > locals.size()){
+                    throw new StructuralCodeConstraintException("Stack map frame at offset "+offset+" chops "+chop+" of "+locals.size()+" local variables.");
+                }
+                for (int i=0; i<chop; i++){
+                    locals.remove(locals.size() - 1);
+                }
+            }
+            else if (frame_type >= Constants.APPEND_FRAME && frame_type <= Constants.APPEND_FRAME_MAX){
+                for (StackMapType t : entry.getTypesOfLocals()){
+                    locals.add(toType(t));
+                }
+            }
+            else if (frame_type == Constants.FULL_FRAME){
+                locals.clear();
+                for (StackMapType t : entry.getTypesOfLocals()){
+                    locals.add(toType(t));
+                }
+                for (StackMapType t : entry.getTypesOfStackItems()){
+                    stack.add(toType(t));
+                }
+            }
+            else{ // SAME and SAME_LOCALS_1_STACK_ITEM frames
+                for (StackMapType t : entry.getTypesOfStackItems()){
+                    stack.add(toType(t));
+                }
+            }
+            if (frames.put(Integer.valueOf(offset), toFrame(locals, stack)) != null){
+                throw new StructuralCodeConstraintException("More than one stack map frame at offset "+offset+".");
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Creates a Frame from verification types, one per variable and stack entry.
+     */
+    private Frame toFrame(List<Type> locals, List<Type> stack){
+        LocalVariables lv = new LocalVariables(mg.getMaxLocals(), table);
+        int slot = 0;
+        for (Type t : locals){
+            if (slot + t.getSize() > mg.getMaxLocals()){
+                throw new StructuralCodeConstraintException("Stack map frame has more local variables than max_locals "+mg.getMaxLocals()+".");
+            }
+            lv.set(slot++, t);
+            if (t.getSize() == 2){
+                lv.set(slot++, Type.UNKNOWN);
+            }
+        }
+        OperandStack os = new OperandStack(mg.getMaxStack(), table);
+        int slots = 0;
+        for (Type t : stack){
+            slots += t.getSize();
+            if (slots > mg.getMaxStack()){
+                throw new StructuralCodeConstraintException("Stack map frame has more operand stack entries than max_stack "+mg.getMaxStack()+".");
+            }
+            os.push(t);
+        }
+        return new Frame(lv, os);
+    }
+
+    /**
+     * Converts a verification type of the StackMapTable.
+     */
+    private Type toType(StackMapType t){
+        switch (t.getType()){
+            case Constants.ITEM_Bogus:
+                return Type.UNKNOWN;
+            case Constants.ITEM_Integer:
+                return Type.INT;
+            case Constants.ITEM_Float:
+                return Type.FLOAT;
+            case Constants.ITEM_Double:
+                return Type.DOUBLE;
+            case Constants.ITEM_Long:
+                return Type.LONG;
+            case Constants.ITEM_Null:
+                return Type.NULL;
+            case Constants.ITEM_InitObject:
+                if (uninitialized_this == null){
+                    throw new StructuralCodeConstraintException("Stack map frame uses uninitializedThis outside of an instance initialization method.");
+                }
+                return uninitialized_this;
+            case Constants.ITEM_Object:
+                ConstantPool cp = t.getConstantPool();
+                ConstantClass cc = (ConstantClass) cp.getConstant(t.getIndex(), Constants.CONSTANT_Class);
+                String name = ((ConstantUtf8) cp.getConstant(cc.getNameIndex(), Constants.CONSTANT_Utf8)).getBytes();
+                if (name.startsWith("[")){
+                    return Type.getType(name);
+                }
+                return ObjectType.getInstance(name.replace('/', '.'));
+            case Constants.ITEM_NewObject:
+                return getUninitialized(t.getIndex());
+            default:
+                throw new StructuralCodeConstraintException("Illegal verification type in stack map frame: "+t.getType()+".");
+        }
+    }
+
+    /**
+     * Returns the type of the object created by the NEW instruction at the given offset.
+     */
+    private UninitializedObjectType getUninitialized(int offset){
+        Integer key = Integer.valueOf(offset);
+        UninitializedObjectType u = uninitialized.get(key);
+        if (u == null){
+            InstructionHandle ih = mg.getInstructionList().findHandle(offset);
+            if ((ih == null) || !(ih.getInstruction() instanceof NEW)){
+                throw new StructuralCodeConstraintException("Stack map frame refers to an uninitialized object created at offset "+offset+", but there is no NEW instruction.");
+            }
+            u = new UninitializedObjectType(((NEW) ih.getInstruction()).getLoadClassType(cpg));
+            uninitialized.put(key, u);
+        }
+        return u;
+    }
+}
@@ -17,18 +17,15 @@
  */ 
 package org.apache.commons.bcel6.verifier.structurals;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.bcel6.generic.ASTORE;
-import org.apache.commons.bcel6.generic.ATHROW;
-import org.apache.commons.bcel6.generic.BranchInstruction;
 import org.apache.commons.bcel6.generic.CodeExceptionGen;
-import org.apache.commons.bcel6.generic.GotoInstruction;
+import org.apache.commons.bcel6.generic.FlowGraph;
 import org.apache.commons.bcel6.generic.IndexedInstruction;
 import org.apache.commons.bcel6.generic.Instruction;
 import org.apache.commons.bcel6.generic.InstructionHandle;
@@ -36,8 +33,6 @@ import org.apache.commons.bcel6.generic.JsrInstruction;
 import org.apache.commons.bcel6.generic.LocalVariableInstruction;
 import org.apache.commons.bcel6.generic.MethodGen;
 import org.apache.commons.bcel6.generic.RET;
-import org.apache.commons.bcel6.generic.ReturnInstruction;
-import org.apache.commons.bcel6.generic.Select;
 import org.apache.commons.bcel6.verifier.exc.AssertionViolatedException;
 import org.apache.commons.bcel6.verifier.exc.StructuralCodeConstraintException;
 
@@ -335,9 +330,9 @@ public class Subroutines{
     }// end Inner Class SubrouteImpl
 
     //Node coloring constants
-    private static final Integer WHITE = Integer.valueOf(0);
-    private static final Integer GRAY = Integer.valueOf(1);
-    private static final Integer BLACK = Integer.valueOf(2);
+    private static final int WHITE = 0;
+    private static final int GRAY = 1;
+    private static final int BLACK = 2;
 
     /**
      * The map containing the subroutines found.
@@ -360,6 +355,16 @@ public class Subroutines{
      * create the Subroutine objects of.
      */
     public Subroutines(MethodGen mg){
+        this(mg, mg.getFlowGraph());
+    }
+
+    /**
+     * Constructor.
+     * @param mg A MethodGen object representing method to
+     * create the Subroutine objects of.
+     * @param graph The FlowGraph of the current code of mg.
+     */
+    Subroutines(MethodGen mg, FlowGraph graph){
 
         InstructionHandle[] all = mg.getInstructionList().getInstructionHandles();
         CodeExceptionGen[] handlers = mg.getExceptionHandlers();
@@ -402,52 +407,55 @@ public class Subroutines{
 
         // Now do a BFS from every subroutine leader to find all the
         // instructions that belong to a subroutine.
-        Set<InstructionHandle> instructions_assigned = new HashSet<InstructionHandle>(); // we don't want to assign an instruction to two or more Subroutine objects.
+        // The instructions are identified by their index in the FlowGraph.
+        boolean[] instructions_assigned = new boolean[all.length]; // we don't want to assign an instruction to two or more Subroutine objects.
 
-        Map<InstructionHandle, Integer> colors = new HashMap<InstructionHandle, Integer>(); //Graph colouring. Key: InstructionHandle, Value: Integer .
+        int[] colors = new int[all.length]; //Graph colouring. Index: instruction index.
 
-        List<InstructionHandle> Q = new ArrayList<InstructionHandle>();        
+        int[] Q = new int[all.length + handlers.length]; // every instruction is queued once, handlers maybe twice
         for (InstructionHandle actual : sub_leaders) {
             // Do some BFS with "actual" as the root of the graph.
             // Init colors
-            for (InstructionHandle element : all) {
-                colors.put(element, WHITE);
-            }
-            colors.put(actual, GRAY);
+            Arrays.fill(colors, WHITE);
+            int root = graph.indexOf(actual);
+            colors[root] = GRAY;
             // Init Queue
-
-            Q.clear();
-            Q.add(actual); // add(Obj) adds to the end, remove(0) removes from the start.
+            int head = 0;
+            int tail = 0;
+            Q[tail++] = root;
 
             /* BFS ALGORITHM MODIFICATION: Start out with multiple "root" nodes, as exception handlers are starting points of top-level code, too. [why top-level? TODO: Refer to the special JustIce notion of subroutines.]*/
             if (actual == all[0]){
                 for (CodeExceptionGen handler : handlers) {
-                    colors.put(handler.getHandlerPC(), GRAY);
-                    Q.add(handler.getHandlerPC());
+                    int handler_pc = graph.indexOf(handler.getHandlerPC());
+                    colors[handler_pc] = GRAY;
+                    Q[tail++] = handler_pc;
                 }
             }
             /* CONTINUE NORMAL BFS ALGORITHM */
 
             // Loop until Queue is empty
-            while (Q.size() != 0){
-                InstructionHandle u = Q.remove(0);
-                InstructionHandle[] successors = getSuccessors(u);
-                for (InstructionHandle successor : successors) {
-                    if (colors.get(successor) == WHITE){
-                        colors.put(successor, GRAY);
-                        Q.add(successor);
+            while (head != tail){
+                int u = Q[head++];
+                if (colors[u] == BLACK){ // a handler queued twice
+                    continue;
+                }
+                for (int successor : getSuccessors(graph, u)) {
+                    if (colors[successor] == WHITE){
+                        colors[successor] = GRAY;
+                        Q[tail++] = successor;
                     }
                 }
-                colors.put(u, BLACK);
+                colors[u] = BLACK;
             }
             // BFS ended above.
-            for (InstructionHandle element : all) {
-                if (colors.get(element) == BLACK){
-                    ((SubroutineImpl) (actual==all[0]?getTopLevel():getSubroutine(actual))).addInstruction(element);
-                    if (instructions_assigned.contains(element)){
-                        throw new StructuralCodeConstraintException("Instruction '"+element+"' is part of more than one subroutine (or of the top level and a subroutine).");
+            for (int i = 0; i < all.length; i++) {
+                if (colors[i] == BLACK){
+                    ((SubroutineImpl) (actual==all[0]?getTopLevel():getSubroutine(actual))).addInstruction(all[i]);
+                    if (instructions_assigned[i]){
+                        throw new StructuralCodeConstraintException("Instruction '"+all[i]+"' is part of more than one subroutine (or of the top level and a subroutine).");
                     }
-                    instructions_assigned.add(element);
+                    instructions_assigned[i] = true;
                 }
             }
             if (actual != all[0]){// If we don't deal with the top-level 'subroutine'
@@ -568,62 +576,18 @@ System.err.println("DEBUG: Please verify '"+any.toString(true)+"' lies in dead c
         return TOPLEVEL;
     }
     /**
-     * A utility method that calculates the successors of a given InstructionHandle
+     * A utility method that calculates the successors of a given instruction
      * <B>in the same subroutine</B>. That means, a RET does not have any successors
      * as defined here. A JsrInstruction has its physical successor as its successor
      * (opposed to its target) as defined here.
+     * Returns, ATHROW and RET don't have successors in the FlowGraph either.
      */
-    private static InstructionHandle[] getSuccessors(InstructionHandle instruction){
-        final InstructionHandle[] empty = new InstructionHandle[0];
-        final InstructionHandle[] single = new InstructionHandle[1];
-
-        Instruction inst = instruction.getInstruction();
-
-        if (inst instanceof RET){
-            return empty;
+    private static int[] getSuccessors(FlowGraph graph, int index){
+        if (graph.getInstructionHandle(index).getInstruction() instanceof JsrInstruction){
+            // See method comment.
+            return (index + 1 < graph.getInstructionCount()) ? new int[]{ index + 1 } : new int[0];
         }
-
-        // Terminates method normally.
-        if (inst instanceof ReturnInstruction){
-            return empty;
-        }
-
-        // Terminates method abnormally, because JustIce mandates
-        // subroutines not to be protected by exception handlers.
-        if (inst instanceof ATHROW){
-            return empty;
-        }
-
-        // See method comment.
-        if (inst instanceof JsrInstruction){
-            single[0] = instruction.getNext();
-            return single;
-        }
-
-        if (inst instanceof GotoInstruction){
-            single[0] = ((GotoInstruction) inst).getTarget();
-            return single;
-        }
-
-        if (inst instanceof BranchInstruction){
-            if (inst instanceof Select){
-                // BCEL's getTargets() returns only the non-default targets,
-                // thanks to Eli Tilevich for reporting.
-                InstructionHandle[] matchTargets = ((Select) inst).getTargets();
-                InstructionHandle[] ret = new InstructionHandle[matchTargets.length+1];
-                ret[0] = ((Select) inst).getTarget();
-                System.arraycopy(matchTargets, 0, ret, 1, matchTargets.length);
-                return ret;
-            }
-            final InstructionHandle[] pair = new InstructionHandle[2];
-            pair[0] = instruction.getNext();
-            pair[1] = ((BranchInstruction) inst).getTarget();
-            return pair;
-        }
-
-        // default case: Fall through.        
-        single[0] = instruction.getNext();
-        return single;
+        return graph.getInstructionSuccessors(index);
     }
 
     /**
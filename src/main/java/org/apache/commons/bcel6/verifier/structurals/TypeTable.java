@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.commons.bcel6.verifier.structurals;
+
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.commons.bcel6.generic.ReferenceType;
+import org.apache.commons.bcel6.generic.Type;
+
+/**
+ * A TypeTable interns the Type objects of the frames of one method to int
+ * IDs, so LocalVariables and OperandStack can keep their slots in int arrays
+ * that are cheap to copy and compare.
+ * All frames cloned from each other share the same TypeTable.
+ * Equal types get the same ID, except for UninitializedObjectType instances,
+ * which are told apart by identity as ExecutionVisitor initializes them
+ * by identity. The common superclasses computed while merging frames are
+ * memoised.
+ * A TypeTable is not thread-safe, like the frames using it.
+ *
+ * @version $Id$
+ */
+final class TypeTable{
+
+    /** The ID of Type.UNKNOWN. */
+    static final int UNKNOWN = 0;
+
+    /** The types. Index: The ID. */
+    private Type[] types = new Type[16];
+
+    /** The number of types. */
+    private int size;
+
+    /** The IDs of the Type instances seen so far. */
+    private final Map<Type, Integer> identities = new IdentityHashMap<Type, Integer>();
+
+    /** The IDs of the types, except for UninitializedObjectType instances. */
+    private final Map<Type, Integer> ids = new HashMap<Type, Integer>();
+
+    /** The memoised common superclasses. Key: Both IDs, the smaller one in the upper half. */
+    private final Map<Long, Integer> common_superclasses = new HashMap<Long, Integer>();
+
+    TypeTable(){
+        intern(Type.UNKNOWN);
+    }
+
+    /**
+     * Returns the ID of the given type, assigning a new one if needed.
+     */
+    int intern(Type type){
+        Integer id = identities.get(type);
+        if (id != null){
+            return id.intValue();
+        }
+        if (!(type instanceof UninitializedObjectType)){
+            id = ids.get(type);
+        }
+        if (id == null){
+            if (size == types.length){
+                Type[] grown = new Type[2*size];
+                System.arraycopy(types, 0, grown, 0, size);
+                types = grown;
+            }
+            types[size] = type;
+            id = Integer.valueOf(size++);
+            if (!(type instanceof UninitializedObjectType)){
+                ids.put(type, id);
+            }
+        }
+        identities.put(type, id);
+        return id.intValue();
+    }
+
+    /**
+     * Returns the ID of the given type, or -1 if it was not interned
+     * before. Does not assign a new ID.
+     */
+    int find(Type type){
+        Integer id = identities.get(type);
+        if ((id == null) && !(type instanceof UninitializedObjectType)){
+            id = ids.get(type);
+        }
+        return (id == null) ? -1 : id.intValue();
+    }
+
+    /**
+     * Returns the type with the given ID.
+     */
+    Type type(int id){
+        return types[id];
+    }
+
+    /**
+     * Returns the ID of the first common superclass of the reference types
+     * with the given IDs, or -1 if there is none.
+     *
+     * @see ReferenceType#getFirstCommonSuperclass(ReferenceType)
+     */
+    int getFirstCommonSuperclass(int a, int b) throws ClassNotFoundException{
+        Long key = (a < b) ? Long.valueOf(((long) a << 32) | b) : Long.valueOf(((long) b << 32) | a);
+        Integer id = common_superclasses.get(key);
+        if (id == null){
+            Type sup = ((ReferenceType) types[a]).getFirstCommonSuperclass((ReferenceType) types[b]);
+            id = Integer.valueOf((sup == null) ? -1 : intern(sup));
+            common_superclasses.put(key, id);
+        }
+        return id.intValue();
+    }
+}
@@ -24,11 +24,14 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 import org.apache.commons.bcel6.classfile.ClassParser;
+import org.apache.commons.bcel6.classfile.Code;
 import org.apache.commons.bcel6.classfile.JavaClass;
 import org.apache.commons.bcel6.classfile.Method;
 import org.apache.commons.bcel6.generic.ClassGen;
 import org.apache.commons.bcel6.generic.InstructionList;
 import org.apache.commons.bcel6.generic.MethodGen;
+import org.apache.commons.bcel6.verifier.Verifier;
+import org.apache.commons.bcel6.verifier.VerifierFactory;
 import org.apache.commons.collections4.Predicate;
 import org.apache.commons.collections4.iterators.EnumerationIterator;
 import org.apache.commons.collections4.iterators.FilterIterator;
@@ -122,4 +125,33 @@ public class BCELBenchmark {
 
         jar.close();
     }
+
+    /**
+     * Structural verification (pass 3b) of the large methods, whose
+     * data flow analysis dominates the verification time.
+     */
+    @Benchmark
+    public void verifier(Blackhole bh) throws IOException {
+        JarFile jar = getJarFile();
+
+        for (JarEntry entry : getClasses(jar)) {
+            byte[] bytes = IOUtils.toByteArray(jar.getInputStream(entry));
+
+            JavaClass clazz = new ClassParser(new ByteArrayInputStream(bytes), entry.getName()).parse();
+            Repository.addClass(clazz);
+
+            Verifier verifier = VerifierFactory.getVerifier(clazz.getClassName());
+            Method[] methods = clazz.getMethods();
+            for (int i = 0; i < methods.length; i++) {
+                Code code = methods[i].getCode();
+                if (code != null && code.getCode().length >= 1000) {
+                    bh.consume(verifier.doPass3b(i));
+                }
+            }
+            verifier.flush();
+            Repository.removeClass(clazz);
+        }
+
+        jar.close();
+    }
 }
@@ -103,8 +103,7 @@ public final class PerformanceTest extends TestCase {
                     mserTime.start();
                     if (il != null) {
                         mg.getInstructionList().setPositions();
-                        mg.setMaxLocals();
-                        mg.setMaxStack();
+                        mg.setMaxStackAndLocals();
                     }
                     cg.replaceMethod(m, mg.getMethod());
                     mserTime.stop();
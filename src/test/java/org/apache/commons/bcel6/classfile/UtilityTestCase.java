@@ -28,4 +28,21 @@ public class UtilityTestCase extends TestCase {
         assertEquals("generic signature", "java.util.Set<? extends java.nio.file.OpenOption>", Utility.signatureToString("Ljava/util/Set<+Ljava/nio/file/OpenOption;>;"));
         assertEquals("generic signature", "java.nio.file.attribute.FileAttribute<?>...[]", Utility.signatureToString("[Ljava/nio/file/attribute/FileAttribute<*>;"));
     }
+
+    public void testEncodeDecode() throws Exception {
+        byte[] plain = { 'a', 'b', 0, '$', (byte) 0xff, '_' };
+        assertEquals("ab$A$q$ff_", Utility.encode(plain, false));
+        assertTrue(java.util.Arrays.equals(plain, Utility.decode("ab$A$q$ff_", false)));
+        byte[] bytes = new byte[256 * 40];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i < 256 ? i : 0); // Compresses very well
+        }
+        for (boolean compress : new boolean[] { false, true }) {
+            String encoded = Utility.encode(bytes, compress);
+            for (int i = 0; i < encoded.length(); i++) {
+                assertTrue(Character.isJavaIdentifierPart(encoded.charAt(i)));
+            }
+            assertTrue(java.util.Arrays.equals(bytes, Utility.decode(encoded, compress)));
+        }
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.commons.bcel6.generic;
+
+import org.apache.commons.bcel6.classfile.Constant;
+import org.apache.commons.bcel6.classfile.ConstantMethodref;
+
+import junit.framework.TestCase;
+
+public class ConstantPoolGenTestCase extends TestCase {
+
+    public void testInvokeStackEffect() {
+        ConstantPoolGen cp = new ConstantPoolGen();
+        int index = cp.addMethodref("Foo", "bar", "(IJLjava/lang/String;)D");
+        INVOKEVIRTUAL invoke = new INVOKEVIRTUAL(index);
+        assertEquals(5, invoke.consumeStack(cp));
+        assertEquals(2, invoke.produceStack(cp));
+        assertEquals(Type.DOUBLE, invoke.getReturnType(cp));
+        Type[] args = invoke.getArgumentTypes(cp);
+        assertEquals(3, args.length);
+        assertEquals(Type.STRING, args[2]);
+
+        // Modifying the returned array must not affect the cached entry
+        args[2] = Type.INT;
+        assertEquals(Type.STRING, invoke.getArgumentTypes(cp)[2]);
+
+        INVOKESTATIC invokeStatic = new INVOKESTATIC(index);
+        assertEquals(4, invokeStatic.consumeStack(cp));
+    }
+
+    public void testFieldStackEffect() {
+        ConstantPoolGen cp = new ConstantPoolGen();
+        int index = cp.addFieldref("Foo", "baz", "J");
+        assertEquals(2, new GETSTATIC(index).produceStack(cp));
+        assertEquals(3, new PUTFIELD(index).consumeStack(cp));
+        assertEquals(Type.LONG, new GETFIELD(index).getFieldType(cp));
+    }
+
+    public void testOverwrittenSlot() {
+        ConstantPoolGen cp = new ConstantPoolGen();
+        int index = cp.addMethodref("Foo", "bar", "()V");
+        INVOKEVIRTUAL invoke = new INVOKEVIRTUAL(index);
+        assertEquals(0, invoke.produceStack(cp));
+
+        // The intermediate constant pool shares its slots with the generator
+        int nat = cp.addNameAndType("bar", "()J");
+        Constant[] constants = cp.getConstantPool().getConstantPool();
+        constants[index] = new ConstantMethodref(((ConstantMethodref) constants[index]).getClassIndex(), nat);
+        assertEquals(2, invoke.produceStack(cp));
+        assertEquals(Type.LONG, invoke.getReturnType(cp));
+    }
+}
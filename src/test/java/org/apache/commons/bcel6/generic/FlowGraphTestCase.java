@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.bcel6.generic;
+
+import java.util.Arrays;
+
+import org.apache.commons.bcel6.Constants;
+
+import junit.framework.TestCase;
+
+public class FlowGraphTestCase extends TestCase {
+
+    private InstructionList il;
+    private MethodGen mg;
+
+    /**
+     * Builds
+     * <pre>
+     *  0: iconst_0      block 0
+     *  1: istore_0
+     *  2: iload_0       block 1, loop header
+     *  3: bipush 10
+     *  4: if_icmpge 7
+     *  5: iinc 0 1      block 2, protected by the handler at 9
+     *  6: goto 2
+     *  7: iload_0       block 3
+     *  8: ireturn
+     *  9: pop           block 4, handler
+     * 10: iconst_m1
+     * 11: ireturn
+     * </pre>
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ConstantPoolGen cp = new ConstantPoolGen();
+        il = new InstructionList();
+        il.append(new ICONST(0));
+        il.append(new ISTORE(0));
+        InstructionHandle head = il.append(new ILOAD(0));
+        il.append(new BIPUSH((byte) 10));
+        BranchHandle exit = il.append(new IF_ICMPGE(null));
+        InstructionHandle body = il.append(new IINC(0, 1));
+        InstructionHandle back = il.append(new GOTO(head));
+        InstructionHandle end = il.append(new ILOAD(0));
+        exit.setTarget(end);
+        il.append(InstructionConstants.IRETURN);
+        InstructionHandle handler = il.append(InstructionConstants.POP);
+        il.append(new ICONST(-1));
+        il.append(InstructionConstants.IRETURN);
+        mg = new MethodGen(Constants.ACC_STATIC, Type.INT, Type.NO_ARGS, new String[0], "loop", "Foo", il, cp);
+        mg.addExceptionHandler(body, back, handler, null);
+    }
+
+    private void assertBlocks(String message, int[] expected, int[] actual) {
+        int[] sorted = actual.clone();
+        Arrays.sort(sorted);
+        assertEquals(message, Arrays.toString(expected), Arrays.toString(sorted));
+    }
+
+    public void testBlocks() {
+        FlowGraph graph = mg.getFlowGraph();
+        assertEquals("instruction count", 12, graph.getInstructionCount());
+        assertEquals("block count", 5, graph.getBlockCount());
+        int[] starts = { 0, 2, 5, 7, 9 };
+        int[] ends = { 1, 4, 6, 8, 11 };
+        for (int b = 0; b < starts.length; b++) {
+            assertEquals("start of block " + b, starts[b], graph.getBlockStart(b));
+            assertEquals("end of block " + b, ends[b], graph.getBlockEnd(b));
+        }
+        assertEquals("block of if_icmpge", 1, graph.getBlockOf(4));
+        assertEquals("index of the loop head", 2, graph.indexOf(graph.getInstructionHandle(2)));
+    }
+
+    public void testIndexOfForeignHandle() {
+        FlowGraph graph = mg.getFlowGraph();
+        try {
+            graph.indexOf(new InstructionList(InstructionConstants.NOP).getStart());
+            fail("foreign instruction accepted");
+        } catch (ClassGenException expected) {
+            // expected
+        }
+    }
+
+    public void testSuccessors() {
+        FlowGraph graph = mg.getFlowGraph();
+        assertBlocks("instruction successors of if_icmpge", new int[] { 5, 7 }, graph.getInstructionSuccessors(4));
+        assertBlocks("instruction successors of goto", new int[] { 2 }, graph.getInstructionSuccessors(6));
+        assertBlocks("instruction successors of ireturn", new int[0], graph.getInstructionSuccessors(8));
+        assertBlocks("successors of block 0", new int[] { 1 }, graph.getSuccessors(0));
+        assertBlocks("successors of block 1", new int[] { 2, 3 }, graph.getSuccessors(1));
+        assertBlocks("successors of block 2", new int[] { 1 }, graph.getSuccessors(2));
+        assertBlocks("successors of block 3", new int[0], graph.getSuccessors(3));
+        assertBlocks("exception successors of block 2", new int[] { 4 }, graph.getExceptionSuccessors(2));
+        assertBlocks("exception successors of block 1", new int[0], graph.getExceptionSuccessors(1));
+        assertBlocks("predecessors of block 1", new int[] { 0, 2 }, graph.getPredecessors(1));
+        assertBlocks("predecessors of block 4", new int[] { 2 }, graph.getPredecessors(4));
+    }
+
+    public void testDominators() {
+        FlowGraph graph = mg.getFlowGraph();
+        int[] idom = { -1, 0, 1, 1, 2 };
+        for (int b = 0; b < idom.length; b++) {
+            assertTrue("block " + b + " reachable", graph.isReachable(b));
+            assertEquals("immediate dominator of block " + b, idom[b], graph.getImmediateDominator(b));
+        }
+        assertTrue(graph.dominates(0, 3));
+        assertTrue(graph.dominates(3, 3));
+        assertFalse(graph.dominates(2, 3));
+        assertFalse(graph.dominates(4, 2));
+    }
+
+    public void testLoops() {
+        FlowGraph graph = mg.getFlowGraph();
+        int[] depth = { 0, 1, 1, 0, 0 };
+        for (int b = 0; b < depth.length; b++) {
+            assertEquals("loop header " + b, b == 1, graph.isLoopHeader(b));
+            assertEquals("loop depth of block " + b, depth[b], graph.getLoopDepth(b));
+        }
+    }
+
+    public void testMaxStack() {
+        mg.setMaxStack();
+        assertEquals("max stack", 2, mg.getMaxStack());
+    }
+
+    public void testCodeChanges() {
+        mg.setMaxStack();
+        il.insert(InstructionConstants.NOP);
+        FlowGraph graph = mg.getFlowGraph();
+        assertEquals("instruction count after insert", 13, graph.getInstructionCount());
+        assertEquals("nop starts block 0", 0, graph.getBlockOf(0));
+        mg.removeExceptionHandlers();
+        graph = mg.getFlowGraph();
+        assertEquals("block count without handler", 5, graph.getBlockCount());
+        assertFalse("orphaned handler reachable", graph.isReachable(4));
+    }
+}
@@ -92,4 +92,22 @@ public class MethodGenTestCase extends TestCase {
         assertNull("scope start", lv.getStart());
         assertNull("scope end", lv.getEnd());
     }
+
+    public void testSetMaxStackAndLocals() throws Exception {
+        JavaClass jc = Repository.lookupClass(InstructionList.class);
+        ConstantPoolGen cp = new ConstantPoolGen(jc.getConstantPool());
+        for (Method method : jc.getMethods()) {
+            if (method.getCode() == null) {
+                continue;
+            }
+            MethodGen separate = new MethodGen(method, jc.getClassName(), cp);
+            separate.setMaxStack();
+            separate.setMaxLocals();
+            MethodGen combined = new MethodGen(method, jc.getClassName(), cp);
+            combined.setMaxStackAndLocals();
+            assertEquals("max stack of " + method, separate.getMaxStack(), combined.getMaxStack());
+            assertEquals("max locals of " + method, separate.getMaxLocals(), combined.getMaxLocals());
+            assertEquals("max stack of " + method, method.getCode().getMaxStack(), combined.getMaxStack());
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.commons.bcel6.generic;
+
+import junit.framework.TestCase;
+
+public class TypeTestCase extends TestCase {
+
+    public void testCanonicalTypes() {
+        assertSame(ObjectType.getInstance("java.lang.String"), Type.getType("Ljava/lang/String;"));
+        assertSame(Type.getType("[[Ljava/lang/Object;"), Type.getType("[[Ljava/lang/Object;"));
+        assertSame(Type.INT, Type.getType("I"));
+        assertSame(Type.getType("[I"), Type.getReturnType("()[I"));
+        assertEquals(new ArrayType(Type.INT, 2), Type.getType("[[I"));
+    }
+
+    public void testArgumentTypes() {
+        Type[] args = Type.getArgumentTypes("(I[JLjava/lang/String;D)V");
+        assertEquals(4, args.length);
+        assertSame(Type.INT, args[0]);
+        assertEquals(new ArrayType(Type.LONG, 1), args[1]);
+        assertSame(Type.STRING, args[2]);
+        assertSame(Type.DOUBLE, args[3]);
+
+        // Callers own the returned array
+        args[0] = Type.FLOAT;
+        assertSame(Type.INT, Type.getArgumentTypes("(I[JLjava/lang/String;D)V")[0]);
+        assertEquals(0, Type.getArgumentTypes("()V").length);
+    }
+
+    public void testTrailingCharacters() {
+        assertEquals(Type.STRING, Type.getType("Ljava/lang/String;I"));
+        assertEquals(Type.INT, Type.getType("II"));
+    }
+
+    public void testAssignmentCompatibility() throws Exception {
+        ObjectType list = ObjectType.getInstance("java.util.List");
+        ObjectType collection = ObjectType.getInstance("java.util.Collection");
+        ObjectType array_list = ObjectType.getInstance("java.util.ArrayList");
+        ObjectType linked_list = ObjectType.getInstance("java.util.LinkedList");
+        assertTrue(array_list.isAssignmentCompatibleWith(array_list));
+        assertTrue(array_list.isAssignmentCompatibleWith(list));
+        assertTrue(array_list.isAssignmentCompatibleWith(Type.OBJECT));
+        assertFalse(array_list.isAssignmentCompatibleWith(linked_list));
+        assertTrue(list.isAssignmentCompatibleWith(collection));
+        assertTrue(list.isAssignmentCompatibleWith(Type.OBJECT));
+        assertFalse(list.isAssignmentCompatibleWith(array_list));
+        assertFalse(collection.isAssignmentCompatibleWith(list));
+        assertFalse(list.isAssignmentCompatibleWith(new ArrayType(Type.OBJECT, 1)));
+        assertTrue(new ArrayType(array_list, 1).isAssignmentCompatibleWith(new ArrayType(list, 1)));
+        assertTrue(Type.NULL.isAssignmentCompatibleWith(list));
+    }
+
+    public void testFirstCommonSuperclass() throws Exception {
+        ObjectType array_list = ObjectType.getInstance("java.util.ArrayList");
+        ObjectType linked_list = ObjectType.getInstance("java.util.LinkedList");
+        ObjectType list = ObjectType.getInstance("java.util.List");
+        assertEquals(ObjectType.getInstance("java.util.AbstractList"), array_list.getFirstCommonSuperclass(linked_list));
+        assertEquals(ObjectType.getInstance("java.util.AbstractList"), linked_list.getFirstCommonSuperclass(array_list));
+        assertEquals(Type.OBJECT, array_list.getFirstCommonSuperclass(list));
+        assertEquals(Type.OBJECT, array_list.getFirstCommonSuperclass(Type.STRING));
+        assertSame(array_list, array_list.getFirstCommonSuperclass(Type.NULL));
+        assertEquals(new ArrayType(ObjectType.getInstance("java.util.AbstractList"), 2),
+                new ArrayType(array_list, 2).getFirstCommonSuperclass(new ArrayType(linked_list, 2)));
+    }
+}
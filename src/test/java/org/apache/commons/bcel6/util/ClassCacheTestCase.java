@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.bcel6.util;
+
+import org.apache.commons.bcel6.classfile.JavaClass;
+
+import junit.framework.TestCase;
+
+public class ClassCacheTestCase extends TestCase {
+
+    private static final String[] NAMES = {
+        "org.apache.commons.bcel6.generic.MethodGen",
+        "org.apache.commons.bcel6.generic.ClassGen",
+        "org.apache.commons.bcel6.generic.InstructionList",
+        "org.apache.commons.bcel6.classfile.JavaClass"
+    };
+
+    // Shared with other tests, so its limits are restored and its contents dropped afterwards
+    private SyntheticRepository repository;
+    private ClassCache cache;
+    private long max_weight;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        repository = SyntheticRepository.getInstance(new ClassPath("target/classes"));
+        cache = repository.getCache();
+        max_weight = cache.getMaxWeight();
+        repository.clear();
+        cache.resetStatistics();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.unpin(NAMES[0]);
+        cache.setMaxWeight(max_weight);
+        repository.clear();
+        super.tearDown();
+    }
+
+    public void testBoundedWeight() throws Exception {
+        long total = 0;
+        JavaClass[] classes = new JavaClass[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            classes[i] = repository.loadClass(NAMES[i]);
+            total += ClassCache.estimateWeight(classes[i]);
+        }
+        assertEquals(NAMES.length, cache.size());
+        assertEquals(total, cache.getWeight());
+
+        cache.pin(NAMES[0]);
+        cache.setMaxWeight(ClassCache.estimateWeight(classes[0]));
+        assertEquals(1, cache.size());
+        assertSame(classes[0], repository.findClass(NAMES[0]));
+        assertNull(repository.findClass(NAMES[1]));
+
+        ClassCache.Statistics stats = cache.getStatistics();
+        assertEquals(NAMES.length - 1, stats.getEvictionCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(NAMES.length + 1, stats.getMissCount());
+
+        // Reloaded after eviction, but dropped again since it doesn't fit
+        assertNotNull(repository.loadClass(NAMES[1]));
+        assertEquals(1, cache.size());
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+    }
+}
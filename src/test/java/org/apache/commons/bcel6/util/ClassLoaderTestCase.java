@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.bcel6.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.Repository;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.classfile.Method;
+import org.apache.commons.bcel6.classfile.Utility;
+import org.apache.commons.bcel6.generic.ClassGen;
+import org.apache.commons.bcel6.generic.InstructionConstants;
+import org.apache.commons.bcel6.generic.InstructionList;
+import org.apache.commons.bcel6.generic.LDC;
+import org.apache.commons.bcel6.generic.MethodGen;
+import org.apache.commons.bcel6.generic.Type;
+
+import junit.framework.TestCase;
+
+public class ClassLoaderTestCase extends TestCase {
+
+    private static final String NAME = "org.apache.commons.bcel6.util.ClassQueue";
+
+    public void testConcurrentLoad() throws Exception {
+        final ClassLoader loader = new ClassLoader();
+        final Class<?>[] loaded = new Class<?>[8];
+        final Exception[] failures = new Exception[loaded.length];
+        Thread[] threads = new Thread[loaded.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        loaded[n] = loader.loadClass(NAME);
+                    } catch (Exception e) {
+                        failures[n] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertNull(failures[i]);
+            assertSame(loaded[0], loaded[i]);
+        }
+        assertSame(loader, loaded[0].getClassLoader());
+
+        // Another loader defines its own class from the same JavaClass
+        Class<?> other = new ClassLoader().loadClass(NAME);
+        assertNotSame(loaded[0], other);
+        assertEquals(NAME, other.getName());
+        assertNotNull(other.getDeclaredConstructor().newInstance());
+    }
+
+    public void testCreateClass() throws Exception {
+        File file = new File("target/classes/org/apache/commons/bcel6/util/ClassQueue.class");
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            assertEquals(bytes.length, in.read(bytes));
+        } finally {
+            in.close();
+        }
+        String name = "org.apache.commons.bcel6.util.$$BCEL$$" + Utility.encode(bytes, true);
+        ClassLoader loader = new ClassLoader();
+        JavaClass clazz = loader.createClass(name);
+        assertEquals(name, clazz.getClassName());
+        assertSame(clazz, new ClassLoader().createClass(name));
+        Class<?> cl = loader.loadClass(name);
+        assertEquals(name, cl.getName());
+        assertNotNull(cl.getDeclaredConstructor().newInstance());
+    }
+
+    public void testModifyClassInPlace() throws Exception {
+        ClassGen cg = new ClassGen("gen.Tagged", "java.lang.Object", "<generated>",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, null);
+        cg.addEmptyConstructor(Constants.ACC_PUBLIC);
+        cg.addMethod(tagMethod(cg, "orig"));
+        final Method instrumented = tagMethod(cg, "instrumented");
+        JavaClass clazz = cg.getJavaClass();
+        Repository.addClass(clazz);
+        try {
+            assertEquals("orig", new ClassLoader().loadClass("gen.Tagged").getDeclaredConstructor().newInstance().toString());
+
+            // Changes the shared JavaClass of the repository in place
+            ClassLoader loader = new ClassLoader() {
+
+                @Override
+                protected JavaClass modifyClass( JavaClass clazz ) {
+                    for (Method method : clazz.getMethods()) {
+                        if (method.getName().equals("toString")) {
+                            method.setAttributes(instrumented.getAttributes());
+                        }
+                    }
+                    return clazz;
+                }
+            };
+            assertEquals("instrumented", loader.loadClass("gen.Tagged").getDeclaredConstructor().newInstance().toString());
+        } finally {
+            Repository.removeClass(clazz);
+        }
+    }
+
+    private static Method tagMethod( ClassGen cg, String tag ) {
+        InstructionList il = new InstructionList();
+        il.append(new LDC(cg.getConstantPool().addString(tag)));
+        il.append(InstructionConstants.ARETURN);
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC, Type.STRING, Type.NO_ARGS, new String[0],
+                "toString", cg.getClassName(), il, cg.getConstantPool());
+        mg.setMaxStack();
+        return mg.getMethod();
+    }
+}
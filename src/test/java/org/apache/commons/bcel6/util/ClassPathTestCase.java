@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.bcel6.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+public class ClassPathTestCase extends TestCase {
+
+    private static final String PATH = "target/classes";
+
+    public void testIndexedLookup() throws Exception {
+        ClassPath cp = new ClassPath(PATH);
+        assertFalse(cp.isIndexed());
+        cp.buildIndex();
+        assertTrue(cp.isIndexed());
+
+        ClassPath.ClassFile cf = cp.getClassFile("org.apache.commons.bcel6.util.ClassPath");
+        assertNotNull(cf);
+        InputStream is = cf.getInputStream();
+        try {
+            assertEquals(0xCA, is.read());
+        } finally {
+            is.close();
+        }
+        assertNotNull(cp.getResource("org/apache/commons/bcel6/Constants.class"));
+
+        try {
+            cp.getClassFile("does.not.Exist");
+            fail("Expected IOException");
+        } catch (java.io.IOException expected) {
+        }
+
+        cp.clearIndex();
+        assertFalse(cp.isIndexed());
+        assertNotNull(cp.getClassFile("org.apache.commons.bcel6.util.ClassPath"));
+    }
+
+    public void testFindMissing() throws Exception {
+        ClassPath cp = new ClassPath(PATH);
+        assertNull(cp.findClassFile("does.not.Exist"));
+        assertNull(cp.findClassFile("does/not/Exist", ".class"));
+        assertNull(cp.findInputStream("does/not/Exist", ".class"));
+        assertNotNull(cp.findClassFile("org.apache.commons.bcel6.util.ClassPath"));
+        cp.clearCache();
+        assertNull(cp.findClassFile("does.not.Exist"));
+    }
+
+    public void testModuleImage() throws Exception {
+        File modules = new File(System.getProperty("java.home"), "lib" + File.separator + "modules");
+        if (!modules.exists()) {
+            return; // Java 8 or earlier
+        }
+        assertTrue(ClassPath.getClassPath().contains(modules.getPath()));
+        ClassPath cp = new ClassPath(modules.getPath());
+        cp.setLookupOrder(ClassPath.LookupOrder.PATH_ONLY);
+        InputStream is = cp.getInputStream("java.lang.String");
+        try {
+            assertEquals(0xCA, is.read());
+        } finally {
+            is.close();
+        }
+        assertNotNull(cp.getResource("java/util/Map$Entry.class"));
+        assertNull(cp.findClassFile("java.lang.DoesNotExist"));
+        assertNull(cp.findClassFile("does.not.Exist"));
+
+        cp.buildIndex();
+        assertNotNull(cp.findClassFile("java.sql.Connection"));
+        assertNull(cp.findClassFile("java.lang.DoesNotExist"));
+    }
+
+    public void testFindCreatedLater() throws Exception {
+        File dir = new File("target/test-output/classpath/generated");
+        File file = new File(dir, "gen/Late.class");
+        file.delete();
+        file.getParentFile().mkdirs();
+
+        ClassPath cp = new ClassPath(dir.getPath());
+        assertNull(cp.findClassFile("gen.Late"));
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE });
+        } finally {
+            out.close();
+        }
+        // Directories may change, so misses are not remembered
+        assertNotNull(cp.findClassFile("gen.Late"));
+        file.delete();
+    }
+
+    public void testIndexFile() throws Exception {
+        File dir = new File("target/test-output/classpath");
+        dir.mkdirs();
+        File jar = new File(dir, "index-test.jar");
+        File index_file = new File(dir, "index-test.idx");
+        index_file.delete();
+        writeJar(jar, "a/A.class");
+        String path = jar.getPath() + File.pathSeparator + PATH;
+
+        ClassPath cp = new ClassPath(path);
+        cp.buildIndex(index_file);
+        assertTrue(index_file.isFile());
+        assertNotNull(cp.findClassFile("a.A"));
+        assertNotNull(cp.findClassFile("org.apache.commons.bcel6.util.ClassPath"));
+
+        // Unchanged: the index file is reused, but not rewritten
+        long written = index_file.lastModified();
+        index_file.setLastModified(written - 10000);
+        cp = new ClassPath(path);
+        cp.buildIndex(index_file);
+        assertEquals(written - 10000, index_file.lastModified());
+        assertNotNull(cp.findClassFile("a.A"));
+        assertNull(cp.findClassFile("b.B"));
+
+        // Changed: the jar is listed again
+        writeJar(jar, "b/B.class");
+        jar.setLastModified(jar.lastModified() - 10000);
+        cp = new ClassPath(path);
+        cp.buildIndex(index_file);
+        assertNull(cp.findClassFile("a.A"));
+        assertNotNull(cp.findClassFile("b.B"));
+
+        // Corrupt: a bogus string length makes the index be built anew
+        byte[] magic = new byte[4];
+        DataInputStream in = new DataInputStream(new FileInputStream(index_file));
+        try {
+            in.readFully(magic);
+        } finally {
+            in.close();
+        }
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(index_file));
+        try {
+            out.write(magic);
+            out.writeInt(Integer.MAX_VALUE);
+        } finally {
+            out.close();
+        }
+        cp = new ClassPath(path);
+        cp.buildIndex(index_file);
+        assertNotNull(cp.findClassFile("b.B"));
+        assertTrue(index_file.length() > 8);
+    }
+
+    private static void writeJar( File jar, String name ) throws Exception {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry(name));
+            out.write(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE });
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -18,9 +18,13 @@
 
 package org.apache.commons.bcel6.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.commons.bcel6.AbstractTestCase;
+import org.apache.commons.bcel6.generic.ClassGenException;
 import org.apache.commons.bcel6.generic.IADD;
 import org.apache.commons.bcel6.generic.ILOAD;
 import org.apache.commons.bcel6.generic.ISTORE;
@@ -44,4 +48,175 @@ public class InstructionFinderTest extends AbstractTestCase {
         assertEquals(ihs[0].getInstruction(), new ILOAD(2));
         assertEquals(ihs[1].getInstruction(), new IADD());
     }
+
+    public void testSearchQuantifiersAndAlternatives() {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(1));
+        il.append(new ILOAD(2));
+        il.append(new IADD());
+        il.append(new ISTORE(3));
+        il.append(new ILOAD(3));
+        il.append(new ISTORE(4));
+        InstructionFinder finder = new InstructionFinder(il);
+
+        Iterator<InstructionHandle[]> it = finder.search("ILOAD+ IADD? ISTORE");
+        assertEquals(4, it.next().length);
+        assertEquals(2, it.next().length);
+        assertFalse(it.hasNext());
+
+        it = finder.search("(ILOAD|ILOAD IADD) ISTORE");
+        InstructionHandle[] ihs = it.next();
+        assertEquals(3, ihs.length);
+        assertEquals(new ILOAD(2), ihs[0].getInstruction());
+        ihs = it.next();
+        assertEquals(2, ihs.length);
+        assertEquals(new ILOAD(3), ihs[0].getInstruction());
+        assertFalse(it.hasNext());
+
+        it = finder.search("ILOAD+? ILOAD");
+        assertEquals(2, it.next().length);
+        assertFalse(it.hasNext());
+    }
+
+    public void testSearchRegexFallback() {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(1));
+        il.append(new ILOAD(2));
+        il.append(new IADD());
+        InstructionFinder finder = new InstructionFinder(il);
+
+        // Possessive quantifiers are left to java.util.regex
+        Iterator<InstructionHandle[]> it = finder.search("ILOAD*+ IADD");
+        assertEquals(3, it.next().length);
+        assertFalse(it.hasNext());
+        assertFalse(finder.search("ILOAD++ ILOAD").hasNext());
+    }
+
+    public void testSearchNullableRepetition() {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(1));
+        il.append(new ILOAD(2));
+        il.append(new IADD());
+        il.append(new ILOAD(3));
+        InstructionFinder finder = new InstructionFinder(il);
+
+        // Loops over a body that can match nothing stop on an empty iteration, as in
+        // java.util.regex; search() skips the empty matches this produces
+        Iterator<InstructionHandle[]> it = finder.search("(IADD?|ILOAD)*");
+        InstructionHandle[] ihs = it.next();
+        assertEquals(1, ihs.length);
+        assertEquals(new IADD(), ihs[0].getInstruction());
+        assertFalse(it.hasNext());
+
+        assertFalse(finder.search("(ILOAD*?)*").hasNext());
+
+        it = finder.search("(IADD?|ILOAD)*ILOAD");
+        assertEquals(Arrays.asList(il.getInstructionHandles()[0]), Arrays.asList(it.next()));
+        assertEquals(Arrays.asList(il.getInstructionHandles()[1]), Arrays.asList(it.next()));
+        assertEquals(2, it.next().length);
+        assertFalse(it.hasNext());
+    }
+
+    public void testRereadArea() throws Exception {
+        InstructionList il = new InstructionList();
+        for (int i = 0; i < 3; i++) {
+            il.append(new ILOAD(1));
+            il.append(new ILOAD(2));
+            il.append(new IADD());
+            il.append(new ISTORE(3));
+        }
+        InstructionFinder finder = new InstructionFinder(il);
+
+        // Replace ILOAD ILOAD IADD by ILOAD, one match at a time
+        int replaced = 0;
+        for (Iterator<InstructionHandle[]> it = finder.search("ILOAD ILOAD IADD"); it.hasNext();
+                it = finder.search("ILOAD ILOAD IADD")) {
+            InstructionHandle[] match = it.next();
+            InstructionHandle before = match[0].getPrev();
+            InstructionHandle after = match[2].getNext();
+            il.delete(match[1], match[2]);
+            finder.reread(before, after);
+            assertRead(il, finder);
+            replaced++;
+        }
+        assertEquals(3, replaced);
+
+        // Insert at the start and append at the end
+        InstructionHandle first = il.getStart();
+        il.insert(new IADD());
+        finder.reread(null, first);
+        assertRead(il, finder);
+        InstructionHandle last = il.getEnd();
+        il.append(new ISTORE(4));
+        il.append(new ISTORE(5));
+        finder.reread(last, null);
+        assertRead(il, finder);
+
+        try {
+            finder.reread(il.getEnd(), il.getStart());
+            fail("reversed area accepted");
+        } catch (ClassGenException expected) {
+            // expected
+        }
+    }
+
+    private static void assertRead( InstructionList il, InstructionFinder finder ) {
+        Iterator<InstructionHandle[]> it = finder.search("Instruction+");
+        assertEquals(Arrays.asList(il.getInstructionHandles()), Arrays.asList(it.next()));
+        assertFalse(it.hasNext());
+        // The java.util.regex fallback reads the same opcodes
+        assertEquals(il.getLength(), finder.search("Instruction*+").next().length);
+    }
+
+    public void testSearchPatternSet() {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(1));
+        il.append(new ILOAD(2));
+        il.append(new IADD());
+        il.append(new ISTORE(3));
+        il.append(new ILOAD(3));
+        il.append(new ISTORE(4));
+        InstructionFinder finder = new InstructionFinder(il);
+
+        final List<String> found = new ArrayList<String>();
+        InstructionFinder.PatternSet patterns = new InstructionFinder.PatternSet();
+        patterns.add("ILOAD ISTORE", null, new InstructionFinder.MatchHandler() {
+            public void handleMatch(InstructionHandle[] match) {
+                found.add("load-store " + match.length);
+            }
+        });
+        patterns.add("ILOAD+ IADD", null, new InstructionFinder.MatchHandler() {
+            public void handleMatch(InstructionHandle[] match) {
+                found.add("add " + match.length);
+            }
+        });
+        patterns.add("StoreInstruction", new InstructionFinder.CodeConstraint() {
+            public boolean checkCode(InstructionHandle[] match) {
+                return ((ISTORE) match[0].getInstruction()).getIndex() == 4;
+            }
+        }, new InstructionFinder.MatchHandler() {
+            public void handleMatch(InstructionHandle[] match) {
+                found.add("store " + match.length);
+            }
+        });
+        finder.search(patterns);
+        assertEquals(Arrays.asList("add 3", "load-store 2", "store 1"), found);
+
+        InstructionFinder.MatchHandler ignore = new InstructionFinder.MatchHandler() {
+            public void handleMatch(InstructionHandle[] match) {
+            }
+        };
+        try {
+            patterns.add("ILOAD*+", null, ignore);
+            fail("possessive quantifiers are not supported in pattern sets");
+        } catch (IllegalArgumentException e) {
+            assertEquals(3, patterns.size());
+        }
+        try {
+            patterns.add("ILOAD", null, null);
+            fail("null handler accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(3, patterns.size());
+        }
+    }
 }
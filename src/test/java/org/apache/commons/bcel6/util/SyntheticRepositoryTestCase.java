@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.bcel6.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.generic.ClassGen;
+
+import junit.framework.TestCase;
+
+public class SyntheticRepositoryTestCase extends TestCase {
+
+    private static final String PATH = "target/classes";
+
+    public void testLookupClass() throws Exception {
+        SyntheticRepository repository = SyntheticRepository.getInstance(new ClassPath(PATH));
+        JavaClass clazz = repository.lookupClass("org.apache.commons.bcel6.util.ClassPath");
+        assertNotNull(clazz);
+        assertSame(clazz, repository.loadClass("org/apache/commons/bcel6/util/ClassPath"));
+
+        assertNull(repository.lookupClass("does.not.Exist"));
+        assertNull(repository.lookupClass("does.not.Exist"));
+        try {
+            repository.loadClass("does.not.Exist");
+            fail("Expected ClassNotFoundException");
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    public void testLookupCreatedLater() throws Exception {
+        File dir = new File("target/test-output/repository/generated");
+        File file = new File(dir, "gen/Later.class");
+        file.delete();
+        file.getParentFile().mkdirs();
+
+        ClassPath path = new ClassPath(dir.getPath());
+        SyntheticRepository repository = SyntheticRepository.getInstance(path);
+        repository.setLookupOrder(ClassPath.LookupOrder.PATH_ONLY);
+        assertNull(repository.lookupClass("gen.Later"));
+        new ClassGen("gen.Later", "java.lang.Object", "Later.java", Constants.ACC_PUBLIC, null)
+                .getJavaClass().dump(file);
+        // Directories may change, so misses are not remembered
+        assertNotNull(repository.lookupClass("gen.Later"));
+
+        // With an index, misses are remembered until the index is rebuilt
+        assertNull(repository.lookupClass("gen.Indexed"));
+        path.buildIndex();
+        new ClassGen("gen.Indexed", "java.lang.Object", "Indexed.java", Constants.ACC_PUBLIC, null)
+                .getJavaClass().dump(new File(dir, "gen/Indexed.class"));
+        assertNull(repository.lookupClass("gen.Indexed"));
+        path.buildIndex();
+        assertNotNull(repository.lookupClass("gen.Indexed"));
+
+        assertNull(repository.lookupClass("gen.Unindexed"));
+        new ClassGen("gen.Unindexed", "java.lang.Object", "Unindexed.java", Constants.ACC_PUBLIC, null)
+                .getJavaClass().dump(new File(dir, "gen/Unindexed.class"));
+        path.clearIndex();
+        assertNotNull(repository.lookupClass("gen.Unindexed"));
+        repository.clear();
+        new File(dir, "gen/Unindexed.class").delete();
+        new File(dir, "gen/Indexed.class").delete();
+        file.delete();
+    }
+
+    public void testLookupOrder() throws Exception {
+        ClassPath path = new ClassPath(PATH);
+        assertEquals(ClassPath.LookupOrder.LOADER_FIRST, path.getLookupOrder());
+        SyntheticRepository repository = SyntheticRepository.getInstance(path);
+        repository.setLookupOrder(ClassPath.LookupOrder.PATH_ONLY);
+        // Only the class loader knows about the test classes
+        assertNull(repository.lookupClass(getClass().getName()));
+        assertNotNull(repository.lookupClass("org.apache.commons.bcel6.util.ClassPath"));
+
+        repository.setLookupOrder(ClassPath.LookupOrder.PATH_FIRST);
+        assertNotNull(repository.lookupClass(getClass().getName()));
+
+        assertNull(path.findInputStream(getClass().getName().replace('.', '/'), ".class",
+                ClassPath.LookupOrder.PATH_ONLY));
+    }
+
+    public void testConcurrentLoad() throws Exception {
+        final SyntheticRepository repository = SyntheticRepository.getInstance(new ClassPath(PATH));
+        final JavaClass[] loaded = new JavaClass[8];
+        final Exception[] failures = new Exception[loaded.length];
+        Thread[] threads = new Thread[loaded.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        loaded[n] = repository.loadClass("org.apache.commons.bcel6.generic.MethodGen");
+                    } catch (Exception e) {
+                        failures[n] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertNull(failures[i]);
+            assertSame(loaded[0], loaded[i]);
+        }
+        assertSame(loaded[0], repository.findClass("org.apache.commons.bcel6.generic.MethodGen"));
+    }
+
+    public void testPreload() throws Exception {
+        ClassPath path = new ClassPath(PATH);
+        List<String> names = path.getClassNames();
+        assertTrue(names.contains("org.apache.commons.bcel6.generic.MethodGen"));
+        SyntheticRepository repository = SyntheticRepository.getInstance(path);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final AtomicInteger calls = new AtomicInteger();
+            int loaded = repository.preload(Arrays.asList("org.apache.commons.bcel6.generic.ILOAD",
+                    "does.not.Exist", "org.apache.commons.bcel6.generic.ISTORE"), executor,
+                    new SyntheticRepository.PreloadListener() {
+
+                        public void classPreloaded( String className, JavaClass clazz, int done, int total ) {
+                            assertEquals(3, total);
+                            assertEquals(className.startsWith("does"), clazz == null);
+                            calls.incrementAndGet();
+                        }
+                    }, Integer.MAX_VALUE, 1, TimeUnit.MINUTES);
+            assertEquals(2, loaded);
+            assertEquals(3, calls.get());
+            assertNotNull(repository.getCache().peek("org.apache.commons.bcel6.generic.ILOAD"));
+
+            assertEquals(10, repository.preload(names, executor, null, 10, 1, TimeUnit.MINUTES));
+            assertEquals(names.size(), repository.preload(path, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
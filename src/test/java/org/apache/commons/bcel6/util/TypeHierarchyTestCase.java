@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.bcel6.util;
+
+import java.util.Arrays;
+
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.generic.ClassGen;
+
+import junit.framework.TestCase;
+
+public class TypeHierarchyTestCase extends TestCase {
+
+    private static final String[] NAMES = {
+        "java.lang.Object",
+        "java.util.Collection",
+        "java.util.List",
+        "java.util.RandomAccess",
+        "java.util.AbstractList",
+        "java.util.ArrayList",
+        "java.util.LinkedList",
+        "java.util.Deque",
+        "java.lang.Runnable",
+        "java.lang.Thread",
+        "org.apache.commons.bcel6.generic.ObjectType",
+        "org.apache.commons.bcel6.generic.ReferenceType",
+        "org.apache.commons.bcel6.generic.Type",
+        "org.apache.commons.bcel6.generic.InvokeInstruction",
+        "org.apache.commons.bcel6.generic.StackConsumer"
+    };
+
+    public void testAgainstJavaClass() throws Exception {
+        SyntheticRepository repository = SyntheticRepository.getInstance(
+                new ClassPath("target/classes" + java.io.File.pathSeparator + ClassPath.getClassPath()));
+        TypeHierarchy hierarchy = new TypeHierarchy(repository);
+        for (String sub : NAMES) {
+            JavaClass sub_class = repository.loadClass(sub);
+            assertEquals(sub, sub_class.isInterface(), hierarchy.isInterface(sub));
+            JavaClass[] superclasses = sub_class.getSuperClasses();
+            String[] names = new String[superclasses.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = superclasses[i].getClassName();
+            }
+            assertTrue(sub, Arrays.equals(names, hierarchy.getSuperClasses(sub)));
+            assertEquals(sub, sub_class.getAllInterfaces().length, hierarchy.getAllInterfaces(sub).length);
+
+            for (String sup : NAMES) {
+                JavaClass super_class = repository.loadClass(sup);
+                assertEquals(sub + " instanceof " + sup, sub_class.instanceOf(super_class),
+                        hierarchy.instanceOf(sub, sup));
+                if (super_class.isInterface()) {
+                    assertEquals(sub + " implements " + sup, sub_class.implementationOf(super_class),
+                            hierarchy.implementationOf(sub, sup));
+                }
+            }
+        }
+    }
+
+    public void testGetFirstCommonSuperclass() throws Exception {
+        SyntheticRepository repository = SyntheticRepository.getInstance(
+                new ClassPath("target/classes" + java.io.File.pathSeparator + ClassPath.getClassPath()));
+        TypeHierarchy hierarchy = new TypeHierarchy(repository);
+        for (String first : NAMES) {
+            for (String second : NAMES) {
+                String expected = "java.lang.Object";
+                JavaClass first_class = repository.loadClass(first);
+                JavaClass second_class = repository.loadClass(second);
+                if (first_class.isClass() && second_class.isClass()) {
+                    for (JavaClass sup = first_class; sup != null; sup = sup.getSuperClass()) {
+                        if (second_class.instanceOf(sup)) {
+                            expected = sup.getClassName();
+                            break;
+                        }
+                    }
+                } else if (first.equals(second)) {
+                    expected = first;
+                }
+                assertEquals(first + ", " + second, expected, hierarchy.getFirstCommonSuperclass(first, second));
+                assertEquals(second + ", " + first, expected, hierarchy.getFirstCommonSuperclass(second, first));
+            }
+        }
+        assertEquals("java.util.AbstractList", hierarchy.getFirstCommonSuperclass(
+                "java/util/ArrayList", "java.util.LinkedList"));
+    }
+
+    public void testHeadersOnly() throws Exception {
+        SyntheticRepository repository = SyntheticRepository.getInstance(new ClassPath("target/classes"));
+        repository.clear(); // Shared with other tests, which may have loaded the classes
+        TypeHierarchy hierarchy = new TypeHierarchy(repository);
+        assertTrue(hierarchy.instanceOf("org.apache.commons.bcel6.generic.ILOAD",
+                "org.apache.commons.bcel6.generic.LocalVariableInstruction"));
+        assertTrue(hierarchy.implementationOf("org/apache/commons/bcel6/generic/ILOAD",
+                "org.apache.commons.bcel6.generic.PushInstruction"));
+        assertNull(repository.findClass("org.apache.commons.bcel6.generic.ILOAD"));
+        try {
+            hierarchy.instanceOf("does.not.Exist", "java.lang.Object");
+            fail("Expected ClassNotFoundException");
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    public void testClearClass() throws Exception {
+        SyntheticRepository repository = SyntheticRepository.getInstance(new ClassPath("target/classes"));
+        TypeHierarchy hierarchy = new TypeHierarchy(repository);
+        JavaClass a = generate("gen.A", "java.lang.Object");
+        JavaClass b = generate("gen.B", "gen.A");
+        JavaClass c = generate("gen.C", "java.lang.Object");
+        repository.storeClass(a);
+        repository.storeClass(b);
+        repository.storeClass(c);
+        try {
+            assertTrue(hierarchy.instanceOf("gen.B", "gen.A"));
+            assertEquals("gen.A", hierarchy.getFirstCommonSuperclass("gen.B", "gen.A"));
+            assertEquals("java.lang.Object", hierarchy.getFirstCommonSuperclass("gen.B", "gen.C"));
+
+            // gen.B now extends gen.C
+            repository.storeClass(generate("gen.B", "gen.C"));
+            hierarchy.clear("gen.B");
+            assertFalse(hierarchy.instanceOf("gen.B", "gen.A"));
+            assertEquals("java.lang.Object", hierarchy.getFirstCommonSuperclass("gen.B", "gen.A"));
+            assertEquals("gen.C", hierarchy.getFirstCommonSuperclass("gen.B", "gen.C"));
+
+            // What was computed for gen.A is still cached
+            repository.removeClass(a);
+            assertFalse(hierarchy.isInterface("gen.A"));
+
+            // Dependent classes are dropped, too
+            hierarchy.clear("gen.C");
+            repository.removeClass(c);
+            try {
+                hierarchy.instanceOf("gen.B", "java.lang.Object");
+                fail("Expected ClassNotFoundException");
+            } catch (ClassNotFoundException expected) {
+            }
+        } finally {
+            repository.removeClass(a);
+            repository.removeClass(b);
+            repository.removeClass(c);
+        }
+    }
+
+    public void testLookupOrder() throws Exception {
+        SyntheticRepository repository = SyntheticRepository.getInstance(new ClassPath("target/test-output/empty"));
+        repository.setLookupOrder(ClassPath.LookupOrder.PATH_ONLY);
+        try {
+            new TypeHierarchy(repository).isInterface("java.lang.Runnable");
+            fail("Expected ClassNotFoundException");
+        } catch (ClassNotFoundException expected) {
+        } finally {
+            repository.setLookupOrder(null);
+        }
+        assertTrue(new TypeHierarchy(repository).isInterface("java.lang.Runnable"));
+    }
+
+    private static JavaClass generate( String class_name, String super_name ) {
+        return new ClassGen(class_name, super_name, "<generated>", Constants.ACC_PUBLIC | Constants.ACC_SUPER, null)
+                .getJavaClass();
+    }
+}
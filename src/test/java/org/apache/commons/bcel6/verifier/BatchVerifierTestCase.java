@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.bcel6.verifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BatchVerifierTestCase extends TestCase {
+
+    private static final List<String> CLASSES = Arrays.asList(
+            AbstractVerifierTestCase.TEST_PACKAGE + "TestLegalInvokeSpecial01",
+            AbstractVerifierTestCase.TEST_PACKAGE + "TestLegalInvokeStatic01",
+            AbstractVerifierTestCase.TEST_PACKAGE + "TestLegalInvokeVirtual01",
+            AbstractVerifierTestCase.TEST_PACKAGE + "TestReturn02");
+
+    private static class ListSink implements BatchVerifier.Sink {
+
+        final List<BatchVerifier.Result> results = new ArrayList<BatchVerifier.Result>();
+
+        public void report(BatchVerifier.Result result) {
+            results.add(result);
+        }
+    }
+
+    public void testVerify() {
+        ListSink sink = new ListSink();
+        BatchVerifier verifier = new BatchVerifier(sink);
+        verifier.setThreads(2);
+        assertEquals(0, verifier.verify(CLASSES));
+        assertTrue(sink.results.isEmpty());
+    }
+
+    public void testReportAll() {
+        ListSink sink = new ListSink();
+        BatchVerifier verifier = new BatchVerifier(sink);
+        verifier.setThreads(3);
+        verifier.setReportAll(true);
+        assertEquals(0, verifier.verify(CLASSES));
+        int pass1 = 0;
+        int pass3b = 0;
+        for (BatchVerifier.Result result : sink.results) {
+            assertFalse(result.toString(), result.isRejected());
+            if (result.getPass().equals("1")) {
+                pass1++;
+                assertEquals(-1, result.getMethodNo());
+            } else if (result.getPass().equals("3b")) {
+                pass3b++;
+                assertNotNull(result.getMethod());
+            }
+        }
+        assertEquals(CLASSES.size(), pass1);
+        assertTrue(pass3b >= CLASSES.size());
+    }
+
+    public void testResultCache() {
+        VerificationResultCache cache = new VerificationResultCache(1000);
+        ListSink sink = new ListSink();
+        BatchVerifier verifier = new BatchVerifier(sink);
+        verifier.setReportAll(true);
+        verifier.setResultCache(cache);
+        assertEquals(0, verifier.verify(CLASSES));
+        int results = sink.results.size();
+        assertEquals(results, cache.size());
+        sink.results.clear();
+        assertEquals(0, verifier.verify(CLASSES));
+        assertEquals(results, sink.results.size());
+        assertEquals(results, cache.size());
+    }
+
+    public void testMissingClass() {
+        ListSink sink = new ListSink();
+        BatchVerifier verifier = new BatchVerifier(sink);
+        verifier.setFailFast(true);
+        assertEquals(1, verifier.verify(Arrays.asList("does.not.Exist")));
+        assertEquals(1, sink.results.size());
+        assertTrue(sink.results.get(0).isRejected());
+        assertEquals("1", sink.results.get(0).getPass());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.bcel6.verifier;
+
+import java.io.File;
+
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.Repository;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.generic.ClassGen;
+
+import junit.framework.TestCase;
+
+public class VerificationResultCacheTestCase extends TestCase {
+
+    private static final String CLASSNAME = AbstractVerifierTestCase.TEST_PACKAGE + "TestReturn02";
+
+    private static final VerificationResult REJECTED = new VerificationResult(
+            VerificationResult.VERIFIED_REJECTED, "Rejected by the cache.");
+
+    public void testVerifierUsesCache() throws Exception {
+        VerificationResultCache cache = new VerificationResultCache(100);
+        Verifier verifier = VerifierFactory.getVerifier(CLASSNAME);
+        verifier.flush();
+        verifier.setResultCache(cache);
+        try {
+            assertEquals(VerificationResult.VR_OK, verifier.doPass1());
+            assertEquals(VerificationResult.VR_OK, verifier.doPass2());
+            assertEquals(VerificationResult.VR_OK, verifier.doPass3a(0));
+            assertEquals(VerificationResult.VR_OK, verifier.doPass3b(0));
+            assertEquals(4, cache.size());
+
+            String key = VerificationResultCache.keyOf(CLASSNAME);
+            assertSame(VerificationResult.VR_OK, cache.get(key, "3b 0"));
+            assertNull(cache.get(key, "3b-inference 0"));
+            cache.put(key, "1", REJECTED);
+            cache.put(key, "3b 0", REJECTED);
+            assertEquals(REJECTED, verifier.doPass1());
+            assertEquals(REJECTED, verifier.doPass3b(0));
+
+            verifier.setTypeChecking(false);
+            assertEquals(VerificationResult.VR_OK, verifier.doPass3b(0));
+            assertSame(VerificationResult.VR_OK, cache.get(key, "3b-inference 0"));
+        } finally {
+            verifier.setResultCache(null);
+            verifier.setTypeChecking(true);
+            verifier.flush();
+        }
+        assertEquals(VerificationResult.VR_OK, verifier.doPass1());
+    }
+
+    public void testKeyDependsOnSupertypes() throws Exception {
+        String base = AbstractVerifierTestCase.TEST_PACKAGE + "TestCacheBase";
+        String derived = AbstractVerifierTestCase.TEST_PACKAGE + "TestCacheDerived";
+        JavaClass derivedClass = new ClassGen(derived, base, "TestCacheDerived.java",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, new String[0]).getJavaClass();
+        JavaClass baseClass = new ClassGen(base, "java.lang.Object", "TestCacheBase.java",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, new String[0]).getJavaClass();
+        JavaClass changedBaseClass = new ClassGen(base, "java.lang.Object", "TestCacheBase.java",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER | Constants.ACC_FINAL, new String[0]).getJavaClass();
+        Repository.addClass(derivedClass);
+        try {
+            String missing = VerificationResultCache.keyOf(derived);
+            Repository.addClass(baseClass);
+            String found = VerificationResultCache.keyOf(derived);
+            assertFalse(missing.equals(found));
+            assertEquals(found, VerificationResultCache.keyOf(derived));
+            assertTrue(found.startsWith(derived + " "));
+            Repository.removeClass(baseClass);
+            Repository.addClass(changedBaseClass);
+            assertFalse(found.equals(VerificationResultCache.keyOf(derived)));
+        } finally {
+            Repository.removeClass(derivedClass);
+            Repository.removeClass(changedBaseClass);
+        }
+    }
+
+    public void testEviction() {
+        VerificationResultCache cache = new VerificationResultCache(2);
+        cache.put("a", "1", VerificationResult.VR_OK);
+        cache.put("b", "1", VerificationResult.VR_OK);
+        cache.get("a", "1");
+        cache.put("c", "1", REJECTED);
+        cache.put("d", "1", VerificationResult.VR_NOTYET);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a", "1"));
+        assertNull(cache.get("b", "1"));
+        assertEquals(REJECTED, cache.get("c", "1"));
+        assertNull(cache.get("d", "1"));
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("verification", ".cache");
+        try {
+            VerificationResultCache cache = new VerificationResultCache(10, file);
+            assertEquals(0, cache.size());
+            cache.put("a", "1", new VerificationResult(VerificationResult.VERIFIED_OK, "Passed verification."));
+            cache.put("a", "3b 0", REJECTED);
+            cache.save();
+
+            VerificationResultCache loaded = new VerificationResultCache(10, file);
+            assertEquals(2, loaded.size());
+            assertSame(VerificationResult.VR_OK, loaded.get("a", "1"));
+            assertEquals(REJECTED, loaded.get("a", "3b 0"));
+
+            VerificationResultCache smaller = new VerificationResultCache(1, file);
+            assertEquals(1, smaller.size());
+            assertEquals(REJECTED, smaller.get("a", "3b 0"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.bcel6.verifier;
+
+import java.util.Arrays;
+
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.Repository;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.generic.ClassGen;
+
+import junit.framework.TestCase;
+
+public class VerifierFactoryTestCase extends TestCase {
+
+    private static final String CLASSNAME = AbstractVerifierTestCase.TEST_PACKAGE + "TestReturn02";
+
+    @Override
+    protected void tearDown() throws Exception {
+        VerifierFactory.setMaximumSize(Integer.MAX_VALUE);
+        super.tearDown();
+    }
+
+    public void testRemove() {
+        Verifier verifier = VerifierFactory.getVerifier(CLASSNAME);
+        assertSame(verifier, VerifierFactory.getVerifier(CLASSNAME));
+        assertTrue(VerifierFactory.remove(CLASSNAME));
+        assertFalse(VerifierFactory.remove(CLASSNAME));
+        assertFalse(Arrays.asList(VerifierFactory.getVerifiers()).contains(verifier));
+        assertNotSame(verifier, VerifierFactory.getVerifier(CLASSNAME));
+    }
+
+    public void testMaximumSize() {
+        VerifierFactory.setMaximumSize(2);
+        assertEquals(2, VerifierFactory.getMaximumSize());
+        assertTrue(VerifierFactory.getVerifiers().length <= 2);
+        Verifier a = VerifierFactory.getVerifier("a.A");
+        Verifier b = VerifierFactory.getVerifier("a.B");
+        assertSame(a, VerifierFactory.getVerifier("a.A"));
+        VerifierFactory.getVerifier("a.C"); // drops the least recently used, a.B
+        assertEquals(2, VerifierFactory.getVerifiers().length);
+        assertSame(a, VerifierFactory.getVerifier("a.A"));
+        assertNotSame(b, VerifierFactory.getVerifier("a.B"));
+
+        VerifierFactory.setMaximumSize(1);
+        Verifier[] verifiers = VerifierFactory.getVerifiers();
+        assertEquals(1, verifiers.length);
+        assertEquals("a.B", verifiers[0].getClassName());
+        try {
+            VerifierFactory.setMaximumSize(0);
+            fail("accepted a maximum size of 0");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    public void testCreateVerifier() throws Exception {
+        JavaClass jc = generate();
+        Verifier verifier = VerifierFactory.createVerifier(jc);
+        try {
+            assertEquals("TestUnregistered", verifier.getClassName());
+            assertSame(jc, Repository.getRepository().findClass("TestUnregistered"));
+            assertEquals(VerificationResult.VR_OK, verifier.doPass2());
+            assertEquals(VerificationResult.VR_OK, verifier.doPass3b(0));
+            assertFalse(Arrays.asList(VerifierFactory.getVerifiers()).contains(verifier));
+        } finally {
+            verifier.close();
+        }
+        assertNull(Repository.getRepository().findClass("TestUnregistered"));
+    }
+
+    public void testCreateVerifierRestoresRepository() throws Exception {
+        JavaClass original = generate();
+        JavaClass other = generate();
+        Repository.addClass(original);
+        try {
+            Verifier verifier = VerifierFactory.createVerifier(other);
+            assertSame(other, Repository.getRepository().findClass("TestUnregistered"));
+            verifier.close();
+            assertSame(original, Repository.getRepository().findClass("TestUnregistered"));
+
+            // The same instance is left alone
+            verifier = VerifierFactory.createVerifier(original);
+            verifier.close();
+            assertSame(original, Repository.getRepository().findClass("TestUnregistered"));
+        } finally {
+            Repository.removeClass(original);
+        }
+    }
+
+    private static JavaClass generate() {
+        ClassGen cg = new ClassGen("TestUnregistered", "java.lang.Object", "<generated>",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, null);
+        cg.addEmptyConstructor(Constants.ACC_PUBLIC);
+        return cg.getJavaClass();
+    }
+}
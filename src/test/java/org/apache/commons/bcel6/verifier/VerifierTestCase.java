@@ -19,10 +19,32 @@
 package org.apache.commons.bcel6.verifier;
 
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.apache.commons.bcel6.Constants;
+import org.apache.commons.bcel6.Repository;
+import org.apache.commons.bcel6.classfile.Attribute;
+import org.apache.commons.bcel6.classfile.JavaClass;
+import org.apache.commons.bcel6.classfile.Method;
+import org.apache.commons.bcel6.classfile.StackMapTable;
+import org.apache.commons.bcel6.classfile.StackMapTableEntry;
+import org.apache.commons.bcel6.classfile.StackMapType;
+import org.apache.commons.bcel6.generic.BranchInstruction;
+import org.apache.commons.bcel6.generic.ClassGen;
+import org.apache.commons.bcel6.generic.ConstantPoolGen;
+import org.apache.commons.bcel6.generic.InstructionConstants;
+import org.apache.commons.bcel6.generic.InstructionFactory;
+import org.apache.commons.bcel6.generic.InstructionHandle;
+import org.apache.commons.bcel6.generic.InstructionList;
+import org.apache.commons.bcel6.generic.MethodGen;
+import org.apache.commons.bcel6.generic.Type;
 import org.apache.commons.bcel6.verifier.VerificationResult;
 import org.apache.commons.bcel6.verifier.Verifier;
 import org.apache.commons.bcel6.verifier.VerifierFactory;
+import org.apache.commons.bcel6.verifier.structurals.ControlFlowGraph;
 
 import junit.framework.TestCase;
 
@@ -40,4 +62,170 @@ public class VerifierTestCase extends TestCase {
 
         assertEquals("Pass 2 verification of " + classname + " failed: " + result.getMessage(), VerificationResult.VERIFIED_OK, result.getStatus());
     }
+
+    public void testVerifyAllMethods() throws Exception {
+        String[] classnames = {
+                AbstractVerifierTestCase.TEST_PACKAGE + "TestLegalInvokeSpecial01",
+                AbstractVerifierTestCase.TEST_PACKAGE + "TestLegalInvokeVirtual01",
+                AbstractVerifierTestCase.TEST_PACKAGE + "TestArrayAccess01",
+                AbstractVerifierTestCase.TEST_PACKAGE + "TestReturn02" };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (String classname : classnames) {
+                Verifier verifier = VerifierFactory.getVerifier(classname);
+                verifier.flush();
+                VerificationResult[] sequential = verifier.verifyAllMethods(null);
+                String[] messages = verifier.getMessages();
+                assertTrue(sequential.length > 0);
+
+                verifier.flush();
+                VerificationResult[] parallel = verifier.verifyAllMethods(executor);
+                assertEquals(sequential.length, parallel.length);
+                for (int i = 0; i < sequential.length; i++) {
+                    assertEquals(classname + " method " + i, sequential[i], parallel[i]);
+                }
+                assertEquals(messages.length, verifier.getMessages().length);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testTypeChecking() throws Exception {
+        assertTypeCheckingAgreesWithInference(AbstractVerifierTestCase.TEST_PACKAGE + "TestLegalInvokeSpecial01");
+    }
+
+    /**
+     * Type checks methods whose StackMapTable has frames of all kinds,
+     * including uninitialized objects and an uninitialized this.
+     */
+    public void testTypeCheckingStackMapFrames() throws Exception {
+        String classname = AbstractVerifierTestCase.TEST_PACKAGE + "TestStackMapFrames01";
+        Set<Integer> frames = new HashSet<Integer>();
+        Set<Byte> items = new HashSet<Byte>();
+        for (Method method : Repository.lookupClass(classname).getMethods()) {
+            for (Attribute a : method.getCode().getAttributes()) {
+                if (a instanceof StackMapTable) {
+                    for (StackMapTableEntry entry : ((StackMapTable) a).getStackMapTable()) {
+                        int frame_type = entry.getFrameType();
+                        if (frame_type <= Constants.SAME_FRAME_MAX) {
+                            frames.add(Integer.valueOf(Constants.SAME_FRAME));
+                        } else if (frame_type <= Constants.SAME_LOCALS_1_STACK_ITEM_FRAME_MAX) {
+                            frames.add(Integer.valueOf(Constants.SAME_LOCALS_1_STACK_ITEM_FRAME));
+                        } else if (frame_type >= Constants.CHOP_FRAME && frame_type <= Constants.CHOP_FRAME_MAX) {
+                            frames.add(Integer.valueOf(Constants.CHOP_FRAME));
+                        } else if (frame_type >= Constants.APPEND_FRAME && frame_type <= Constants.APPEND_FRAME_MAX) {
+                            frames.add(Integer.valueOf(Constants.APPEND_FRAME));
+                        } else {
+                            frames.add(Integer.valueOf(frame_type));
+                        }
+                        for (StackMapType type : entry.getTypesOfLocals()) {
+                            items.add(Byte.valueOf(type.getType()));
+                        }
+                        for (StackMapType type : entry.getTypesOfStackItems()) {
+                            items.add(Byte.valueOf(type.getType()));
+                        }
+                    }
+                }
+            }
+        }
+        int[] expected_frames = { Constants.SAME_FRAME, Constants.SAME_LOCALS_1_STACK_ITEM_FRAME,
+                Constants.CHOP_FRAME, Constants.APPEND_FRAME, Constants.FULL_FRAME };
+        for (int frame : expected_frames) {
+            assertTrue("frame type " + frame + " in " + frames, frames.contains(Integer.valueOf(frame)));
+        }
+        assertTrue(items.contains(Byte.valueOf(Constants.ITEM_NewObject)));
+        assertTrue(items.contains(Byte.valueOf(Constants.ITEM_InitObject)));
+        assertTrue(items.contains(Byte.valueOf(Constants.ITEM_Object)));
+
+        assertTypeCheckingAgreesWithInference(classname);
+    }
+
+    private void assertTypeCheckingAgreesWithInference(String classname) throws Exception {
+        Verifier verifier = VerifierFactory.getVerifier(classname);
+        try {
+            verifier.flush();
+            verifier.setTypeChecking(false);
+            VerificationResult[] inferred = verifier.verifyAllMethods(null);
+            verifier.flush();
+            verifier.setTypeChecking(true);
+            VerificationResult[] checked = verifier.verifyAllMethods(null);
+            assertEquals(inferred.length, checked.length);
+            for (int i = 0; i < checked.length; i++) {
+                assertEquals(VerificationResult.VERIFIED_OK, inferred[i].getStatus());
+                assertEquals(checked[i].getMessage(), VerificationResult.VERIFIED_OK, checked[i].getStatus());
+            }
+        } finally {
+            verifier.flush();
+        }
+    }
+
+    /**
+     * The code is usually edited through the InstructionList without telling
+     * the MethodGen; the control flow graph must reflect the current code.
+     */
+    public void testControlFlowGraphAfterEdit() throws Exception {
+        InstructionList il = new InstructionList();
+        il.append(InstructionConstants.ICONST_0);
+        il.append(InstructionConstants.IRETURN);
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT, Type.NO_ARGS,
+                new String[0], "m", "TestEdit", il, new ConstantPoolGen());
+        mg.setMaxStack();
+        il.insert(InstructionConstants.NOP);
+        assertEquals(3, new ControlFlowGraph(mg).getInstructionContexts().length);
+    }
+
+    /**
+     * A branching method without StackMapTable is fine for type inference,
+     * but must be rejected by type checking in a class file of version 51.
+     */
+    public void testTypeCheckingWithoutStackMapTable() throws Exception {
+        String classname = AbstractVerifierTestCase.TEST_PACKAGE + "TestNoStackMapTable";
+        ClassGen cg = new ClassGen(classname, "java.lang.Object", "TestNoStackMapTable.java",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, new String[0]);
+        cg.setMajor(51);
+        cg.setMinor(0);
+        InstructionList il = new InstructionList();
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT, new Type[] { Type.INT },
+                new String[] { "x" }, "m", classname, il, cg.getConstantPool());
+        il.append(InstructionFactory.createLoad(Type.INT, 0));
+        BranchInstruction ifne = InstructionFactory.createBranchInstruction(Constants.IFNE, null);
+        il.append(ifne);
+        il.append(InstructionConstants.ICONST_1);
+        il.append(InstructionConstants.IRETURN);
+        InstructionHandle target = il.append(InstructionConstants.ICONST_0);
+        il.append(InstructionConstants.IRETURN);
+        ifne.setTarget(target);
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        cg.addMethod(mg.getMethod());
+        JavaClass jc = cg.getJavaClass();
+        Repository.addClass(jc);
+        Verifier verifier = VerifierFactory.getVerifier(classname);
+        try {
+            verifier.setTypeChecking(false);
+            assertEquals(VerificationResult.VERIFIED_OK, verifier.doPass3b(0).getStatus());
+            verifier.flush();
+            verifier.setTypeChecking(true);
+            VerificationResult result = verifier.doPass3b(0);
+            assertEquals(VerificationResult.VERIFIED_REJECTED, result.getStatus());
+            assertTrue(result.getMessage(), result.getMessage().indexOf("no stack map frame") >= 0);
+
+            // Switching modes without flush() must not reuse the result of the other mode
+            VerificationResultCache cache = new VerificationResultCache(10);
+            verifier.setResultCache(cache);
+            verifier.setTypeChecking(false);
+            assertEquals(VerificationResult.VERIFIED_OK, verifier.doPass3b(0).getStatus());
+            verifier.setTypeChecking(true);
+            assertEquals(VerificationResult.VERIFIED_REJECTED, verifier.doPass3b(0).getStatus());
+            String key = VerificationResultCache.keyOf(classname);
+            assertEquals(VerificationResult.VERIFIED_OK, cache.get(key, "3b-inference 0").getStatus());
+            assertEquals(VerificationResult.VERIFIED_REJECTED, cache.get(key, "3b 0").getStatus());
+        } finally {
+            verifier.setResultCache(null);
+            verifier.setTypeChecking(true);
+            verifier.flush();
+            Repository.removeClass(jc);
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.bcel6.verifier.structurals;
+
+import org.apache.commons.bcel6.generic.ObjectType;
+import org.apache.commons.bcel6.generic.ReferenceType;
+import org.apache.commons.bcel6.generic.Type;
+
+import junit.framework.TestCase;
+
+public class TypeTableTestCase extends TestCase {
+
+    private static final ObjectType INTEGER = new ObjectType("java.lang.Integer");
+    private static final ObjectType LONG = new ObjectType("java.lang.Long");
+
+    public void testIntern() {
+        TypeTable table = new TypeTable();
+        assertEquals(TypeTable.UNKNOWN, table.intern(Type.UNKNOWN));
+        int id = table.intern(INTEGER);
+        assertEquals(id, table.intern(new ObjectType("java.lang.Integer")));
+        assertSame(INTEGER, table.type(id));
+        assertEquals(-1, table.find(LONG));
+
+        // Uninitialized objects of the same class are told apart by identity
+        UninitializedObjectType u1 = new UninitializedObjectType(INTEGER);
+        UninitializedObjectType u2 = new UninitializedObjectType(INTEGER);
+        int id1 = table.intern(u1);
+        assertEquals(-1, table.find(u2));
+        int id2 = table.intern(u2);
+        assertTrue(id1 != id2);
+        assertEquals(id1, table.intern(u1));
+        assertSame(u2, table.type(id2));
+    }
+
+    public void testFirstCommonSuperclass() throws Exception {
+        TypeTable table = new TypeTable();
+        int a = table.intern(INTEGER);
+        int b = table.intern(LONG);
+        ReferenceType expected = INTEGER.getFirstCommonSuperclass(LONG);
+        assertEquals(new ObjectType("java.lang.Number"), expected);
+        int sup = table.getFirstCommonSuperclass(a, b);
+        assertEquals(expected, table.type(sup));
+        // Memoised, in either order
+        assertEquals(sup, table.getFirstCommonSuperclass(b, a));
+        assertEquals(a, table.getFirstCommonSuperclass(a, a));
+    }
+
+    public void testInitializeObject() {
+        UninitializedObjectType u1 = new UninitializedObjectType(INTEGER);
+        UninitializedObjectType u2 = new UninitializedObjectType(INTEGER);
+        LocalVariables lv = new LocalVariables(3);
+        lv.set(0, u1);
+        lv.set(1, u2);
+        lv.set(2, u1);
+        OperandStack stack = new OperandStack(2);
+        stack.push(u2);
+        stack.push(u1);
+
+        lv.initializeObject(u1);
+        stack.initializeObject(u1);
+        assertEquals(INTEGER, lv.get(0));
+        assertSame(u2, lv.get(1));
+        assertEquals(INTEGER, lv.get(2));
+        assertEquals(INTEGER, stack.peek());
+        assertSame(u2, stack.peek(1));
+
+        // Unknown to the table: nothing to replace
+        lv.initializeObject(new UninitializedObjectType(INTEGER));
+        assertSame(u2, lv.get(1));
+    }
+
+    public void testMergeDifferentTables() {
+        LocalVariables lv1 = new LocalVariables(3);
+        LocalVariables lv2 = new LocalVariables(3);
+        assertNotSame(lv1.getTypeTable(), lv2.getTypeTable());
+        lv1.set(0, INTEGER);
+        lv1.set(1, Type.INT);
+        lv1.set(2, INTEGER);
+        lv2.set(0, LONG);
+        lv2.set(1, Type.INT);
+        lv2.set(2, Type.FLOAT);
+        lv1.merge(lv2);
+        assertEquals(new ObjectType("java.lang.Number"), lv1.get(0));
+        assertEquals(Type.INT, lv1.get(1));
+        assertEquals(Type.UNKNOWN, lv1.get(2));
+        assertEquals(LONG, lv2.get(0));
+
+        OperandStack s1 = new OperandStack(2);
+        OperandStack s2 = new OperandStack(2);
+        s1.push(Type.INT);
+        s1.push(INTEGER);
+        s2.push(Type.INT);
+        s2.push(LONG);
+        s1.merge(s2);
+        assertEquals(new ObjectType("java.lang.Number"), s1.peek());
+        assertEquals(Type.INT, s1.peek(1));
+    }
+
+    public void testEqualsDifferentTables() {
+        LocalVariables lv1 = new LocalVariables(2);
+        LocalVariables lv2 = new LocalVariables(2);
+        lv1.set(0, INTEGER);
+        lv2.set(0, new ObjectType("java.lang.Integer"));
+        lv2.set(1, LONG);
+        assertFalse(lv1.equals(lv2));
+        lv1.set(1, new ObjectType("java.lang.Long"));
+        assertTrue(lv1.equals(lv2));
+        assertTrue(lv2.equals(lv1));
+
+        TypeTable table = new TypeTable();
+        OperandStack s1 = new OperandStack(2, table);
+        OperandStack s2 = new OperandStack(2);
+        s2.push(Type.DOUBLE);
+        assertFalse(s1.equals(s2));
+        s1.push(Type.LONG);
+        assertFalse(s1.equals(s2));
+
+        // Comparing does not intern the types of the other table
+        assertEquals(-1, table.find(Type.DOUBLE));
+        lv1 = new LocalVariables(2);
+        assertFalse(lv1.equals(lv2));
+        assertEquals(-1, lv1.getTypeTable().find(LONG));
+    }
+}
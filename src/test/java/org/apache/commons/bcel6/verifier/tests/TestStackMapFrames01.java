@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.apache.commons.bcel6.verifier.tests;
+
+public class TestStackMapFrames01{
+
+    private final int value;
+
+    public TestStackMapFrames01(boolean flag){
+        this(flag ? 1 : 2); // uninitializedThis across a branch
+    }
+
+    public TestStackMapFrames01(int value){
+        this.value = value;
+    }
+
+    public static int max(int a, int b){
+        if (a > b){
+            return a;
+        }
+        return b;
+    }
+
+    public static int loop(int n){
+        int sum = 0;
+        for (int i = 0; i < n; i++){
+            sum += i;
+        }
+        return sum;
+    }
+
+    public static int tryCatch(String s){
+        try{
+            return Integer.parseInt(s);
+        }
+        catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    public static int create(boolean flag){
+        return new TestStackMapFrames01(flag ? 3 : 4).value; // uninitialized object across a branch
+    }
+}